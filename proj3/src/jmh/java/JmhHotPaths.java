@@ -0,0 +1,157 @@
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+
+import bearmaps.jmh.HotPaths;
+
+/**
+ * The operations of HotPaths on the classes of proj3, for the JMH benchmarks in
+ * src/jmh/java/bearmaps/jmh. Not used by the server.
+ */
+public class JmhHotPaths implements HotPaths {
+    private static final String RASTER_PARAMS_FILE = "raster_params.txt";
+    private static final int PNG_LEVEL = 4;
+    /** Most tiles to keep decoded, enough for every tile raster_params.txt shows. */
+    private static final int TILE_CACHE_SIZE = 4096;
+
+    private GraphDB graph;
+    private Rasterer rasterer;
+    private List<double[]> paths;
+    private List<List<Long>> routes;
+    private List<RouteOverlay> overlays;
+    private List<Map<String, Double>> rasters;
+    private String[] prefixes;
+    private LruCache<String, BufferedImage> tiles;
+    private TileCompositor compositor;
+    private PngEncoder encoder;
+
+    @Override
+    public void load(String osmPath, String imgRoot) throws IOException {
+        graph = new GraphDB(osmPath);
+        rasterer = new Rasterer();
+        paths = GraphDBBenchmark.pathParams();
+        routes = new ArrayList<>();
+        overlays = new ArrayList<>();
+        for (double[] q : paths) {
+            List<Long> route = Router.shortestPath(graph, q[0], q[1], q[2], q[3]);
+            /* Like MapServer, only ask for the directions of routes with a segment. */
+            if (route.size() >= 2) {
+                routes.add(route);
+            }
+            overlays.add(route.isEmpty() ? RouteOverlay.EMPTY : RouteOverlay.of(graph, route));
+        }
+        rasters = rasterParams();
+        prefixes = prefixes(graph);
+        tiles = new LruCache<>(TILE_CACHE_SIZE);
+        ForkJoinPool pool = new ForkJoinPool();
+        compositor = new TileCompositor(MapServer.TILE_SIZE,
+                name -> tiles.get(name, n -> readTile(imgRoot + n)), pool);
+        encoder = new PngEncoder(PNG_LEVEL, PngEncoder.Filter.ADAPTIVE, pool);
+    }
+
+    @Override
+    public Object buildGraph(String osmPath) {
+        return new GraphDB(osmPath);
+    }
+
+    @Override
+    public long closest(int i) {
+        double[] q = paths.get(i % paths.size());
+        return graph.closest(q[0], q[1]);
+    }
+
+    @Override
+    public Object shortestPath(int i) {
+        double[] q = paths.get(i % paths.size());
+        return Router.shortestPath(graph, q[0], q[1], q[2], q[3]);
+    }
+
+    @Override
+    public Object routeDirections(int i) {
+        return Router.routeDirections(graph, routes.get(i % routes.size()));
+    }
+
+    @Override
+    public Object getMapRaster(int i) {
+        return rasterer.getMapRaster(rasters.get(i % rasters.size()));
+    }
+
+    @Override
+    public Object prefixSearch(int i) {
+        return graph.getLocationsByPrefix(prefixes[i % prefixes.length]);
+    }
+
+    @Override
+    public byte[] raster(int i) throws IOException {
+        Map<String, Object> raster = rasterer.getMapRaster(rasters.get(i % rasters.size()));
+        BufferedImage img = compositor.composite((String[][]) raster.get("render_grid"));
+        Graphics2D g = img.createGraphics();
+        g.setColor(MapServer.ROUTE_STROKE_COLOR);
+        g.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX, BasicStroke.CAP_ROUND,
+                BasicStroke.JOIN_ROUND));
+        overlays.get(i % overlays.size()).draw(g, (double) raster.get("raster_ul_lon"),
+                (double) raster.get("raster_ul_lat"), (double) raster.get("raster_lr_lon"),
+                (double) raster.get("raster_lr_lat"), img.getWidth(), img.getHeight(),
+                (int) raster.get("depth"), MapServer.ROUTE_STROKE_WIDTH_PX);
+        g.dispose();
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        encoder.write(img, png);
+        return png.toByteArray();
+    }
+
+    /** Reads the viewports of raster_params.txt, in the order its lines give them. */
+    private static List<Map<String, Double>> rasterParams() throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(RASTER_PARAMS_FILE),
+                Charset.defaultCharset());
+        String[] keys = {"ullon", "ullat", "lrlon", "lrlat", "w", "h"};
+        List<Map<String, Double>> queries = new ArrayList<>();
+        for (int i = 2; i + keys.length <= lines.size(); i += keys.length) {
+            Map<String, Double> params = new HashMap<>();
+            for (int k = 0; k < keys.length; k++) {
+                params.put(keys[k], Double.parseDouble(lines.get(i + k)));
+            }
+            queries.add(params);
+        }
+        return queries;
+    }
+
+    /** Returns the first one to three letters of some location names of each initial. */
+    private static String[] prefixes(GraphDB g) {
+        Set<String> prefixes = new LinkedHashSet<>();
+        for (char c = 'a'; c <= 'z'; c++) {
+            for (String name : g.getLocationsByPrefix(String.valueOf(c), 4)) {
+                String cleaned = GraphDB.cleanString(name);
+                for (int length = 1; length <= Math.min(3, cleaned.length()); length++) {
+                    prefixes.add(cleaned.substring(0, length));
+                }
+            }
+        }
+        if (prefixes.isEmpty()) {
+            prefixes.add("a");
+        }
+        return prefixes.toArray(new String[0]);
+    }
+
+    private static BufferedImage readTile(String path) {
+        try {
+            BufferedImage img = ImageIO.read(new File(path));
+            return img == null ? null : TileCompositor.toIntRgb(img);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
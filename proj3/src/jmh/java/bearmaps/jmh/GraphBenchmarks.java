@@ -0,0 +1,44 @@
+package bearmaps.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-query cost of the graph queries, replaying path_params.txt in order. Each
+ * call answers one query; with -prof gc, gc.alloc.rate.norm is bytes allocated
+ * per query.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphBenchmarks {
+    @Benchmark
+    public long closest(Workload w, Workload.Cursor c) {
+        return w.hotPaths.closest(c.next());
+    }
+
+    @Benchmark
+    public Object shortestPath(Workload w, Workload.Cursor c) {
+        return w.hotPaths.shortestPath(c.next());
+    }
+
+    @Benchmark
+    public Object routeDirections(Workload w, Workload.Cursor c) {
+        return w.hotPaths.routeDirections(c.next());
+    }
+
+    /** Prefixes of one to three letters of location names, as typed into the search box. */
+    @Benchmark
+    public Object prefixSearch(Workload w, Workload.Cursor c) {
+        return w.hotPaths.prefixSearch(c.next());
+    }
+}
@@ -0,0 +1,42 @@
+package bearmaps.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of parsing the OSM file into a GraphDB, as the server does when it has no
+ * snapshot. A build takes seconds, so each is timed on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GraphBuildBenchmark {
+    @Param("../library-sp18/data/berkeley-2018.osm.xml")
+    public String osmPath;
+
+    private HotPaths hotPaths;
+
+    @Setup
+    public void create() throws ReflectiveOperationException {
+        hotPaths = HotPaths.create();
+    }
+
+    @Benchmark
+    public Object build() {
+        return hotPaths.buildGraph(osmPath);
+    }
+}
@@ -0,0 +1,49 @@
+package bearmaps.jmh;
+
+/**
+ * The proj3 operations the benchmarks measure. JMH only accepts benchmarks in a
+ * named package, and a named package cannot refer to the classes of proj3, which
+ * are in the default package, so JmhHotPaths implements this interface there and
+ * the benchmarks call it through create. Each operation takes the index of a query
+ * and wraps it around the queries loaded.
+ */
+public interface HotPaths {
+    /**
+     * Loads the graph, the tiles and the queries of path_params.txt and
+     * raster_params.txt, which must be in the working directory.
+     * @param osmPath The OSM XML file of the graph.
+     * @param imgRoot The directory of the tile images, ending in a slash.
+     */
+    void load(String osmPath, String imgRoot) throws Exception;
+
+    /** Parses osmPath into a new GraphDB and returns it. */
+    Object buildGraph(String osmPath);
+
+    /** Returns the vertex closest to the start of path query i. */
+    long closest(int i);
+
+    /** Returns the route of path query i. */
+    Object shortestPath(int i);
+
+    /** Returns the directions of the route of path query i, found in load. */
+    Object routeDirections(int i);
+
+    /** Returns the result of Rasterer.getMapRaster for raster query i. */
+    Object getMapRaster(int i);
+
+    /** Returns the locations starting with prefix i, a prefix of a location name. */
+    Object prefixSearch(int i);
+
+    /**
+     * Renders raster query i as /raster does on a raster cache miss: the raster,
+     * the composite of its tiles, the route of path query i drawn on it and the
+     * PNG of that. Tiles are decoded once and kept, as the tile cache keeps them.
+     * @return The PNG.
+     */
+    byte[] raster(int i) throws Exception;
+
+    /** Returns the implementation in the default package. */
+    static HotPaths create() throws ReflectiveOperationException {
+        return (HotPaths) Class.forName("JmhHotPaths").getDeclaredConstructor().newInstance();
+    }
+}
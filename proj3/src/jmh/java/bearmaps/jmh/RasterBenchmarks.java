@@ -0,0 +1,35 @@
+package bearmaps.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-viewport cost of rastering, replaying raster_params.txt in order: the tile
+ * arithmetic of getMapRaster alone, and the whole image of /raster on a raster
+ * cache miss with the tiles already decoded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RasterBenchmarks {
+    @Benchmark
+    public Object getMapRaster(Workload w, Workload.Cursor c) {
+        return w.hotPaths.getMapRaster(c.next());
+    }
+
+    /** Composite, route overlay and PNG encoding of one viewport. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public byte[] raster(Workload w, Workload.Cursor c) throws Exception {
+        return w.hotPaths.raster(c.next());
+    }
+}
@@ -0,0 +1,41 @@
+package bearmaps.jmh;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The graph, tiles and queries every benchmark of a trial shares, loaded once per
+ * fork. The paths are relative to proj3, where the benchmarks must be run, and can
+ * be changed with -p, e.g. -p osmPath=../library-sp18/data/berkeley-2018.osm.xml.
+ */
+@State(Scope.Benchmark)
+public class Workload {
+    @Param("../library-sp18/data/berkeley-2018.osm.xml")
+    public String osmPath;
+
+    @Param("../library-sp18/data/proj3_imgs/")
+    public String imgRoot;
+
+    HotPaths hotPaths;
+
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        hotPaths = HotPaths.create();
+        hotPaths.load(osmPath, imgRoot);
+    }
+
+    /** The index of the next query of a thread, so each call replays the next query. */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next() {
+            int i = next;
+            next = i == Integer.MAX_VALUE ? 0 : i + 1;
+            return i;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reusable A* search state over the compact arrays of a GraphDB.
+ * All per-vertex state lives in primitive arrays indexed by vertex. Instead of
+ * clearing them before every query, each entry is stamped with the generation of
+ * the query that wrote it, and entries with an older stamp are treated as unset.
+ * The fringe is a VertexHeap with lazy deletion: an improved vertex is pushed
+ * again, and stale copies are skipped when popped.
+ * The heuristic of a vertex, the graph's plane distance unless the caller
+ * supplies another, is computed the first time the vertex is touched. An instance is not
+ * thread safe; Router keeps one per thread.
+ */
+public class AStarSearch {
+    private final GraphDB g;
+    private final Heuristic plane;
+    private Heuristic estimator;
+    private final double[] bestDistance;
+    private final int[] bestParent;
+    private final double[] heuristic;
+    /** Generation in which bestDistance, bestParent and heuristic were last written. */
+    private final int[] touched;
+    /** Generation in which the vertex was popped off the fringe for good. */
+    private final int[] marked;
+    private int generation;
+    /** The vertices settled by searchWithin, in order; made on its first call. */
+    private int[] order;
+
+    private final VertexHeap fringe = new VertexHeap();
+
+    private int settledCount;
+
+    /**
+     * Create search state sized for g.
+     * @param g The graph to search. Its vertex set must not change afterwards.
+     */
+    public AStarSearch(GraphDB g) {
+        this.g = g;
+        this.plane = g::planeDistanceAt;
+        int n = g.size();
+        bestDistance = new double[n];
+        bestParent = new int[n];
+        heuristic = new double[n];
+        touched = new int[n];
+        marked = new int[n];
+    }
+
+    GraphDB graph() {
+        return g;
+    }
+
+    /**
+     * Runs A* from source to target, guided by GraphDB.planeDistanceAt.
+     * @param source The index of the start vertex.
+     * @param target The index of the destination vertex.
+     * @return True if target is reachable from source.
+     */
+    boolean search(int source, int target) {
+        return search(source, target, plane);
+    }
+
+    /**
+     * Runs A* from source to target.
+     * @param source The index of the start vertex.
+     * @param target The index of the destination vertex.
+     * @param h The heuristic to order the fringe by.
+     * @return True if target is reachable from source.
+     */
+    boolean search(int source, int target, Heuristic h) {
+        return search(source, target, h, g.edgeWeights(RoutingProfile.SHORTEST));
+    }
+
+    /**
+     * Runs A* from source to target over edge weights other than their lengths,
+     * such as those of a RoutingProfile. Edges of infinite weight are not taken.
+     * Afterwards distance gives the weight of the path found rather than its length.
+     * @param source The index of the start vertex.
+     * @param target The index of the destination vertex.
+     * @param h The heuristic to order the fringe by, a lower bound in the unit of
+     *          the weights.
+     * @param weights The weight of each edge slot.
+     * @return True if target is reachable from source.
+     */
+    boolean search(int source, int target, Heuristic h, double[] weights) {
+        estimator = h;
+        nextGeneration();
+        settledCount = 0;
+        fringe.clear();
+        touch(source, target, 0.0, source);
+        fringe.push(source, heuristic[source]);
+
+        while (!fringe.isEmpty()) {
+            int cur = fringe.pop();
+            if (marked[cur] == generation) {
+                continue;
+            }
+            marked[cur] = generation;
+            settledCount += 1;
+            if (cur == target) {
+                return true;
+            }
+            double startToCur = bestDistance[cur];
+            for (int e = g.edgeStart(cur), end = g.edgeEnd(cur); e < end; e++) {
+                int neighbor = g.edgeTarget(e);
+                if (marked[neighbor] == generation) {
+                    continue;
+                }
+                double weight = weights[e];
+                if (weight == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                double startToNeighbor = startToCur + weight;
+                if (touched[neighbor] != generation) {
+                    touch(neighbor, target, startToNeighbor, cur);
+                } else if (startToNeighbor < bestDistance[neighbor]) {
+                    bestDistance[neighbor] = startToNeighbor;
+                    bestParent[neighbor] = cur;
+                } else {
+                    continue;
+                }
+                fringe.push(neighbor, startToNeighbor + heuristic[neighbor]);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs Dijkstra from source until every target is settled, so that one search
+     * answers the distances to all of them. Afterwards distance gives the distance
+     * to each reachable target, and path the path to it.
+     * @param source The index of the start vertex.
+     * @param targets The indices of the destination vertices, sorted and distinct.
+     * @return The number of targets reached.
+     */
+    int searchAll(int source, int[] targets) {
+        nextGeneration();
+        settledCount = 0;
+        fringe.clear();
+        touched[source] = generation;
+        bestDistance[source] = 0.0;
+        bestParent[source] = source;
+        fringe.push(source, 0.0);
+
+        int reached = 0;
+        while (!fringe.isEmpty() && reached < targets.length) {
+            int cur = fringe.pop();
+            if (marked[cur] == generation) {
+                continue;
+            }
+            marked[cur] = generation;
+            settledCount += 1;
+            if (Arrays.binarySearch(targets, cur) >= 0) {
+                reached += 1;
+            }
+            double startToCur = bestDistance[cur];
+            for (int e = g.edgeStart(cur), end = g.edgeEnd(cur); e < end; e++) {
+                int neighbor = g.edgeTarget(e);
+                if (marked[neighbor] == generation) {
+                    continue;
+                }
+                double startToNeighbor = startToCur + g.edgeLength(e);
+                if (touched[neighbor] != generation || startToNeighbor < bestDistance[neighbor]) {
+                    touched[neighbor] = generation;
+                    bestDistance[neighbor] = startToNeighbor;
+                    bestParent[neighbor] = cur;
+                    fringe.push(neighbor, startToNeighbor);
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Runs Dijkstra from source, settling every vertex within budget of it and no
+     * other. Afterwards distance gives the distance to each vertex returned.
+     * @param source The index of the start vertex.
+     * @param budget The greatest distance to settle vertices at.
+     * @return The indices of the vertices settled, in order of distance.
+     */
+    int[] searchWithin(int source, double budget) {
+        if (order == null) {
+            order = new int[g.size()];
+        }
+        nextGeneration();
+        settledCount = 0;
+        fringe.clear();
+        touched[source] = generation;
+        bestDistance[source] = 0.0;
+        bestParent[source] = source;
+        fringe.push(source, 0.0);
+
+        while (!fringe.isEmpty()) {
+            int cur = fringe.pop();
+            if (marked[cur] == generation) {
+                continue;
+            }
+            marked[cur] = generation;
+            order[settledCount++] = cur;
+            double startToCur = bestDistance[cur];
+            for (int e = g.edgeStart(cur), end = g.edgeEnd(cur); e < end; e++) {
+                int neighbor = g.edgeTarget(e);
+                if (marked[neighbor] == generation) {
+                    continue;
+                }
+                double startToNeighbor = startToCur + g.edgeLength(e);
+                if (startToNeighbor <= budget && (touched[neighbor] != generation
+                        || startToNeighbor < bestDistance[neighbor])) {
+                    touched[neighbor] = generation;
+                    bestDistance[neighbor] = startToNeighbor;
+                    bestParent[neighbor] = cur;
+                    fringe.push(neighbor, startToNeighbor);
+                }
+            }
+        }
+        return Arrays.copyOf(order, settledCount);
+    }
+
+    /**
+     * Returns the ids on the best path found to target by the last search.
+     * Only valid if the last search reached target.
+     */
+    List<Long> path(int target) {
+        List<Long> res = new ArrayList<>();
+        int cur = target;
+        res.add(g.id(cur));
+        while (bestParent[cur] != cur) {
+            cur = bestParent[cur];
+            res.add(g.id(cur));
+        }
+        Collections.reverse(res);
+        return res;
+    }
+
+    /** Returns the shortest distance to v found by the last search. */
+    double distance(int v) {
+        return touched[v] == generation ? bestDistance[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /** Returns the number of vertices settled by the last search. */
+    int settledCount() {
+        return settledCount;
+    }
+
+    private void touch(int v, int target, double distance, int parent) {
+        touched[v] = generation;
+        bestDistance[v] = distance;
+        bestParent[v] = parent;
+        heuristic[v] = estimator.estimate(v, target);
+    }
+
+    private void nextGeneration() {
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(touched, 0);
+            Arrays.fill(marked, 0);
+            generation = 0;
+        }
+        generation += 1;
+    }
+}
@@ -0,0 +1,230 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Prefix index over the cleaned names of locations, for autocomplete.
+ * The cleaned names are kept in one sorted array, so the names starting with a
+ * prefix are the contiguous range found by two binary searches. Each name has a
+ * score, and a sparse table of range maxima over the scores finds the best name
+ * of any range in constant time. The top k names of a prefix are then extracted
+ * best first by splitting ranges around each maximum, visiting O(k) ranges
+ * however many names share the prefix. Ties in score go to the name that sorts
+ * first.
+ */
+public class AutocompleteIndex {
+    private final String[] cleaned;
+    private final String[] names;
+    private final double[] scores;
+    /** best[j][i] is the index of the best name in [i, i + 2^j). */
+    private final int[][] best;
+
+    /**
+     * Create an index of the given names.
+     * @param cleanedNames The cleaned form of each name, all distinct.
+     * @param names The name to report for each cleaned name.
+     * @param scores The score of each name; higher scores are suggested first.
+     */
+    AutocompleteIndex(String[] cleanedNames, String[] names, double[] scores) {
+        int n = cleanedNames.length;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> cleanedNames[i]));
+        this.cleaned = new String[n];
+        this.names = new String[n];
+        this.scores = new double[n];
+        for (int i = 0; i < n; i++) {
+            this.cleaned[i] = cleanedNames[order[i]];
+            this.names[i] = names[order[i]];
+            this.scores[i] = scores[order[i]];
+        }
+
+        int levels = 1;
+        while ((1 << levels) <= n) {
+            levels += 1;
+        }
+        best = new int[levels][];
+        best[0] = new int[n];
+        for (int i = 0; i < n; i++) {
+            best[0][i] = i;
+        }
+        for (int j = 1; j < levels; j++) {
+            int half = 1 << (j - 1);
+            best[j] = new int[n - (1 << j) + 1];
+            for (int i = 0; i < best[j].length; i++) {
+                best[j][i] = better(best[j - 1][i], best[j - 1][i + half]);
+            }
+        }
+    }
+
+    /** Returns the number of names in the index. */
+    int size() {
+        return cleaned.length;
+    }
+
+    /**
+     * Returns the names whose cleaned form starts with a cleaned prefix, in the
+     * order of their cleaned forms.
+     * @param prefix A cleaned prefix.
+     * @return The matching names.
+     */
+    List<String> all(String prefix) {
+        int lo = lowerBound(prefix, false);
+        int hi = lowerBound(prefix, true);
+        return Collections.unmodifiableList(Arrays.asList(names).subList(lo, hi));
+    }
+
+    /**
+     * Returns the k best scoring names whose cleaned form starts with a cleaned
+     * prefix, best first.
+     * @param prefix A cleaned prefix.
+     * @param k The most names to return.
+     * @return Up to k matching names.
+     */
+    List<String> top(String prefix, int k) {
+        int lo = lowerBound(prefix, false);
+        int hi = lowerBound(prefix, true);
+        k = Math.min(k, hi - lo);
+        List<String> res = new ArrayList<>(Math.max(0, k));
+        if (k <= 0) {
+            return res;
+        }
+        RangeHeap ranges = new RangeHeap(2 * k + 1);
+        ranges.push(lo, hi);
+        while (!ranges.isEmpty() && res.size() < k) {
+            int r = ranges.pop();
+            int m = ranges.bestName[r];
+            res.add(names[m]);
+            ranges.push(ranges.lo[r], m);
+            ranges.push(m + 1, ranges.hi[r]);
+        }
+        return res;
+    }
+
+    /** Returns the index of the best name in [lo, hi), which must not be empty. */
+    private int bestIn(int lo, int hi) {
+        int j = 31 - Integer.numberOfLeadingZeros(hi - lo);
+        return better(best[j][lo], best[j][hi - (1 << j)]);
+    }
+
+    /** Returns whichever of names i and j has the higher score, or the first on a tie. */
+    private int better(int i, int j) {
+        if (scores[i] != scores[j]) {
+            return scores[i] > scores[j] ? i : j;
+        }
+        return Math.min(i, j);
+    }
+
+    /**
+     * Binary max-heap of disjoint index ranges, ordered by the best name in each.
+     * Range r is [lo[r], hi[r]) and its best name is bestName[r].
+     */
+    private class RangeHeap {
+        final int[] lo;
+        final int[] hi;
+        final int[] bestName;
+        final int[] heap;
+        int ranges;
+        int size;
+
+        RangeHeap(int capacity) {
+            lo = new int[capacity];
+            hi = new int[capacity];
+            bestName = new int[capacity];
+            heap = new int[capacity];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        /** Adds the range [from, to) unless it is empty. */
+        void push(int from, int to) {
+            if (from >= to) {
+                return;
+            }
+            int r = ranges++;
+            lo[r] = from;
+            hi[r] = to;
+            bestName[r] = bestIn(from, to);
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(r, heap[parent])) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = r;
+        }
+
+        /** Removes and returns the range with the best name. */
+        int pop() {
+            int top = heap[0];
+            int r = heap[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(heap[child + 1], heap[child])) {
+                    child += 1;
+                }
+                if (!before(heap[child], r)) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = r;
+            return top;
+        }
+
+        /** Returns whether the best name of range a beats that of range b. */
+        private boolean before(int a, int b) {
+            return better(bestName[a], bestName[b]) == bestName[a];
+        }
+    }
+
+    /**
+     * Returns the first index whose cleaned name does not sort before prefix, or,
+     * if past is set, the first index whose cleaned name sorts after every name
+     * starting with prefix.
+     */
+    private int lowerBound(String prefix, boolean past) {
+        int lo = 0;
+        int hi = cleaned.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = comparePrefix(cleaned[mid], prefix);
+            if (cmp < 0 || (past && cmp == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Compares the first prefix.length() characters of name with prefix, without
+     * taking a substring. A name shorter than the prefix that matches it as far as
+     * it goes sorts before it.
+     */
+    private static int comparePrefix(String name, String prefix) {
+        int n = Math.min(name.length(), prefix.length());
+        for (int i = 0; i < n; i++) {
+            int diff = name.charAt(i) - prefix.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return name.length() < prefix.length() ? -1 : 0;
+    }
+}
@@ -0,0 +1,192 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reusable bidirectional A* search state over the compact arrays of a GraphDB.
+ * A forward search from the source and a reverse search from the target take
+ * turns, the one with the smaller fringe going next, each with generation-stamped
+ * primitive arrays as in AStarSearch. Both are
+ * guided by the average potential p(v) = (h(v, target) - h(v, source)) / 2, which
+ * the forward search adds to its keys and the reverse search subtracts. Because
+ * the two potentials sum to zero, both searches see the same nonnegative reduced
+ * edge weights, and the search can stop as soon as the smallest forward key plus
+ * the smallest reverse key reaches the length of the best path found so far.
+ * An instance is not thread safe; Router keeps one per thread.
+ */
+public class BidirectionalAStarSearch {
+    private static final int FORWARD = 0;
+    private static final int REVERSE = 1;
+
+    private final GraphDB g;
+    private final Heuristic plane;
+    private final double[][] bestDistance;
+    private final int[][] bestParent;
+    /** Generation in which bestDistance and bestParent were last written, per direction. */
+    private final int[][] touched;
+    /** Generation in which the vertex was settled, per direction. */
+    private final int[][] marked;
+    private final double[] potential;
+    /** Generation in which potential was last written. */
+    private final int[] potentialTouched;
+    private int generation;
+
+    private final VertexHeap[] fringes = {new VertexHeap(), new VertexHeap()};
+
+    private Heuristic estimator;
+    private int source;
+    private int target;
+    private int meet;
+    private int settledCount;
+
+    /**
+     * Create search state sized for g.
+     * @param g The graph to search. Its vertex set must not change afterwards.
+     */
+    public BidirectionalAStarSearch(GraphDB g) {
+        this.g = g;
+        this.plane = g::planeDistanceAt;
+        int n = g.size();
+        bestDistance = new double[2][n];
+        bestParent = new int[2][n];
+        touched = new int[2][n];
+        marked = new int[2][n];
+        potential = new double[n];
+        potentialTouched = new int[n];
+    }
+
+    GraphDB graph() {
+        return g;
+    }
+
+    /**
+     * Runs bidirectional A* between source and target, guided by
+     * GraphDB.planeDistanceAt.
+     * @param source The index of the start vertex.
+     * @param target The index of the destination vertex.
+     * @return True if target is reachable from source.
+     */
+    boolean search(int source, int target) {
+        return search(source, target, plane);
+    }
+
+    /**
+     * Runs bidirectional A* between source and target.
+     * @param source The index of the start vertex.
+     * @param target The index of the destination vertex.
+     * @param h The heuristic the potentials are built from.
+     * @return True if target is reachable from source.
+     */
+    boolean search(int source, int target, Heuristic h) {
+        this.estimator = h;
+        this.source = source;
+        this.target = target;
+        nextGeneration();
+        settledCount = 0;
+        meet = -1;
+        int[] roots = {source, target};
+        for (int dir = FORWARD; dir <= REVERSE; dir++) {
+            fringes[dir].clear();
+            touch(dir, roots[dir], 0.0, roots[dir]);
+            fringes[dir].push(roots[dir], key(dir, roots[dir]));
+        }
+
+        if (source == target) {
+            meet = source;
+            return true;
+        }
+        double best = Double.POSITIVE_INFINITY;
+        while (!fringes[FORWARD].isEmpty() && !fringes[REVERSE].isEmpty()) {
+            double forwardKey = fringes[FORWARD].minKey();
+            double reverseKey = fringes[REVERSE].minKey();
+            if (forwardKey + reverseKey >= best) {
+                break;
+            }
+            int dir = fringes[FORWARD].size() <= fringes[REVERSE].size() ? FORWARD : REVERSE;
+            int other = 1 - dir;
+            int cur = fringes[dir].pop();
+            if (marked[dir][cur] == generation) {
+                continue;
+            }
+            marked[dir][cur] = generation;
+            settledCount += 1;
+            double rootToCur = bestDistance[dir][cur];
+            for (int e = g.edgeStart(cur), end = g.edgeEnd(cur); e < end; e++) {
+                int neighbor = g.edgeTarget(e);
+                if (marked[dir][neighbor] == generation) {
+                    continue;
+                }
+                double rootToNeighbor = rootToCur + g.edgeLength(e);
+                if (touched[dir][neighbor] != generation) {
+                    touch(dir, neighbor, rootToNeighbor, cur);
+                } else if (rootToNeighbor < bestDistance[dir][neighbor]) {
+                    bestDistance[dir][neighbor] = rootToNeighbor;
+                    bestParent[dir][neighbor] = cur;
+                } else {
+                    continue;
+                }
+                fringes[dir].push(neighbor, key(dir, neighbor));
+                if (touched[other][neighbor] == generation) {
+                    double through = rootToNeighbor + bestDistance[other][neighbor];
+                    if (through < best) {
+                        best = through;
+                        meet = neighbor;
+                    }
+                }
+            }
+        }
+        return meet >= 0;
+    }
+
+    /**
+     * Returns the ids on the best path found by the last search, from its source
+     * to its target. Only valid if the last search succeeded.
+     */
+    List<Long> path() {
+        List<Long> res = new ArrayList<>();
+        for (int cur = meet; cur != source; cur = bestParent[FORWARD][cur]) {
+            res.add(g.id(cur));
+        }
+        res.add(g.id(source));
+        Collections.reverse(res);
+        for (int cur = meet; cur != target; ) {
+            cur = bestParent[REVERSE][cur];
+            res.add(g.id(cur));
+        }
+        return res;
+    }
+
+    /** Returns the number of vertices settled by the last search, in both directions. */
+    int settledCount() {
+        return settledCount;
+    }
+
+    /** Returns the fringe priority of v in the given direction. */
+    private double key(int dir, int v) {
+        return dir == FORWARD ? bestDistance[dir][v] + potential[v]
+                : bestDistance[dir][v] - potential[v];
+    }
+
+    private void touch(int dir, int v, double distance, int parent) {
+        touched[dir][v] = generation;
+        bestDistance[dir][v] = distance;
+        bestParent[dir][v] = parent;
+        if (potentialTouched[v] != generation) {
+            potentialTouched[v] = generation;
+            potential[v] = (estimator.estimate(v, target) - estimator.estimate(v, source)) / 2;
+        }
+    }
+
+    private void nextGeneration() {
+        if (generation == Integer.MAX_VALUE) {
+            for (int dir = FORWARD; dir <= REVERSE; dir++) {
+                Arrays.fill(touched[dir], 0);
+                Arrays.fill(marked[dir], 0);
+            }
+            Arrays.fill(potentialTouched, 0);
+            generation = 0;
+        }
+        generation += 1;
+    }
+}
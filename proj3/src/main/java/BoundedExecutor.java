@@ -0,0 +1,120 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the expensive part of an endpoint's requests on a fixed number of its own
+ * threads, with a bounded queue in front of them. A request that finds the queue
+ * full, or that waits longer than a timeout, fails at once with Overloaded rather
+ * than piling up, so the server threads left over stay free for cheap requests.
+ * The server thread of a request still waits for its task, since Spark handlers
+ * return their response; the bound on queued tasks is what bounds those waits.
+ */
+public class BoundedExecutor {
+    private final String name;
+    private final ThreadPoolExecutor pool;
+    private final long timeoutNanos;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    /** Thrown when a task is turned away or not run in time. */
+    static class Overloaded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Overloaded(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Create an executor and start its threads.
+     * @param name Names the threads, e.g. raster.
+     * @param threads The most tasks to run at once.
+     * @param queueDepth The most tasks to hold waiting for a thread.
+     * @param timeoutNanos How long call waits for a task to finish.
+     */
+    public BoundedExecutor(String name, int threads, int queueDepth, long timeoutNanos) {
+        this.name = name;
+        this.timeoutNanos = timeoutNanos;
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.NANOSECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueDepth)), r -> {
+                    Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Runs task on this executor and returns its result.
+     * @param task The task.
+     * @return The result of the task.
+     * @throws Overloaded If the queue is full, or the task has not finished within
+     * the timeout, in which case it is cancelled.
+     */
+    <T> T call(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = pool.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new Overloaded(name + " queue full");
+        }
+        try {
+            T result = future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+            completed.incrementAndGet();
+            return result;
+        } catch (ExecutionException e) {
+            completed.incrementAndGet();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timedOut.incrementAndGet();
+            throw new Overloaded(name + " timed out");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new Overloaded(name + " interrupted");
+        }
+    }
+
+    /** Returns the number of tasks running. */
+    int active() {
+        return pool.getActiveCount();
+    }
+
+    /** Returns the number of tasks waiting for a thread. */
+    int queued() {
+        return pool.getQueue().size();
+    }
+
+    /** Returns the number of tasks that finished in time, normally or not. */
+    long completed() {
+        return completed.get();
+    }
+
+    /** Returns the number of tasks turned away because the queue was full. */
+    long rejected() {
+        return rejected.get();
+    }
+
+    /** Returns the number of tasks cancelled for not finishing within the timeout. */
+    long timedOut() {
+        return timedOut.get();
+    }
+}
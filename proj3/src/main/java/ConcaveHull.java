@@ -0,0 +1,296 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Concave hulls of point sets, by the gift-opening method of Park and Oh (as in
+ * the concaveman library). Starting from the convex hull, each hull edge longer
+ * than a threshold is opened up to the nearest point inside it, provided the two
+ * new edges cross no other hull edge and the point is nearer that edge than its
+ * neighbors. Opening stops once no edge can be opened. The concavity bounds how
+ * far in a point may be relative to the edge's length: an edge of length L only
+ * takes points within L / concavity of both its ends, so larger values give
+ * smoother hulls and infinity gives the convex hull.
+ *
+ * Points are found through a uniform grid, and the crossing test scans the hull,
+ * which is fine for the hulls of thousands of points this is used for.
+ */
+public class ConcaveHull {
+    private final double[] xs;
+    private final double[] ys;
+    private final boolean[] onHull;
+    /** The hull as a circular list of point indices, in counterclockwise order. */
+    private final int[] next;
+    private final int[] prev;
+    private int hullStart;
+    private int hullSize;
+
+    /** Grid of the points: those in cell c are cells[cellStart[c]] to cells[cellStart[c + 1]]. */
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    private final int[] cellStart;
+    private final int[] cells;
+
+    /**
+     * Returns the concave hull of a set of points in a plane.
+     * @param xs The x coordinates of the points.
+     * @param ys The y coordinates of the points.
+     * @param concavity How concave the hull may be, at least 1; 2 is a good start.
+     * @param lengthThreshold Edges shorter than this are never opened.
+     * @return The indices of the points on the hull in counterclockwise order,
+     * without repeating the first. Fewer than 3 only if the points are collinear.
+     */
+    static int[] of(double[] xs, double[] ys, double concavity, double lengthThreshold) {
+        int[] convex = convexHull(xs, ys);
+        if (convex.length < 3 || Double.isInfinite(concavity)) {
+            return convex;
+        }
+        ConcaveHull hull = new ConcaveHull(xs, ys, convex);
+        hull.open(concavity, lengthThreshold);
+        return hull.toArray();
+    }
+
+    private ConcaveHull(double[] xs, double[] ys, int[] convex) {
+        this.xs = xs;
+        this.ys = ys;
+        int n = xs.length;
+        onHull = new boolean[n];
+        next = new int[n];
+        prev = new int[n];
+        for (int i = 0; i < convex.length; i++) {
+            int v = convex[i];
+            onHull[v] = true;
+            next[v] = convex[(i + 1) % convex.length];
+            prev[v] = convex[(i + convex.length - 1) % convex.length];
+        }
+        hullStart = convex[0];
+        hullSize = convex.length;
+
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double lowX = Double.POSITIVE_INFINITY;
+        double lowY = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            lowX = Math.min(lowX, xs[i]);
+            lowY = Math.min(lowY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        minX = lowX;
+        minY = lowY;
+        /* About two points per cell if they were spread evenly. */
+        int perSide = Math.max(1, (int) Math.sqrt(n / 2.0));
+        cellSize = Math.max(maxX - minX, maxY - minY) / perSide + Double.MIN_NORMAL;
+        columns = (int) ((maxX - minX) / cellSize) + 1;
+        rows = (int) ((maxY - minY) / cellSize) + 1;
+        cellStart = new int[columns * rows + 1];
+        for (int i = 0; i < n; i++) {
+            cellStart[cell(i) + 1] += 1;
+        }
+        for (int c = 0; c < columns * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        cells = new int[n];
+        int[] fill = Arrays.copyOf(cellStart, columns * rows);
+        for (int i = 0; i < n; i++) {
+            cells[fill[cell(i)]++] = i;
+        }
+    }
+
+    private int cell(int i) {
+        int column = (int) ((xs[i] - minX) / cellSize);
+        int row = (int) ((ys[i] - minY) / cellSize);
+        return row * columns + column;
+    }
+
+    /** Opens hull edges until none can be opened further. */
+    private void open(double concavity, double lengthThreshold) {
+        double sqConcavity = concavity * concavity;
+        double sqLengthThreshold = lengthThreshold * lengthThreshold;
+        /* Edges to try, as pairs of their ends, since an edge may be split before its turn. */
+        Deque<int[]> edges = new ArrayDeque<>();
+        int v = hullStart;
+        for (int i = 0; i < hullSize; i++) {
+            edges.add(new int[] {v, next[v]});
+            v = next[v];
+        }
+        while (!edges.isEmpty()) {
+            int[] edge = edges.poll();
+            int a = edge[0];
+            int b = edge[1];
+            if (next[a] != b) {
+                continue;
+            }
+            double sqLength = sqDist(a, b);
+            if (sqLength < sqLengthThreshold) {
+                continue;
+            }
+            double maxSqLength = sqLength / sqConcavity;
+            int p = candidate(prev[a], a, b, next[b], maxSqLength);
+            if (p >= 0 && Math.min(sqDist(p, a), sqDist(p, b)) <= maxSqLength) {
+                next[a] = p;
+                prev[p] = a;
+                next[p] = b;
+                prev[b] = p;
+                onHull[p] = true;
+                hullSize += 1;
+                edges.add(new int[] {a, p});
+                edges.add(new int[] {p, b});
+            }
+        }
+    }
+
+    /**
+     * Returns the point off the hull nearest the edge from a to b, within
+     * maxSqDistance of it, that is nearer it than the edges before and after it and
+     * that can be joined to a and b without crossing the hull; or -1.
+     */
+    private int candidate(int before, int a, int b, int after, double maxSqDistance) {
+        double reach = Math.sqrt(maxSqDistance);
+        int column0 = clamp((int) ((Math.min(xs[a], xs[b]) - reach - minX) / cellSize), columns);
+        int column1 = clamp((int) ((Math.max(xs[a], xs[b]) + reach - minX) / cellSize), columns);
+        int row0 = clamp((int) ((Math.min(ys[a], ys[b]) - reach - minY) / cellSize), rows);
+        int row1 = clamp((int) ((Math.max(ys[a], ys[b]) + reach - minY) / cellSize), rows);
+
+        /* The points near enough, packed as distance and index so they sort together. */
+        int count = 0;
+        double[] distances = new double[16];
+        int[] points = new int[16];
+        for (int row = row0; row <= row1; row++) {
+            for (int c = row * columns + column0; c <= row * columns + column1; c++) {
+                for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                    int p = cells[k];
+                    if (onHull[p]) {
+                        continue;
+                    }
+                    double d = sqSegmentDist(p, a, b);
+                    if (d > maxSqDistance) {
+                        continue;
+                    }
+                    if (count == points.length) {
+                        points = Arrays.copyOf(points, 2 * count);
+                        distances = Arrays.copyOf(distances, 2 * count);
+                    }
+                    distances[count] = d;
+                    points[count] = p;
+                    count += 1;
+                }
+            }
+        }
+        Integer[] byDistance = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            byDistance[i] = i;
+        }
+        double[] keys = distances;
+        Arrays.sort(byDistance, (i, j) -> Double.compare(keys[i], keys[j]));
+        for (int i : byDistance) {
+            int p = points[i];
+            double d = distances[i];
+            if (d < sqSegmentDist(p, before, a) && d < sqSegmentDist(p, b, after)
+                    && !crossesHull(a, p) && !crossesHull(p, b)) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns whether the segment from p to q crosses a hull edge not ending at p or q. */
+    private boolean crossesHull(int p, int q) {
+        int v = hullStart;
+        for (int i = 0; i < hullSize; i++) {
+            int w = next[v];
+            if (v != p && v != q && w != p && w != q && intersects(p, q, v, w)) {
+                return true;
+            }
+            v = w;
+        }
+        return false;
+    }
+
+    private boolean intersects(int p1, int q1, int p2, int q2) {
+        return (orient(p1, q1, p2) > 0) != (orient(p1, q1, q2) > 0)
+                && (orient(p2, q2, p1) > 0) != (orient(p2, q2, q1) > 0);
+    }
+
+    private double orient(int p, int q, int r) {
+        return (ys[q] - ys[p]) * (xs[r] - xs[q]) - (xs[q] - xs[p]) * (ys[r] - ys[q]);
+    }
+
+    private double sqDist(int p, int q) {
+        double dx = xs[p] - xs[q];
+        double dy = ys[p] - ys[q];
+        return dx * dx + dy * dy;
+    }
+
+    /** Returns the squared distance from point p to the segment from a to b. */
+    private double sqSegmentDist(int p, int a, int b) {
+        double x = xs[a];
+        double y = ys[a];
+        double dx = xs[b] - x;
+        double dy = ys[b] - y;
+        if (dx != 0 || dy != 0) {
+            double t = ((xs[p] - x) * dx + (ys[p] - y) * dy) / (dx * dx + dy * dy);
+            if (t > 1) {
+                x = xs[b];
+                y = ys[b];
+            } else if (t > 0) {
+                x += dx * t;
+                y += dy * t;
+            }
+        }
+        dx = xs[p] - x;
+        dy = ys[p] - y;
+        return dx * dx + dy * dy;
+    }
+
+    private static int clamp(int i, int size) {
+        return Math.max(0, Math.min(size - 1, i));
+    }
+
+    private int[] toArray() {
+        int[] res = new int[hullSize];
+        int v = hullStart;
+        for (int i = 0; i < hullSize; i++) {
+            res[i] = v;
+            v = next[v];
+        }
+        return res;
+    }
+
+    /**
+     * Returns the convex hull of a set of points by Andrew's monotone chain, in
+     * counterclockwise order, without collinear points.
+     */
+    static int[] convexHull(double[] xs, double[] ys) {
+        int n = xs.length;
+        Integer[] sorted = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (i, j) -> xs[i] != xs[j] ? Double.compare(xs[i], xs[j])
+                : Double.compare(ys[i], ys[j]));
+        int[] hull = new int[2 * n + 1];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            while (k >= 2 && cross(xs, ys, hull[k - 2], hull[k - 1], sorted[i]) <= 0) {
+                k -= 1;
+            }
+            hull[k++] = sorted[i];
+        }
+        for (int i = n - 2, lower = k + 1; i >= 0; i--) {
+            while (k >= lower && cross(xs, ys, hull[k - 2], hull[k - 1], sorted[i]) <= 0) {
+                k -= 1;
+            }
+            hull[k++] = sorted[i];
+        }
+        /* The last point repeats the first, except for fewer than two points. */
+        return Arrays.copyOf(hull, n < 2 ? n : k - 1);
+    }
+
+    private static double cross(double[] xs, double[] ys, int o, int a, int b) {
+        return (xs[a] - xs[o]) * (ys[b] - ys[o]) - (ys[a] - ys[o]) * (xs[b] - xs[o]);
+    }
+}
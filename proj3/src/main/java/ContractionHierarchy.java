@@ -0,0 +1,561 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Contraction hierarchy over the road graph of a GraphDB, for fast long-distance
+ * shortest paths.
+ * Preprocessing contracts the vertices one at a time, cheapest first by edge
+ * difference. Contracting v adds a shortcut u-w of weight d(u, v) + d(v, w) for a
+ * pair of remaining neighbors only if a bounded witness search finds no path from
+ * u to w avoiding v that is as short. The order in which vertices were contracted
+ * is their rank, and only the edges leading to a higher rank are kept.
+ * A query runs Dijkstra upwards from both endpoints and stops once neither
+ * fringe can improve the best meeting vertex. Each shortcut remembers the vertex
+ * it bypasses, which lets the path be unpacked into the original vertices.
+ * Roads are two-way, so one upward graph serves both search directions.
+ */
+public class ContractionHierarchy {
+    private static final int MAGIC = 0x43484231;
+    private static final int VERSION = 1;
+    /** Bytes of the magic number, version, graph fingerprint and counts of a file. */
+    private static final int HEADER_BYTES = 24;
+    /** Witness searches give up after settling this many vertices. */
+    private static final int WITNESS_SETTLE_LIMIT = 100;
+
+    private final GraphDB g;
+    private final int[] rank;
+    /* Upward edges of vertex v occupy slots upOffsets[v] until upOffsets[v + 1]. */
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upWeights;
+    /** Vertex bypassed by the shortcut in each slot, or -1 for an original edge. */
+    private final int[] upMiddles;
+    private final ThreadLocal<Query> queries;
+
+    private ContractionHierarchy(GraphDB g, int[] rank, int[] upOffsets, int[] upTargets,
+                                 double[] upWeights, int[] upMiddles) {
+        this.g = g;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddles = upMiddles;
+        this.queries = ThreadLocal.withInitial(Query::new);
+    }
+
+    /**
+     * Preprocesses g into a contraction hierarchy.
+     * @param g The graph.
+     * @return The hierarchy.
+     */
+    static ContractionHierarchy build(GraphDB g) {
+        return new Builder(g).build();
+    }
+
+    /**
+     * Loads the hierarchy for g from path, or builds it and saves it there if the
+     * file is missing, unreadable or was built for a different graph.
+     * @param g The graph.
+     * @param path The file the hierarchy is persisted in.
+     * @return The hierarchy.
+     */
+    static ContractionHierarchy loadOrBuild(GraphDB g, String path) {
+        File file = new File(path);
+        if (file.exists()) {
+            try {
+                ContractionHierarchy ch = load(g, file);
+                if (ch != null) {
+                    return ch;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        ContractionHierarchy ch = build(g);
+        try {
+            ch.save(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return ch;
+    }
+
+    /** Returns the number of upward edges, original and shortcut. */
+    int upwardEdgeCount() {
+        return upTargets.length;
+    }
+
+    /**
+     * Finds the shortest path between two vertices.
+     * @param source The index of the start vertex.
+     * @param target The index of the destination vertex.
+     * @return The ids of the vertices on the path, or an empty list if there is none.
+     */
+    List<Long> shortestPath(int source, int target) {
+        return queries.get().run(source, target);
+    }
+
+    /** Returns the number of vertices settled by the calling thread's last query. */
+    int settledCount() {
+        return queries.get().settled;
+    }
+
+    /**
+     * Writes the hierarchy to file, tagged with the fingerprint of its graph.
+     * @param file The destination.
+     * @throws IOException If the file cannot be written.
+     */
+    void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(g.fingerprint());
+            out.writeInt(rank.length);
+            out.writeInt(upTargets.length);
+            for (int r : rank) {
+                out.writeInt(r);
+            }
+            for (int offset : upOffsets) {
+                out.writeInt(offset);
+            }
+            for (int e = 0; e < upTargets.length; e++) {
+                out.writeInt(upTargets[e]);
+                out.writeDouble(upWeights[e]);
+                out.writeInt(upMiddles[e]);
+            }
+        }
+    }
+
+    /**
+     * Reads a hierarchy written by save.
+     * @param g The graph the hierarchy should belong to.
+     * @param file The file to read.
+     * @return The hierarchy, or null if the file is of another version or graph, or
+     * is corrupt.
+     * @throws IOException If the file cannot be read.
+     */
+    static ContractionHierarchy load(GraphDB g, File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != g.fingerprint()) {
+                return null;
+            }
+            int n = in.readInt();
+            int m = in.readInt();
+            /* Checking the length first keeps a corrupt count from allocating. */
+            if (n != g.size() || m < 0
+                    || file.length() != HEADER_BYTES + 8L * n + 4 + 16L * m) {
+                return null;
+            }
+            int[] rank = new int[n];
+            for (int i = 0; i < n; i++) {
+                rank[i] = in.readInt();
+            }
+            int[] upOffsets = new int[n + 1];
+            for (int i = 0; i <= n; i++) {
+                upOffsets[i] = in.readInt();
+            }
+            int[] upTargets = new int[m];
+            double[] upWeights = new double[m];
+            int[] upMiddles = new int[m];
+            for (int e = 0; e < m; e++) {
+                upTargets[e] = in.readInt();
+                upWeights[e] = in.readDouble();
+                upMiddles[e] = in.readInt();
+            }
+            if (upOffsets[0] != 0 || upOffsets[n] != m) {
+                return null;
+            }
+            for (int i = 0; i < n; i++) {
+                if (upOffsets[i] > upOffsets[i + 1]) {
+                    return null;
+                }
+            }
+            for (int e = 0; e < m; e++) {
+                if (upTargets[e] < 0 || upTargets[e] >= n || upMiddles[e] < -1
+                        || upMiddles[e] >= n) {
+                    return null;
+                }
+            }
+            return new ContractionHierarchy(g, rank, upOffsets, upTargets, upWeights,
+                    upMiddles);
+        } catch (RuntimeException e) {
+            /* Anything the checks above miss is corrupt as well, and rebuilt. */
+            return null;
+        }
+    }
+
+    /** Returns the vertex bypassed by the upward edge between a and b, or -1. */
+    private int middle(int a, int b) {
+        int lower = rank[a] < rank[b] ? a : b;
+        int higher = lower == a ? b : a;
+        for (int e = upOffsets[lower]; e < upOffsets[lower + 1]; e++) {
+            if (upTargets[e] == higher) {
+                return upMiddles[e];
+            }
+        }
+        throw new IllegalStateException("No upward edge between " + a + " and " + b);
+    }
+
+    /**
+     * Appends the original vertices of the edge a-b to res, excluding a and
+     * including b, by recursively replacing shortcuts with the two edges they bypass.
+     */
+    private void unpack(int a, int b, List<Long> res, int[] stack) {
+        int top = 0;
+        stack[top++] = a;
+        stack[top++] = b;
+        while (top > 0) {
+            int y = stack[--top];
+            int x = stack[--top];
+            int m = middle(x, y);
+            if (m < 0) {
+                res.add(g.id(y));
+            } else {
+                stack[top++] = m;
+                stack[top++] = y;
+                stack[top++] = x;
+                stack[top++] = m;
+            }
+        }
+    }
+
+    /**
+     * Per-thread query state for the bidirectional upward search, stamped with a
+     * generation so that it does not need clearing between queries.
+     */
+    private class Query {
+        final double[][] dist;
+        final int[][] parent;
+        final int[][] touched;
+        final int[][] marked;
+        final VertexHeap[] fringes = {new VertexHeap(), new VertexHeap()};
+        /** Unpacking stack; a hierarchy is at most as deep as the number of vertices. */
+        final int[] stack;
+        int generation;
+        int settled;
+
+        Query() {
+            int n = rank.length;
+            dist = new double[2][n];
+            parent = new int[2][n];
+            touched = new int[2][n];
+            marked = new int[2][n];
+            stack = new int[4 * n + 4];
+        }
+
+        List<Long> run(int source, int target) {
+            if (generation == Integer.MAX_VALUE) {
+                for (int dir = 0; dir < 2; dir++) {
+                    Arrays.fill(touched[dir], 0);
+                    Arrays.fill(marked[dir], 0);
+                }
+                generation = 0;
+            }
+            generation += 1;
+            settled = 0;
+            int[] roots = {source, target};
+            for (int dir = 0; dir < 2; dir++) {
+                fringes[dir].clear();
+                touched[dir][roots[dir]] = generation;
+                dist[dir][roots[dir]] = 0.0;
+                parent[dir][roots[dir]] = roots[dir];
+                fringes[dir].push(roots[dir], 0.0);
+            }
+
+            double best = Double.POSITIVE_INFINITY;
+            int meet = -1;
+            while (true) {
+                int dir = -1;
+                double minKey = best;
+                for (int d = 0; d < 2; d++) {
+                    if (!fringes[d].isEmpty() && fringes[d].minKey() < minKey) {
+                        minKey = fringes[d].minKey();
+                        dir = d;
+                    }
+                }
+                if (dir < 0) {
+                    break;
+                }
+                int v = fringes[dir].pop();
+                if (marked[dir][v] == generation) {
+                    continue;
+                }
+                marked[dir][v] = generation;
+                settled += 1;
+                double dv = dist[dir][v];
+                int other = 1 - dir;
+                if (touched[other][v] == generation && dv + dist[other][v] < best) {
+                    best = dv + dist[other][v];
+                    meet = v;
+                }
+                for (int e = upOffsets[v]; e < upOffsets[v + 1]; e++) {
+                    int w = upTargets[e];
+                    double dw = dv + upWeights[e];
+                    if (touched[dir][w] != generation || dw < dist[dir][w]) {
+                        touched[dir][w] = generation;
+                        dist[dir][w] = dw;
+                        parent[dir][w] = v;
+                        fringes[dir].push(w, dw);
+                    }
+                }
+            }
+
+            List<Long> res = new ArrayList<>();
+            if (meet < 0) {
+                return res;
+            }
+            /* Upward path from the source to the meeting vertex, in reverse. */
+            List<Integer> up = new ArrayList<>();
+            for (int v = meet; v != source; v = parent[0][v]) {
+                up.add(v);
+            }
+            res.add(g.id(source));
+            int prev = source;
+            for (int i = up.size() - 1; i >= 0; i--) {
+                unpack(prev, up.get(i), res, stack);
+                prev = up.get(i);
+            }
+            /* Downward path from the meeting vertex to the target. */
+            for (int v = meet; v != target; v = parent[1][v]) {
+                unpack(v, parent[1][v], res, stack);
+            }
+            return res;
+        }
+    }
+
+    /**
+     * Mutable graph used while contracting. Each vertex keeps growable arrays of
+     * its edges, shortcuts included, to vertices that were not yet contracted when
+     * it was.
+     */
+    private static class Builder {
+        final GraphDB g;
+        final int n;
+        final int[][] adj;
+        final double[][] weight;
+        final int[][] middle;
+        final int[] degree;
+        final boolean[] contracted;
+        final int[] contractedNeighbors;
+        final int[] rank;
+
+        /* Witness search state. */
+        final double[] witnessDist;
+        final int[] witnessTouched;
+        final VertexHeap witnessFringe = new VertexHeap();
+        int witnessGeneration;
+
+        /* Shortcuts found by the last call to contract, as (u, w, weight) triples. */
+        int[] shortcutEnds = new int[16];
+        double[] shortcutWeights = new double[8];
+        int shortcutCount;
+
+        Builder(GraphDB g) {
+            this.g = g;
+            n = g.size();
+            adj = new int[n][];
+            weight = new double[n][];
+            middle = new int[n][];
+            degree = new int[n];
+            contracted = new boolean[n];
+            contractedNeighbors = new int[n];
+            rank = new int[n];
+            witnessDist = new double[n];
+            witnessTouched = new int[n];
+            for (int v = 0; v < n; v++) {
+                int size = Math.max(1, g.edgeEnd(v) - g.edgeStart(v));
+                adj[v] = new int[size];
+                weight[v] = new double[size];
+                middle[v] = new int[size];
+                for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) {
+                    int w = g.edgeTarget(e);
+                    if (w != v) {
+                        addEdge(v, w, g.edgeLength(e), -1);
+                    }
+                }
+            }
+        }
+
+        /** Adds the edge v-w, or lowers the weight of an existing one. One direction only. */
+        void addEdge(int v, int w, double wt, int mid) {
+            for (int i = 0; i < degree[v]; i++) {
+                if (adj[v][i] == w) {
+                    if (wt < weight[v][i]) {
+                        weight[v][i] = wt;
+                        middle[v][i] = mid;
+                    }
+                    return;
+                }
+            }
+            if (degree[v] == adj[v].length) {
+                int size = adj[v].length * 2;
+                adj[v] = Arrays.copyOf(adj[v], size);
+                weight[v] = Arrays.copyOf(weight[v], size);
+                middle[v] = Arrays.copyOf(middle[v], size);
+            }
+            adj[v][degree[v]] = w;
+            weight[v][degree[v]] = wt;
+            middle[v][degree[v]] = mid;
+            degree[v] += 1;
+        }
+
+        /**
+         * Removes the edge u-v from the list of u. Called when v is contracted, so the
+         * lists of the remaining vertices only ever hold remaining vertices, while the
+         * list of v keeps its edges up the hierarchy.
+         */
+        void removeEdge(int u, int v) {
+            for (int i = 0; i < degree[u]; i++) {
+                if (adj[u][i] == v) {
+                    int last = degree[u] - 1;
+                    adj[u][i] = adj[u][last];
+                    weight[u][i] = weight[u][last];
+                    middle[u][i] = middle[u][last];
+                    degree[u] = last;
+                    return;
+                }
+            }
+        }
+
+        ContractionHierarchy build() {
+            VertexHeap queue = new VertexHeap();
+            double[] priorities = new double[n];
+            for (int v = 0; v < n; v++) {
+                priorities[v] = priority(v);
+                queue.push(v, priorities[v]);
+            }
+            int order = 0;
+            while (!queue.isEmpty()) {
+                double key = queue.minKey();
+                int v = queue.pop();
+                if (contracted[v] || key != priorities[v]) {
+                    continue;
+                }
+                /* Lazy update: re-queue v if its priority went up since it was pushed.
+                 * Neighbors of contracted vertices are not re-evaluated eagerly, since
+                 * doing so in the dense top of the hierarchy dominates preprocessing. */
+                double p = priority(v);
+                if (!queue.isEmpty() && p > queue.minKey()) {
+                    priorities[v] = p;
+                    queue.push(v, p);
+                    continue;
+                }
+                /* priority(v) left the shortcuts needed to contract v in shortcutEnds. */
+                for (int i = 0; i < shortcutCount; i++) {
+                    int u = shortcutEnds[2 * i];
+                    int w = shortcutEnds[2 * i + 1];
+                    addEdge(u, w, shortcutWeights[i], v);
+                    addEdge(w, u, shortcutWeights[i], v);
+                }
+                contracted[v] = true;
+                rank[v] = order++;
+                for (int i = 0; i < degree[v]; i++) {
+                    int u = adj[v][i];
+                    removeEdge(u, v);
+                    contractedNeighbors[u] += 1;
+                }
+            }
+            return upwardGraph();
+        }
+
+        /** Edge difference plus the number of contracted neighbors. */
+        double priority(int v) {
+            contract(v);
+            return shortcutCount - degree[v] + contractedNeighbors[v];
+        }
+
+        /** Finds the shortcuts needed to contract v, leaving them in shortcutEnds. */
+        void contract(int v) {
+            shortcutCount = 0;
+            for (int i = 0; i < degree[v] - 1; i++) {
+                int u = adj[v][i];
+                double maxVia = 0;
+                for (int j = i + 1; j < degree[v]; j++) {
+                    maxVia = Math.max(maxVia, weight[v][i] + weight[v][j]);
+                }
+                witnessSearch(u, v, maxVia);
+                for (int j = i + 1; j < degree[v]; j++) {
+                    int w = adj[v][j];
+                    double via = weight[v][i] + weight[v][j];
+                    if (witnessTouched[w] != witnessGeneration || witnessDist[w] > via) {
+                        addShortcut(u, w, via);
+                    }
+                }
+            }
+        }
+
+        void addShortcut(int u, int w, double wt) {
+            if (2 * shortcutCount + 2 > shortcutEnds.length) {
+                shortcutEnds = Arrays.copyOf(shortcutEnds, shortcutEnds.length * 2);
+                shortcutWeights = Arrays.copyOf(shortcutWeights, shortcutWeights.length * 2);
+            }
+            shortcutEnds[2 * shortcutCount] = u;
+            shortcutEnds[2 * shortcutCount + 1] = w;
+            shortcutWeights[shortcutCount] = wt;
+            shortcutCount += 1;
+        }
+
+        /** Dijkstra from source over the remaining graph without avoid, up to limit. */
+        void witnessSearch(int source, int avoid, double limit) {
+            witnessGeneration += 1;
+            witnessFringe.clear();
+            witnessTouched[source] = witnessGeneration;
+            witnessDist[source] = 0.0;
+            witnessFringe.push(source, 0.0);
+            int settled = 0;
+            while (!witnessFringe.isEmpty()) {
+                double d = witnessFringe.minKey();
+                int x = witnessFringe.pop();
+                if (d > witnessDist[x]) {
+                    continue;
+                }
+                if (d > limit || ++settled > WITNESS_SETTLE_LIMIT) {
+                    break;
+                }
+                for (int i = 0; i < degree[x]; i++) {
+                    int y = adj[x][i];
+                    if (y == avoid) {
+                        continue;
+                    }
+                    double dy = d + weight[x][i];
+                    if (witnessTouched[y] != witnessGeneration || dy < witnessDist[y]) {
+                        witnessTouched[y] = witnessGeneration;
+                        witnessDist[y] = dy;
+                        witnessFringe.push(y, dy);
+                    }
+                }
+            }
+        }
+
+        /** Freezes the edge lists, which by now only lead up the hierarchy, into CSR arrays. */
+        ContractionHierarchy upwardGraph() {
+            int[] upOffsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                upOffsets[v + 1] = upOffsets[v] + degree[v];
+            }
+            int m = upOffsets[n];
+            int[] upTargets = new int[m];
+            double[] upWeights = new double[m];
+            int[] upMiddles = new int[m];
+            for (int v = 0; v < n; v++) {
+                System.arraycopy(adj[v], 0, upTargets, upOffsets[v], degree[v]);
+                System.arraycopy(weight[v], 0, upWeights, upOffsets[v], degree[v]);
+                System.arraycopy(middle[v], 0, upMiddles, upOffsets[v], degree[v]);
+            }
+            return new ContractionHierarchy(g, rank, upOffsets, upTargets, upWeights,
+                    upMiddles);
+        }
+    }
+}
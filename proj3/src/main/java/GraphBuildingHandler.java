@@ -35,16 +35,25 @@ public class GraphBuildingHandler extends DefaultHandler {
      * roads, but in practice we walk all over them with such impunity that we forget cars can
      * actually drive on them.
      */
-    private static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
-            ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
-                    "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
-                    "secondary_link", "tertiary_link"));
+    static final String[] HIGHWAY_CLASSES = {"motorway", "trunk", "primary", "secondary",
+        "tertiary", "unclassified", "residential", "living_street", "motorway_link", "trunk_link",
+        "primary_link", "secondary_link", "tertiary_link"};
+    private static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList(
+            HIGHWAY_CLASSES));
+    /** Kilometers per hour in a mile per hour, for maxspeed tags without units. */
+    private static final double KMH_PER_MPH = 1.609344;
     private String activeState = "";
     private final GraphDB g;
     private List<Long> possibleWay = new ArrayList<>();
     private boolean isValidWay = false;
     private GraphDB.Node curNode;
     private String currentWay = null;
+    /* The attributes of the current way, read from its highway, maxspeed, oneway and
+     * junction tags. */
+    private int currentClass = -1;
+    private int currentMaxSpeed = 0;
+    private String currentOneway = null;
+    private boolean currentRoundabout = false;
 
     /**
      * Create a new GraphBuildingHandler.
@@ -54,6 +63,61 @@ public class GraphBuildingHandler extends DefaultHandler {
         this.g = g;
     }
 
+    /** Returns whether a way with the given highway tag value belongs in the graph. */
+    static boolean isAllowedHighway(String type) {
+        return ALLOWED_HIGHWAY_TYPES.contains(type);
+    }
+
+    /** Returns the index in HIGHWAY_CLASSES of a highway tag value, or -1. */
+    static int highwayClass(String type) {
+        return Arrays.asList(HIGHWAY_CLASSES).indexOf(type);
+    }
+
+    /**
+     * Returns the speed limit a maxspeed tag value gives, such as "50" in km/h or
+     * "30 mph", in whole miles per hour, or 0 if it gives none that can be read.
+     */
+    static int parseMaxSpeed(String value) {
+        String v = value.trim();
+        boolean mph = v.endsWith("mph");
+        if (mph) {
+            v = v.substring(0, v.length() - 3).trim();
+        } else if (v.endsWith("km/h")) {
+            v = v.substring(0, v.length() - 4).trim();
+        }
+        try {
+            double speed = Double.parseDouble(v);
+            int res = (int) Math.round(mph ? speed : speed / KMH_PER_MPH);
+            return res > 0 && res <= Short.MAX_VALUE ? res : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the directions a way may be driven in: 1 if only its own direction,
+     * -1 if only the reverse, 0 if both.
+     * @param value The value of its oneway tag, or null if it has none.
+     * @param roundabout Whether it is tagged junction=roundabout, which implies
+     *                   oneway=yes unless a oneway tag says otherwise.
+     */
+    static int parseOneway(String value, boolean roundabout) {
+        if (value == null) {
+            return roundabout ? 1 : 0;
+        }
+        switch (value) {
+            case "yes":
+            case "true":
+            case "1":
+                return 1;
+            case "-1":
+            case "reverse":
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
     /**
      * Called at the beginning of an element. Typically, you will want to handle each element in
      * here, and you may want to track the parent element.
@@ -110,11 +174,18 @@ public class GraphBuildingHandler extends DefaultHandler {
             if (k.equals("highway")) {
                 //System.out.println("Highway type: " + v);
                 /* Hint: Setting a "flag" is good enough! */
-                isValidWay = ALLOWED_HIGHWAY_TYPES.contains(v);
+                isValidWay = isAllowedHighway(v);
+                currentClass = highwayClass(v);
             } else if (k.equals("name")) {
                 //System.out.println("Way Name: " + v);
                 currentWay = attributes.getValue("v");
 
+            } else if (k.equals("maxspeed")) {
+                currentMaxSpeed = parseMaxSpeed(v);
+            } else if (k.equals("oneway")) {
+                currentOneway = v;
+            } else if (k.equals("junction")) {
+                currentRoundabout = v.equals("roundabout");
             }
 //            System.out.println("Tag with k=" + k + ", v=" + v + ".");
         } else if (activeState.equals("node") && qName.equals("tag") && attributes.getValue("k")
@@ -148,14 +219,20 @@ public class GraphBuildingHandler extends DefaultHandler {
             chance to actually connect the nodes together if the way is valid. */
             //System.out.println("Finishing a way...");
             if (isValidWay) {
+                int oneway = parseOneway(currentOneway, currentRoundabout);
                 for (int i = 0; i < possibleWay.size() - 1; i++) {
-                    g.addEdge(possibleWay.get(i), possibleWay.get(i + 1), currentWay);
+                    g.addEdge(possibleWay.get(i), possibleWay.get(i + 1), currentWay,
+                            currentClass, currentMaxSpeed, oneway);
                 }
             }
             /* This way is cleared */
             possibleWay.clear();
             isValidWay = false;
             currentWay = "";
+            currentClass = -1;
+            currentMaxSpeed = 0;
+            currentOneway = null;
+            currentRoundabout = false;
         }
     }
 
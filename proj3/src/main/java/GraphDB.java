@@ -1,8 +1,11 @@
 import org.xml.sax.SAXException;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -14,6 +17,8 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 
 /**
@@ -26,23 +31,62 @@ import java.util.LinkedList;
  * @author Alan Yao, Josh Hug
  */
 public class GraphDB {
+    /** Edge slot flag of slots that run against the direction of a one-way street. */
+    static final int AGAINST_ONEWAY = 1;
+    /** The radius of the earth in miles used for all distances. */
+    static final double EARTH_RADIUS_MILES = 3963;
     /** Your instance variables for storing the graph. You should consider
      * creating helper classes, e.g. Node, Edge, etc. */
-    private final Map<Long, Node> graph = new LinkedHashMap<>();
+    /** Mutable node map filled in by GraphBuildingHandler; released by compact(). */
+    private Map<Long, Node> graph = new LinkedHashMap<>();
+
+    /* Frozen compressed-sparse-row graph. Vertex i has OSM id ids[i], and its edges
+     * occupy slots offsets[i] until offsets[i + 1] of the targets and edgeWays arrays. */
+    private long[] ids;
+    private LongIntMap index;
+    private double[] lons;
+    private double[] lats;
+    private int[] offsets;
+    private int[] targets;
+    /** Index of the name of each edge slot in wayNames, or -1 for a null name. */
+    private int[] edgeWays;
+    private String[] wayNames;
+    /** Initial bearing in degrees along each edge slot, for directions. */
+    private double[] edgeBearings;
+    /* Attributes of each edge slot, from the tags of its way: the index of its highway
+     * tag in GraphBuildingHandler.HIGHWAY_CLASSES or -1, its speed limit in miles per
+     * hour or 0 for none, and flags such as AGAINST_ONEWAY. */
+    private byte[] edgeClasses;
+    private short[] edgeMaxSpeeds;
+    private byte[] edgeFlags;
+    /** The great-circle length in miles of each edge slot, computed once at build time. */
+    private double[] edgeLengths;
+    /** The weight of each edge slot under each routing profile, by ordinal. */
+    private double[][] profileWeights;
+    /** The least weight per mile of any edge under each routing profile, by ordinal. */
+    private double[] profileScales;
+    /* Miles per degree of longitude and of latitude in the plane of planeDistanceAt, and
+     * the most that distance can fall short of the great-circle distance, relatively. */
+    private double planeLonMiles;
+    private double planeLatMiles;
+    private double planeError;
+    /** Spatial index over the vertices, answering closest and other proximity queries. */
+    private KdTree spatialIndex;
+    /** Optional contraction hierarchy used by Router for shortest paths. */
+    private ContractionHierarchy hierarchy;
+    /** Optional landmarks whose lower bounds Router can guide A* with. */
+    private Landmarks landmarks;
     private final Map<String, String> originalNames = new HashMap<>();
     private final Map<String, Set<Node>> locations = new HashMap<>();
-    private final Trie trie = new Trie();
+    /** Prefix index over the location names, rebuilt on demand after addLocation. */
+    private volatile AutocompleteIndex autocomplete;
     /**
      * Example constructor shows how to create and start an XML parser.
      * You do not need to modify this constructor, but you're welcome to do so.
-     * @param dbPath Path to the XML file to be parsed.
+     * @param dbPath Path to the XML file to be parsed, which may be gzipped.
      */
     public GraphDB(String dbPath) {
-        try {
-            File inputFile = new File(dbPath);
-            FileInputStream inputStream = new FileInputStream(inputFile);
-            // GZIPInputStream stream = new GZIPInputStream(inputStream);
-
+        try (InputStream inputStream = openInput(dbPath)) {
             SAXParserFactory factory = SAXParserFactory.newInstance();
             SAXParser saxParser = factory.newSAXParser();
             GraphBuildingHandler gbh = new GraphBuildingHandler(this);
@@ -51,6 +95,64 @@ public class GraphDB {
             e.printStackTrace();
         }
         clean();
+        compact();
+        edgeBearings = edgeBearings();
+        weighEdges();
+        projectPlane();
+        spatialIndex = new KdTree(lons, lats);
+    }
+
+    /**
+     * Creates a graph directly from compact arrays, as read back by GraphSnapshot
+     * or assembled by StreamingGraphBuilder.
+     * Named locations are added afterwards with addLocation.
+     * @param ids The OSM id of each vertex.
+     * @param lons The longitude of each vertex.
+     * @param lats The latitude of each vertex.
+     * @param offsets The first edge slot of each vertex, followed by the edge count.
+     * @param targets The index of the vertex each edge slot leads to.
+     * @param edgeWays The index in wayNames of the name of each edge slot, or -1.
+     * @param wayNames The distinct way names.
+     * @param edgeClasses The highway class of each edge slot, or -1.
+     * @param edgeMaxSpeeds The speed limit of each edge slot in mph, or 0.
+     * @param edgeFlags The flags of each edge slot, such as AGAINST_ONEWAY.
+     */
+    GraphDB(long[] ids, double[] lons, double[] lats, int[] offsets, int[] targets,
+            int[] edgeWays, String[] wayNames, byte[] edgeClasses, short[] edgeMaxSpeeds,
+            byte[] edgeFlags) {
+        this.graph = null;
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.edgeWays = edgeWays;
+        this.wayNames = wayNames;
+        this.edgeClasses = edgeClasses;
+        this.edgeMaxSpeeds = edgeMaxSpeeds;
+        this.edgeFlags = edgeFlags;
+        this.index = new LongIntMap(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            index.put(ids[i], i);
+        }
+        edgeBearings = edgeBearings();
+        weighEdges();
+        projectPlane();
+        spatialIndex = new KdTree(lons, lats);
+    }
+
+    /**
+     * Opens an OSM XML file for parsing, decompressing it if it is gzipped.
+     * @param dbPath Path to the file, plain or gzipped XML.
+     * @return A buffered stream of the XML.
+     * @throws IOException If the file cannot be opened.
+     */
+    static InputStream openInput(String dbPath) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(new File(dbPath)));
+        in.mark(2);
+        boolean gzipped = in.read() == 0x1f && in.read() == 0x8b;
+        in.reset();
+        return gzipped ? new GZIPInputStream(in) : in;
     }
 
     /**
@@ -80,12 +182,372 @@ public class GraphDB {
         }
     }
 
+    /**
+     * Freezes the node map into the compressed-sparse-row arrays and releases it.
+     * Vertex indices follow the insertion order of the node map, and the edges of
+     * each vertex keep the iteration order of its neighbor map. Way names are
+     * interned so that every edge of a way shares a single String.
+     */
+    void compact() {
+        int n = graph.size();
+        ids = new long[n];
+        index = new LongIntMap(n);
+        lons = new double[n];
+        lats = new double[n];
+        offsets = new int[n + 1];
+        int i = 0;
+        for (Node node : graph.values()) {
+            ids[i] = node.id;
+            index.put(node.id, i);
+            lons[i] = node.longitude;
+            lats[i] = node.latitude;
+            offsets[i + 1] = offsets[i] + node.neighbors.size();
+            i += 1;
+        }
+
+        targets = new int[offsets[n]];
+        edgeWays = new int[offsets[n]];
+        edgeClasses = new byte[offsets[n]];
+        edgeMaxSpeeds = new short[offsets[n]];
+        edgeFlags = new byte[offsets[n]];
+        Map<String, Integer> nameIndex = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        int e = 0;
+        for (Node node : graph.values()) {
+            for (Map.Entry<Long, String> neighbor : node.neighbors.entrySet()) {
+                targets[e] = index.get(neighbor.getKey());
+                int attributes = node.attributes.get(neighbor.getKey());
+                edgeClasses[e] = (byte) ((attributes & 0xff) - 1);
+                edgeMaxSpeeds[e] = (short) ((attributes >>> 8) & 0xffff);
+                edgeFlags[e] = (byte) (attributes >>> 24);
+                String name = neighbor.getValue();
+                if (name == null) {
+                    edgeWays[e] = -1;
+                } else {
+                    Integer nameID = nameIndex.get(name);
+                    if (nameID == null) {
+                        nameID = names.size();
+                        nameIndex.put(name, nameID);
+                        names.add(name);
+                    }
+                    edgeWays[e] = nameID;
+                }
+                e += 1;
+            }
+        }
+        wayNames = names.toArray(new String[0]);
+        graph = null;
+    }
+
+    /**
+     * Weighs every edge slot under every routing profile, so that searches under
+     * any profile read their weights from an array. Lengths are computed once, kept
+     * as edgeLengths and the weights of SHORTEST, and the other profiles scale them.
+     */
+    private void weighEdges() {
+        int m = targets.length;
+        double[] lengths = new double[m];
+        for (int i = 0; i < ids.length; i++) {
+            for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                lengths[e] = distanceAt(i, targets[e]);
+            }
+        }
+        edgeLengths = lengths;
+        RoutingProfile[] profiles = RoutingProfile.values();
+        profileWeights = new double[profiles.length][];
+        profileScales = new double[profiles.length];
+        for (RoutingProfile profile : profiles) {
+            double[] weights = profile == RoutingProfile.SHORTEST ? lengths : new double[m];
+            double scale = Double.POSITIVE_INFINITY;
+            for (int e = 0; e < m; e++) {
+                if (profile.obeysOneway() && againstOneway(e)) {
+                    weights[e] = Double.POSITIVE_INFINITY;
+                    continue;
+                }
+                weights[e] = profile.weight(lengths[e], edgeClasses[e], edgeMaxSpeeds[e]);
+                if (lengths[e] > 0) {
+                    scale = Math.min(scale, weights[e] / lengths[e]);
+                }
+            }
+            profileWeights[profile.ordinal()] = weights;
+            profileScales[profile.ordinal()] = Double.isInfinite(scale) ? 0 : scale;
+        }
+    }
+
+    /**
+     * Chooses the plane of planeDistanceAt: degrees of latitude are scaled to miles
+     * as on the sphere, and degrees of longitude by the cosine of the most poleward
+     * latitude a great circle between two vertices can reach. That is the latitude
+     * of the vertex of the great circle between two points at the graph's most
+     * poleward latitude, as far apart in longitude as the graph is wide. Along any
+     * such great circle a degree of longitude is then at least as long as in the
+     * plane, so the plane distance is at most the great-circle distance.
+     */
+    private void projectPlane() {
+        planeLatMiles = Math.toRadians(EARTH_RADIUS_MILES);
+        planeLonMiles = planeLatMiles;
+        if (ids.length == 0) {
+            return;
+        }
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < ids.length; i++) {
+            minLon = Math.min(minLon, lons[i]);
+            maxLon = Math.max(maxLon, lons[i]);
+            minLat = Math.min(minLat, lats[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+        }
+        double poleward = Math.max(Math.abs(minLat), Math.abs(maxLat));
+        double equatorward = minLat <= 0 && maxLat >= 0 ? 0
+                : Math.min(Math.abs(minLat), Math.abs(maxLat));
+        double halfWidth = Math.toRadians(maxLon - minLon) / 2;
+        double vertex = halfWidth >= Math.PI / 2 ? Math.PI / 2
+                : Math.atan(Math.tan(Math.toRadians(poleward)) / Math.cos(halfWidth));
+        planeLonMiles = planeLatMiles * Math.max(0, Math.cos(vertex));
+        planeError = 1 - Math.cos(vertex) / Math.cos(Math.toRadians(equatorward));
+    }
+
+    /** Computes the bearing of every edge slot from the compact arrays. */
+    private double[] edgeBearings() {
+        double[] res = new double[targets.length];
+        for (int i = 0; i < ids.length; i++) {
+            for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                int j = targets[e];
+                res[e] = bearing(lons[i], lats[i], lons[j], lats[j]);
+            }
+        }
+        return res;
+    }
+
+    /** Returns the number of vertices in the graph. */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the dense index of the vertex with the given id.
+     * @param v The id of the vertex.
+     * @return Its index in [0, size()), or -1 if there is no such vertex.
+     */
+    int index(long v) {
+        return index.get(v);
+    }
+
+    /** Returns the id of the vertex at index i. */
+    long id(int i) {
+        return ids[i];
+    }
+
+    double lonAt(int i) {
+        return lons[i];
+    }
+
+    double latAt(int i) {
+        return lats[i];
+    }
+
+    /** Returns the first edge slot of the vertex at index i. */
+    int edgeStart(int i) {
+        return offsets[i];
+    }
+
+    /** Returns one past the last edge slot of the vertex at index i. */
+    int edgeEnd(int i) {
+        return offsets[i + 1];
+    }
+
+    /** Returns the index of the vertex the edge in slot e leads to. */
+    int edgeTarget(int e) {
+        return targets[e];
+    }
+
+    /** Returns the name of the way the edge in slot e belongs to, possibly null. */
+    String edgeWay(int e) {
+        int nameID = edgeWays[e];
+        return nameID < 0 ? null : wayNames[nameID];
+    }
+
+    /** Returns the initial bearing in degrees along the edge in slot e, as bearing gives. */
+    double edgeBearing(int e) {
+        return edgeBearings[e];
+    }
+
+    /**
+     * Returns the slot of the edge from the vertex at index i to the one at index j,
+     * the last if there are several, as ways keeps the last name per neighbor.
+     * @return The slot, or -1 if there is no such edge.
+     */
+    int edgeSlot(int i, int j) {
+        for (int e = offsets[i + 1] - 1; e >= offsets[i]; e--) {
+            if (targets[e] == j) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the index in GraphBuildingHandler.HIGHWAY_CLASSES of slot e, or -1. */
+    int highwayClass(int e) {
+        return edgeClasses[e];
+    }
+
+    /** Returns the speed limit of slot e in miles per hour, or 0 if it has none. */
+    int maxSpeed(int e) {
+        return edgeMaxSpeeds[e];
+    }
+
+    /** Returns the flags of slot e, such as AGAINST_ONEWAY. */
+    int edgeFlags(int e) {
+        return edgeFlags[e];
+    }
+
+    /** Returns whether slot e runs against the direction of a one-way street. */
+    boolean againstOneway(int e) {
+        return (edgeFlags[e] & AGAINST_ONEWAY) != 0;
+    }
+
+    /**
+     * Returns the weight of every edge slot under a routing profile, indexed by
+     * slot, infinite for slots the profile may not use. Shared; do not modify.
+     */
+    double[] edgeWeights(RoutingProfile profile) {
+        return profileWeights[profile.ordinal()];
+    }
+
+    /**
+     * Returns the least weight per mile of any edge under a routing profile, so that
+     * it times the great-circle distance is a lower bound for A*.
+     */
+    double weightPerMile(RoutingProfile profile) {
+        return profileScales[profile.ordinal()];
+    }
+
+    /** Returns the index in the way name table of the name of slot e, or -1 for none. */
+    int edgeWayIndex(int e) {
+        return edgeWays[e];
+    }
+
+    /** Returns the number of distinct way names. */
+    int wayNameCount() {
+        return wayNames.length;
+    }
+
+    /** Returns the way name with index k in the way name table. */
+    String wayName(int k) {
+        return wayNames[k];
+    }
+
+    /** Returns the great-circle distance in miles between the vertices at indices i and j. */
+    double distanceAt(int i, int j) {
+        return distance(lons[i], lats[i], lons[j], lats[j]);
+    }
+
+    /** Returns the length in miles of edge slot e, as distanceAt gives it. */
+    double edgeLength(int e) {
+        return edgeLengths[e];
+    }
+
+    /**
+     * Returns an equirectangular approximation of the distance in miles between the
+     * vertices at indices i and j: their distance in a plane fixed for the whole
+     * graph, which takes no trigonometry. It is never more than distanceAt, so it
+     * is a consistent A* heuristic, and never less than 1 - planeDistanceError()
+     * times it. The graph must not cross the antimeridian.
+     */
+    double planeDistanceAt(int i, int j) {
+        double dx = (lons[j] - lons[i]) * planeLonMiles;
+        double dy = (lats[j] - lats[i]) * planeLatMiles;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Returns the most planeDistanceAt can fall short of distanceAt, relative to it:
+     * 1 - cos(p) / cos(q), where p is the latitude the plane is scaled at and q the
+     * graph's latitude nearest the equator. It grows with the spread of latitudes
+     * and with the latitude itself, and is below 0.1% for a city away from the poles.
+     */
+    double planeDistanceError() {
+        return planeError;
+    }
+
+    /**
+     * Returns a hash of the vertex ids, coordinates and edges, used to check that
+     * data derived from this graph and saved to disk still belongs to it. The
+     * coordinates count since edge lengths follow from them.
+     */
+    long fingerprint() {
+        long h = 1125899906842597L;
+        for (int i = 0; i < ids.length; i++) {
+            h = 31 * h + ids[i];
+            h = 31 * h + Double.doubleToLongBits(lons[i]);
+            h = 31 * h + Double.doubleToLongBits(lats[i]);
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            h = 31 * h + offsets[i];
+        }
+        for (int t : targets) {
+            h = 31 * h + t;
+        }
+        return h;
+    }
+
+    ContractionHierarchy hierarchy() {
+        return hierarchy;
+    }
+
+    /**
+     * Makes Router answer shortest path queries on this graph with a contraction
+     * hierarchy, or with plain A* again if ch is null.
+     * @param ch A hierarchy built for this graph, or null.
+     */
+    void setHierarchy(ContractionHierarchy ch) {
+        this.hierarchy = ch;
+    }
+
+    Landmarks landmarks() {
+        return landmarks;
+    }
+
+    /**
+     * Makes landmark lower bounds available to Router for this graph.
+     * @param landmarks Landmarks selected on this graph, or null.
+     */
+    void setLandmarks(Landmarks landmarks) {
+        this.landmarks = landmarks;
+    }
+
+    /** Returns the dense index of the vertex with id v, failing if there is none. */
+    int checkedIndex(long v) {
+        int i = index.get(v);
+        if (i < 0) {
+            throw new IllegalArgumentException("No vertex with id " + v);
+        }
+        return i;
+    }
+
     /**
      * Returns an iterable of all vertex IDs in the graph.
      * @return An iterable of id's of all vertices in the graph.
      */
     Iterable<Long> vertices() {
-        return graph.keySet();
+        return () -> new Iterator<Long>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < ids.length;
+            }
+
+            @Override
+            public Long next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return ids[i++];
+            }
+        };
     }
 
     /**
@@ -94,12 +556,12 @@ public class GraphDB {
      * @return An iterable of the ids of the neighbors of v.
      */
     Iterable<Long> adjacent(long v) {
-//        Node node = graph.get(v);
-//        List<Long> res = new ArrayList<>();
-//        for (Long id: node.neighbors.keySet()) {
-//            res.add(id);
-//        }
-        return this.graph.get(v).neighbors.keySet();
+        int i = checkedIndex(v);
+        List<Long> res = new ArrayList<>(offsets[i + 1] - offsets[i]);
+        for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+            res.add(ids[targets[e]]);
+        }
+        return res;
     }
 
     /**
@@ -123,7 +585,7 @@ public class GraphDB {
         double a = Math.sin(dphi / 2.0) * Math.sin(dphi / 2.0);
         a += Math.cos(phi1) * Math.cos(phi2) * Math.sin(dlambda / 2.0) * Math.sin(dlambda / 2.0);
         double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return 3963 * c;
+        return EARTH_RADIUS_MILES * c;
     }
 
     /**
@@ -160,16 +622,48 @@ public class GraphDB {
      * @return The id of the node in the graph closest to the target.
      */
     long closest(double lon, double lat) {
-        double minDistance = Double.MAX_VALUE;
-        Long closestNode = -Long.MAX_VALUE;
-        for (Long nodeID :graph.keySet()) {
-            double distance = distance(lon(nodeID), lat(nodeID), lon, lat);
-            if (distance <= minDistance) {
-                minDistance = distance;
-                closestNode = nodeID;
-            }
+        int i = closestIndex(lon, lat);
+        return i < 0 ? -Long.MAX_VALUE : ids[i];
+    }
+
+    /**
+     * Returns the index of the vertex closest to the given longitude and latitude.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The index of the closest vertex, or -1 if the graph is empty.
+     */
+    int closestIndex(double lon, double lat) {
+        return spatialIndex.nearest(lon, lat);
+    }
+
+    /**
+     * Returns the k vertices closest to the given longitude and latitude.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param k The number of vertices wanted.
+     * @return The ids of up to k vertices, closest first.
+     */
+    List<Long> closest(double lon, double lat, int k) {
+        return toIds(spatialIndex.nearest(lon, lat, k));
+    }
+
+    /**
+     * Returns all vertices within a great-circle distance of the given location.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param radius The distance in miles.
+     * @return The ids of the vertices within radius, closest first.
+     */
+    List<Long> withinRadius(double lon, double lat, double radius) {
+        return toIds(spatialIndex.withinRadius(lon, lat, radius));
+    }
+
+    private List<Long> toIds(int[] indices) {
+        List<Long> res = new ArrayList<>(indices.length);
+        for (int i : indices) {
+            res.add(ids[i]);
         }
-        return closestNode;
+        return res;
     }
 
     /**
@@ -178,7 +672,7 @@ public class GraphDB {
      * @return The longitude of the vertex.
      */
     double lon(long v) {
-        return graph.get(v).longitude;
+        return lons[checkedIndex(v)];
     }
 
     /**
@@ -187,7 +681,7 @@ public class GraphDB {
      * @return The latitude of the vertex.
      */
     double lat(long v) {
-        return graph.get(v).latitude;
+        return lats[checkedIndex(v)];
     }
 
     /**
@@ -199,6 +693,8 @@ public class GraphDB {
         long id;
         String name;
         Map<Long, String> neighbors;
+        /** The attributes of the edge to each neighbor, packed by addEdge. */
+        Map<Long, Integer> attributes;
         // Map<String, String> extraInfo;
 
         Node(long id, double longitude, double latitude) {
@@ -206,6 +702,7 @@ public class GraphDB {
             this.longitude = longitude;
             this.latitude = latitude;
             this.neighbors = new HashMap<>();
+            this.attributes = new HashMap<>();
             //this.extraInfo = new HashMap<>();
         }
     }
@@ -225,58 +722,54 @@ public class GraphDB {
      * @param  w the other vertex in the edge
      */
     void addEdge(long v, long w, String name) {
-        graph.get(v).neighbors.put(w, name);
-        graph.get(w).neighbors.put(v, name);
+        addEdge(v, w, name, -1, 0, 0);
     }
 
-    Map<Long, String> ways(Long v) {
-        return graph.get(v).neighbors;
+    /**
+     * Adds the edge v-w to this graph, replacing the name and attributes of any
+     * edge v-w already added.
+     * @param v One vertex in the edge, before w on its way.
+     * @param w The other vertex in the edge.
+     * @param name The name of the way, or null.
+     * @param highwayClass The index of the way's highway tag in
+     *                     GraphBuildingHandler.HIGHWAY_CLASSES, or -1.
+     * @param maxSpeed The way's speed limit in miles per hour, or 0.
+     * @param oneway 1 if the way may only be driven from v to w, -1 if only from w
+     *               to v, and 0 if both.
+     */
+    void addEdge(long v, long w, String name, int highwayClass, int maxSpeed, int oneway) {
+        Node nodeV = graph.get(v);
+        Node nodeW = graph.get(w);
+        nodeV.neighbors.put(w, name);
+        nodeW.neighbors.put(v, name);
+        nodeV.attributes.put(w, packAttributes(highwayClass, maxSpeed, oneway < 0));
+        nodeW.attributes.put(v, packAttributes(highwayClass, maxSpeed, oneway > 0));
     }
 
-    static class Trie {
-        Child root;
-
-        Trie() {
-            root = new Child();
-        }
-
-        static class Child {
-            boolean isKey;
-            Map<Character, Child> next;
-
-            Child(boolean b) {
-                this.isKey = b;
-                this.next = new HashMap<>();
-            }
-
-            Child() {
-                this(false);
-            }
-
-        }
-
-        void add(String name) {
-            Child cur = root;
-            for (int i = 0; i < name.length(); i++) {
-                char c = name.charAt(i);
-                if (cur.next.get(c) == null) {
-                    cur.next.put(c, new Child());
-                }
-                cur = cur.next.get(c);
-            }
+    /** Packs the attributes of an edge slot into the int compact() unpacks. */
+    private static int packAttributes(int highwayClass, int maxSpeed, boolean againstOneway) {
+        return (highwayClass + 1) | maxSpeed << 8 | (againstOneway ? AGAINST_ONEWAY << 24 : 0);
+    }
 
-            if (!cur.isKey) {
-                cur.isKey = true;
-            }
+    /**
+     * Returns the names of the ways leaving v, keyed by the id of the neighbor
+     * each way leads to.
+     * @param v The id of the vertex.
+     * @return A map from neighbor id to way name.
+     */
+    Map<Long, String> ways(Long v) {
+        int i = checkedIndex(v);
+        Map<Long, String> res = new LinkedHashMap<>();
+        for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+            res.put(ids[targets[e]], edgeWay(e));
         }
-
-
+        return res;
     }
 
     void addLocation(String location, Node node) {
         node.name = location;
         String cleanedName = cleanString(location);
-        this.trie.add(cleanedName);
+        this.autocomplete = null;
         Set<Node> nodes = this.locations.get(cleanedName);
         if (nodes == null) {
             nodes = new HashSet<>();
@@ -286,35 +779,78 @@ public class GraphDB {
         this.originalNames.put(cleanedName, location);
     }
 
-    Trie.Child searchPrefix(String prefix) {
-        GraphDB.Trie.Child cur = this.trie.root;
-        for (int i = 0; i < prefix.length(); i++) {
-            char c = prefix.charAt(i);
-            if (cur.next.get(c) == null) {
-                return null;
+    /**
+     * Returns the prefix index over the location names, building it if a location
+     * was added since it was last built. Names are scored by how many nodes carry
+     * them, so chains and other widespread names are suggested first.
+     */
+    AutocompleteIndex autocomplete() {
+        AutocompleteIndex index = autocomplete;
+        if (index == null) {
+            synchronized (this) {
+                index = autocomplete;
+                if (index == null) {
+                    int n = locations.size();
+                    String[] cleanedNames = new String[n];
+                    String[] names = new String[n];
+                    double[] scores = new double[n];
+                    int i = 0;
+                    for (Map.Entry<String, Set<Node>> entry : locations.entrySet()) {
+                        cleanedNames[i] = entry.getKey();
+                        names[i] = originalNames.get(entry.getKey());
+                        scores[i] = entry.getValue().size();
+                        i += 1;
+                    }
+                    index = new AutocompleteIndex(cleanedNames, names, scores);
+                    autocomplete = index;
+                }
             }
-            cur = cur.next.get(c);
         }
-        return cur;
+        return index;
     }
 
-    void helpGetLocation(String s, List<String> res, Trie.Child c) {
-        if (c.isKey) {
-            res.add(this.originalNames.get(s));
-        }
-        for (char ch : c.next.keySet()) {
-            helpGetLocation(s + ch, res, c.next.get(ch));
-        }
+    /**
+     * Returns the names of all locations whose cleaned name starts with the cleaned
+     * prefix, in order of their cleaned names.
+     * @param prefix The prefix, in any case and with or without punctuation.
+     * @return An unmodifiable list of the matching names.
+     */
+    List<String> getLocationsByPrefix(String prefix) {
+        return autocomplete().all(cleanString(prefix));
     }
 
-    List<String> getLocationsByPrefix(String prefix) {
-        List<String> res = new LinkedList<>();
-        /* Search for prefix */
-        Trie.Child cur = this.searchPrefix(prefix);
-        if (cur == null) {
-            return res;
+    /**
+     * Returns the names of the k locations with the highest scores among those
+     * whose cleaned name starts with the cleaned prefix, best first.
+     * @param prefix The prefix, in any case and with or without punctuation.
+     * @param k The most names to return.
+     * @return Up to k matching names.
+     */
+    List<String> getLocationsByPrefix(String prefix, int k) {
+        return autocomplete().top(cleanString(prefix), k);
+    }
+
+    /**
+     * Returns every named location, ordered so that adding them to an empty graph
+     * with addLocation rebuilds the same location index.
+     */
+    List<Node> namedNodes() {
+        List<Node> res = new ArrayList<>();
+        for (Map.Entry<String, Set<Node>> entry : locations.entrySet()) {
+            /* The original name last added for a cleaned name is the one reported. */
+            String original = originalNames.get(entry.getKey());
+            Node last = null;
+            for (Node node : entry.getValue()) {
+                if (last == null && node.name.equals(original)) {
+                    last = node;
+                } else {
+                    res.add(node);
+                }
+            }
+            if (last != null) {
+                res.add(last);
+            }
         }
-        this.helpGetLocation(prefix, res, cur);
         return res;
     }
 
@@ -0,0 +1,362 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Command line benchmarks for GraphDB. Like GraphDBLauncher, this is not used by the
+ * server; run it by hand to measure the effect of changes to the graph.
+ * Usage: java GraphDBBenchmark mode [osm file], where mode is one of
+ * memory, ingest, snapshot, route, bidirectional, hierarchy, landmarks or lengths.
+ */
+public class GraphDBBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final String PATH_PARAMS_FILE = "path_params.txt";
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int ROUNDS = 200;
+    private static final double MB = 1024.0 * 1024.0;
+    /** Heap in use just before the node map is compacted; set from inside the constructor. */
+    private static long nodeMapHeap;
+
+    public static void main(String[] args) throws IOException {
+        String mode = args.length > 0 ? args[0] : "memory";
+        String dbPath = args.length > 1 ? args[1] : OSM_DB_PATH;
+        switch (mode) {
+            case "memory":
+                memory(dbPath);
+                break;
+            case "ingest":
+                ingest(dbPath);
+                break;
+            case "snapshot":
+                snapshot(dbPath);
+                break;
+            case "route":
+                route(new GraphDB(dbPath));
+                break;
+            case "bidirectional":
+                bidirectional(dbPath);
+                break;
+            case "hierarchy":
+                hierarchy(dbPath);
+                break;
+            case "landmarks":
+                landmarks(dbPath);
+                break;
+            case "lengths":
+                lengths(new GraphDB(dbPath));
+                break;
+            default:
+                System.out.println("Usage: java GraphDBBenchmark memory|ingest|snapshot|route|"
+                        + "bidirectional|hierarchy|landmarks|lengths [osm file]");
+        }
+    }
+
+    /**
+     * Reports the retained heap of the graph while it is still a map of Nodes with
+     * HashMap neighbors, and again once it has been compacted into CSR arrays.
+     */
+    private static void memory(String dbPath) {
+        long baseHeap = usedHeap();
+        GraphDB g = new GraphDB(dbPath) {
+            @Override
+            void compact() {
+                nodeMapHeap = usedHeap();
+                super.compact();
+            }
+        };
+        long compactHeap = usedHeap();
+        System.out.println("Vertices: " + g.size());
+        System.out.printf("Node map heap: %.2f MB%n", (nodeMapHeap - baseHeap) / MB);
+        System.out.printf("Compact heap:  %.2f MB%n", (compactHeap - baseHeap) / MB);
+    }
+
+    /**
+     * Reports the time and peak heap of building the graph with GraphBuildingHandler
+     * and with the two-pass StreamingGraphBuilder. Run each mode in a fresh JVM
+     * for the cleanest peak numbers; later rounds here start from a collected heap.
+     */
+    private static void ingest(String dbPath) {
+        for (int round = 0; round < 3; round++) {
+            usedHeap();
+            resetPeakHeap();
+            long start = System.nanoTime();
+            GraphDB g = new GraphDB(dbPath);
+            System.out.printf("Node map:  %.1f ms, peak heap %.2f MB, %d vertices%n",
+                    (System.nanoTime() - start) / 1e6, peakHeap() / MB, g.size());
+            g = null;
+            usedHeap();
+            resetPeakHeap();
+            start = System.nanoTime();
+            g = StreamingGraphBuilder.build(dbPath);
+            System.out.printf("Streaming: %.1f ms, peak heap %.2f MB, %d vertices%n",
+                    (System.nanoTime() - start) / 1e6, peakHeap() / MB, g.size());
+        }
+    }
+
+    /**
+     * Reports the time and allocation of building the graph by parsing the XML and
+     * by loading a binary snapshot of it.
+     */
+    private static void snapshot(String dbPath) throws IOException {
+        File source = new File(dbPath);
+        File file = File.createTempFile("graph", ".snapshot");
+        file.deleteOnExit();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        GraphDB parsed = new GraphDB(dbPath);
+        System.out.printf("XML parse: %.1f ms, %.2f MB allocated%n",
+                (System.nanoTime() - start) / 1e6, (allocatedBytes() - allocatedBefore) / MB);
+        GraphSnapshot.save(parsed, file, source);
+        System.out.printf("Snapshot size: %.2f MB%n", file.length() / MB);
+        for (int i = 0; i < 3; i++) {
+            allocatedBefore = allocatedBytes();
+            start = System.nanoTime();
+            GraphSnapshot.load(file, source);
+            System.out.printf("Snapshot load: %.1f ms, %.2f MB allocated%n",
+                    (System.nanoTime() - start) / 1e6,
+                    (allocatedBytes() - allocatedBefore) / MB);
+        }
+    }
+
+    /**
+     * Replays the queries of path_params.txt through Router.shortestPath and reports
+     * latency percentiles, settled vertices and bytes allocated per query.
+     */
+    private static void route(GraphDB g) throws IOException {
+        route(g, false);
+    }
+
+    /** Like route(g), searching from both ends at once if bidirectional is set. */
+    private static void route(GraphDB g, boolean bidirectional) throws IOException {
+        route(g, null, bidirectional);
+    }
+
+    /**
+     * Like route(g, bidirectional), guiding A* by the given heuristic, or by the
+     * one Router chooses if it is null.
+     */
+    private static void route(GraphDB g, Router.HeuristicType heuristic, boolean bidirectional)
+            throws IOException {
+        List<double[]> queries = pathParams();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            for (double[] q : queries) {
+                shortestPath(g, q, heuristic, bidirectional);
+            }
+        }
+
+        long[] latencies = new long[ROUNDS * queries.size()];
+        long settled = 0;
+        long allocatedBefore = allocatedBytes();
+        int k = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            for (double[] q : queries) {
+                long start = System.nanoTime();
+                shortestPath(g, q, heuristic, bidirectional);
+                latencies[k++] = System.nanoTime() - start;
+                settled += Router.settledCount(g, bidirectional);
+            }
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        Arrays.sort(latencies);
+        System.out.println("Queries: " + latencies.length);
+        System.out.printf("p50: %.3f ms, p99: %.3f ms, max: %.3f ms%n",
+                percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6,
+                latencies[latencies.length - 1] / 1e6);
+        System.out.printf("Settled vertices per query: %.1f%n", (double) settled / k);
+        System.out.printf("Allocated bytes per query: %.1f%n", (double) allocated / k);
+    }
+
+    private static List<Long> shortestPath(GraphDB g, double[] q, Router.HeuristicType heuristic,
+                                           boolean bidirectional) {
+        if (heuristic == null) {
+            return Router.shortestPath(g, q[0], q[1], q[2], q[3], bidirectional);
+        }
+        return Router.shortestPath(g, q[0], q[1], q[2], q[3], heuristic, bidirectional);
+    }
+
+    /**
+     * Replays path_params.txt with forward and with bidirectional A*, first with
+     * plane-distance potentials and then with those of 16 landmarks.
+     */
+    private static void bidirectional(String dbPath) throws IOException {
+        GraphDB g = new GraphDB(dbPath);
+        System.out.println("Forward A*:");
+        route(g, false);
+        System.out.println("Bidirectional A*:");
+        route(g, true);
+        g.setLandmarks(Landmarks.select(g, 16, Landmarks.Selection.AVOID));
+        System.out.println("Forward ALT:");
+        route(g, false);
+        System.out.println("Bidirectional ALT:");
+        route(g, true);
+    }
+
+    /**
+     * Reports contraction hierarchy preprocessing time and size, then replays
+     * path_params.txt with plain A* and with the hierarchy.
+     */
+    private static void hierarchy(String dbPath) throws IOException {
+        GraphDB g = new GraphDB(dbPath);
+        long start = System.nanoTime();
+        ContractionHierarchy ch = ContractionHierarchy.build(g);
+        System.out.printf("Preprocessing: %.1f ms%n", (System.nanoTime() - start) / 1e6);
+        System.out.println("Upward edges: " + ch.upwardEdgeCount());
+        System.out.println("A*:");
+        route(g);
+        g.setHierarchy(ch);
+        System.out.println("Contraction hierarchy:");
+        route(g);
+    }
+
+    /**
+     * Replays path_params.txt with plane-distance A*, then with ALT bounds from
+     * landmarks chosen by each selection method, for a few landmark counts.
+     */
+    private static void landmarks(String dbPath) throws IOException {
+        GraphDB g = new GraphDB(dbPath);
+        System.out.println("Plane:");
+        route(g);
+        for (Landmarks.Selection selection : Landmarks.Selection.values()) {
+            for (int k : new int[]{4, 8, 16}) {
+                long start = System.nanoTime();
+                g.setLandmarks(Landmarks.select(g, k, selection));
+                System.out.printf("%s, %d landmarks (selected in %.1f ms):%n", selection, k,
+                        (System.nanoTime() - start) / 1e6);
+                route(g);
+            }
+        }
+    }
+
+    /**
+     * Compares computing the length of every edge slot with the haversine formula,
+     * as searches once did on every relaxation, to reading it from the precomputed
+     * lengths, and the great-circle distance between random vertices to the plane
+     * distance. Reports the largest shortfall of the plane distance seen against its
+     * bound, then replays path_params.txt guided by each.
+     */
+    private static void lengths(GraphDB g) throws IOException {
+        int n = g.size();
+        int[] sources = new int[g.edgeEnd(n - 1)];
+        for (int i = 0; i < n; i++) {
+            for (int e = g.edgeStart(i); e < g.edgeEnd(i); e++) {
+                sources[e] = i;
+            }
+        }
+        Random random = new Random(0);
+        int[] pairs = new int[2 * sources.length];
+        for (int k = 0; k < pairs.length; k++) {
+            pairs[k] = random.nextInt(n);
+        }
+
+        double sum = 0;
+        for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+            long[] times = new long[4];
+            long start = System.nanoTime();
+            for (int e = 0; e < sources.length; e++) {
+                sum += g.distanceAt(sources[e], g.edgeTarget(e));
+            }
+            times[0] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int e = 0; e < sources.length; e++) {
+                sum += g.edgeLength(e);
+            }
+            times[1] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int k = 0; k < pairs.length; k += 2) {
+                sum += g.distanceAt(pairs[k], pairs[k + 1]);
+            }
+            times[2] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int k = 0; k < pairs.length; k += 2) {
+                sum += g.planeDistanceAt(pairs[k], pairs[k + 1]);
+            }
+            times[3] = System.nanoTime() - start;
+            if (round == ROUNDS - 1) {
+                int m = sources.length;
+                System.out.println("Edge slots: " + m + " (checksum " + (long) sum + ")");
+                System.out.printf("Haversine edge length: %.2f ns%n", (double) times[0] / m);
+                System.out.printf("Precomputed edge length: %.2f ns%n", (double) times[1] / m);
+                System.out.printf("Great-circle heuristic: %.2f ns%n", (double) times[2] / m);
+                System.out.printf("Plane heuristic: %.2f ns%n", (double) times[3] / m);
+            }
+        }
+
+        double worst = 0;
+        for (int k = 0; k < pairs.length; k += 2) {
+            double greatCircle = g.distanceAt(pairs[k], pairs[k + 1]);
+            if (greatCircle > 0) {
+                worst = Math.max(worst, 1 - g.planeDistanceAt(pairs[k], pairs[k + 1])
+                        / greatCircle);
+            }
+        }
+        System.out.printf("Plane distance shortfall: %.4f%% (bound %.4f%%)%n", 100 * worst,
+                100 * g.planeDistanceError());
+        System.out.println("Great circle:");
+        route(g, Router.HeuristicType.GREAT_CIRCLE, false);
+        System.out.println("Plane:");
+        route(g, Router.HeuristicType.PLANE, false);
+    }
+
+    /** Reads the start and end coordinates of every query in path_params.txt. */
+    static List<double[]> pathParams() throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(PATH_PARAMS_FILE),
+                Charset.defaultCharset());
+        List<double[]> queries = new ArrayList<>();
+        for (int i = 2; i + 3 < lines.size(); i += 4) {
+            queries.add(new double[]{Double.parseDouble(lines.get(i)),
+                Double.parseDouble(lines.get(i + 1)), Double.parseDouble(lines.get(i + 2)),
+                Double.parseDouble(lines.get(i + 3))});
+        }
+        return queries;
+    }
+
+    static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    /** Returns the bytes allocated so far by the calling thread. */
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /** Returns the sum of the peak usage of the heap pools since the last reset. */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /** Returns the heap in use after asking the collector to settle. */
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Versioned binary snapshot of a cleaned GraphDB: its vertices, edges, way names
+ * and named locations. A snapshot records the length and modification time of
+ * the XML file it was built from, and is stale once either changes. Snapshots
+ * are read through a memory-mapped FileChannel, so loading one is a handful of
+ * bulk copies into the graph's arrays instead of a SAX parse.
+ *
+ * Layout, big-endian: magic, version, source length, source modification time,
+ * vertex count n, edge slot count m, ids[n], lons[n], lats[n], offsets[n + 1],
+ * targets[m], edgeWays[m], the edge attributes as edgeClasses[m] bytes,
+ * edgeMaxSpeeds[m] shorts and edgeFlags[m] bytes, the way names, and the named
+ * locations as (id, lon, lat, name) records. Strings are a byte count followed by UTF-8.
+ */
+public class GraphSnapshot {
+    private static final int MAGIC = 0x47444231;
+    private static final int VERSION = 2;
+
+    private GraphSnapshot() {
+    }
+
+    static GraphDB loadOrParse(String dbPath, String snapshotPath) {
+        return loadOrParse(dbPath, snapshotPath, false);
+    }
+
+    /**
+     * Loads the graph of dbPath from the snapshot at snapshotPath if it is current,
+     * and otherwise parses the XML and writes a new snapshot there.
+     * @param dbPath Path to the OSM XML file.
+     * @param snapshotPath Path of the snapshot file.
+     * @param streaming Whether to parse with StreamingGraphBuilder.
+     * @return The graph.
+     */
+    static GraphDB loadOrParse(String dbPath, String snapshotPath, boolean streaming) {
+        File source = new File(dbPath);
+        File file = new File(snapshotPath);
+        if (file.exists()) {
+            try {
+                GraphDB g = load(file, source);
+                if (g != null) {
+                    return g;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        GraphDB g = streaming ? StreamingGraphBuilder.build(dbPath) : new GraphDB(dbPath);
+        try {
+            save(g, file, source);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return g;
+    }
+
+    /**
+     * Writes a snapshot of g, stamped with the current state of its source file.
+     * The snapshot is written beside file and then moved over it, so a concurrent
+     * reader never sees a partial snapshot.
+     * @param g The graph.
+     * @param file The destination.
+     * @param source The XML file g was parsed from.
+     * @throws IOException If the file cannot be written.
+     */
+    static void save(GraphDB g, File file, File source) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            int n = g.size();
+            int m = n == 0 ? 0 : g.edgeEnd(n - 1);
+            out.writeInt(n);
+            out.writeInt(m);
+            for (int i = 0; i < n; i++) {
+                out.writeLong(g.id(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.writeDouble(g.lonAt(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.writeDouble(g.latAt(i));
+            }
+            out.writeInt(0);
+            for (int i = 0; i < n; i++) {
+                out.writeInt(g.edgeEnd(i));
+            }
+            for (int e = 0; e < m; e++) {
+                out.writeInt(g.edgeTarget(e));
+            }
+            for (int e = 0; e < m; e++) {
+                out.writeInt(g.edgeWayIndex(e));
+            }
+            for (int e = 0; e < m; e++) {
+                out.writeByte(g.highwayClass(e));
+            }
+            for (int e = 0; e < m; e++) {
+                out.writeShort(g.maxSpeed(e));
+            }
+            for (int e = 0; e < m; e++) {
+                out.writeByte(g.edgeFlags(e));
+            }
+            out.writeInt(g.wayNameCount());
+            for (int k = 0; k < g.wayNameCount(); k++) {
+                writeString(out, g.wayName(k));
+            }
+            List<GraphDB.Node> named = g.namedNodes();
+            out.writeInt(named.size());
+            for (GraphDB.Node node : named) {
+                out.writeLong(node.id);
+                out.writeDouble(node.longitude);
+                out.writeDouble(node.latitude);
+                writeString(out, node.name);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot written by save.
+     * @param file The snapshot.
+     * @param source The XML file the graph should come from. If it does not exist,
+     *               the snapshot is trusted as is.
+     * @return The graph, or null if the snapshot is of another version, is stale or
+     * is truncated or otherwise corrupt.
+     * @throws IOException If the file cannot be read.
+     */
+    static GraphDB load(File file, File source) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                return null;
+            }
+            long sourceLength = buf.getLong();
+            long sourceModified = buf.getLong();
+            if (source.exists() && (sourceLength != source.length()
+                    || sourceModified != source.lastModified())) {
+                return null;
+            }
+            int n = buf.getInt();
+            int m = buf.getInt();
+            long[] ids = readLongs(buf, n);
+            double[] lons = readDoubles(buf, n);
+            double[] lats = readDoubles(buf, n);
+            int[] offsets = readInts(buf, n + 1);
+            int[] targets = readInts(buf, m);
+            int[] edgeWays = readInts(buf, m);
+            byte[] edgeClasses = new byte[m];
+            buf.get(edgeClasses);
+            short[] edgeMaxSpeeds = new short[m];
+            buf.asShortBuffer().get(edgeMaxSpeeds);
+            skip(buf, 2L * m);
+            byte[] edgeFlags = new byte[m];
+            buf.get(edgeFlags);
+            String[] wayNames = new String[buf.getInt()];
+            for (int k = 0; k < wayNames.length; k++) {
+                wayNames[k] = readString(buf);
+            }
+            GraphDB g = new GraphDB(ids, lons, lats, offsets, targets, edgeWays, wayNames,
+                    edgeClasses, edgeMaxSpeeds, edgeFlags);
+            int namedCount = buf.getInt();
+            for (int k = 0; k < namedCount; k++) {
+                GraphDB.Node node = new GraphDB.Node(buf.getLong(), buf.getDouble(),
+                        buf.getDouble());
+                g.addLocation(readString(buf), node);
+            }
+            return g;
+        } catch (RuntimeException e) {
+            /* Truncation underflows the buffer; corrupt counts and indices throw
+             * array exceptions here or in the GraphDB constructor. */
+            return null;
+        }
+    }
+
+    private static long[] readLongs(MappedByteBuffer buf, int count) {
+        long[] res = new long[count];
+        buf.asLongBuffer().get(res);
+        skip(buf, 8L * count);
+        return res;
+    }
+
+    private static double[] readDoubles(MappedByteBuffer buf, int count) {
+        double[] res = new double[count];
+        buf.asDoubleBuffer().get(res);
+        skip(buf, 8L * count);
+        return res;
+    }
+
+    private static int[] readInts(MappedByteBuffer buf, int count) {
+        int[] res = new int[count];
+        buf.asIntBuffer().get(res);
+        skip(buf, 4L * count);
+        return res;
+    }
+
+    private static void skip(MappedByteBuffer buf, long bytes) {
+        buf.position((int) (buf.position() + bytes));
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(MappedByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
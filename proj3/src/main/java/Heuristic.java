@@ -0,0 +1,15 @@
+/**
+ * A lower bound on the shortest path distance between two vertices of a graph,
+ * used by AStarSearch to order its fringe. Implementations must never overestimate
+ * and should be consistent, or A* may return a path that is not the shortest.
+ */
+public interface Heuristic {
+    /**
+     * Estimates the distance from v to target.
+     * @param v The index of a vertex.
+     * @param target The index of the destination vertex.
+     * @return A lower bound on the shortest path distance, in miles unless the
+     * search weighs edges by a RoutingProfile.
+     */
+    double estimate(int v, int target);
+}
@@ -0,0 +1,102 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative longs, such as latencies in nanoseconds, in the
+ * manner of HdrHistogram: values below 2^SUB_BITS each get a bucket, and every
+ * larger power of two is split into 2^(SUB_BITS - 1) equal buckets, so any value
+ * up to Long.MAX_VALUE is kept to within about 3% in a fixed 15 KB. Recording is
+ * a few uncontended atomic adds and never allocates or locks, so it is cheap
+ * enough to leave on. Reads are not atomic with respect to concurrent records,
+ * which can only make a percentile lag by the records in flight.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_COUNT = SUB_COUNT / 2;
+    private static final int BUCKETS = (65 - SUB_BITS) * HALF_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a value. Negative values, as from a clock that stepped back, count
+     * as 0.
+     */
+    void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /** Returns the number of values recorded. */
+    long count() {
+        return count.sum();
+    }
+
+    /** Returns the sum of the values recorded. */
+    long sum() {
+        return sum.sum();
+    }
+
+    /** Returns the largest value recorded, or 0 if there is none. */
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns a value at or above the given fraction of the values recorded, to
+     * within the precision of its bucket.
+     * @param quantile The fraction, from 0 to 1, e.g. 0.99 for the 99th percentile.
+     * @return The value, or 0 if nothing has been recorded.
+     */
+    long valueAt(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                /* The middle of the bucket, but never more than the largest value. */
+                return Math.min(max(), lowest(i) + (width(i) - 1) / 2);
+            }
+        }
+        return max();
+    }
+
+    /** Returns the bucket of a non-negative value. */
+    static int bucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS + 1;
+        return shift * HALF_COUNT + (int) (value >>> shift);
+    }
+
+    /** Returns the smallest value in a bucket. */
+    static long lowest(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / HALF_COUNT - 1;
+        return (long) (bucket % HALF_COUNT + HALF_COUNT) << shift;
+    }
+
+    /** Returns the number of values in a bucket. */
+    static long width(int bucket) {
+        return bucket < SUB_COUNT ? 1 : 1L << (bucket / HALF_COUNT - 1);
+    }
+}
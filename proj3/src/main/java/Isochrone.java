@@ -0,0 +1,129 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+
+/**
+ * The part of the graph within a travel distance of a start: the vertices a
+ * bounded Dijkstra search settles, with their distances, and a concave hull of
+ * them to show as the reachable area. The hull is found in a plane that measures
+ * miles around the start, so its concavity means the same at every latitude.
+ * Immutable.
+ */
+public class Isochrone {
+    /** The isochrone of a start that snaps to no vertex. */
+    static final Isochrone EMPTY = new Isochrone(null, new int[0], new double[0], 0.0);
+
+    /** Miles per degree of latitude, and of longitude at the equator. */
+    private static final double MILES_PER_DEGREE = Math.toRadians(GraphDB.EARTH_RADIUS_MILES);
+    /** How concave the hull may be; see ConcaveHull. */
+    private static final double CONCAVITY = 2.0;
+    /** Hull edges shorter than this many miles are not opened up further. */
+    private static final double HULL_EDGE_MILES = 0.05;
+    /** How the area is drawn over rasters: a translucent green, outlined. */
+    static final Color FILL_COLOR = new Color(76, 175, 80, 70);
+    static final Color OUTLINE_COLOR = new Color(56, 142, 60, 200);
+    static final float OUTLINE_WIDTH_PX = 2.0f;
+
+    private final double miles;
+    private final long[] ids;
+    private final double[] distances;
+    private final double[] hullLons;
+    private final double[] hullLats;
+
+    /**
+     * Create the isochrone of a search.
+     * @param g The graph searched.
+     * @param reached The indices of the vertices reached, the start first.
+     * @param distances The distance of each vertex reached from the start.
+     * @param miles The distance the search was bounded by.
+     */
+    Isochrone(GraphDB g, int[] reached, double[] distances, double miles) {
+        this.miles = miles;
+        this.distances = distances;
+        int n = reached.length;
+        ids = new long[n];
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = g.id(reached[i]);
+            lons[i] = g.lonAt(reached[i]);
+            lats[i] = g.latAt(reached[i]);
+        }
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        double milesPerLon = n == 0 ? 0 : MILES_PER_DEGREE * Math.cos(Math.toRadians(lats[0]));
+        for (int i = 0; i < n; i++) {
+            xs[i] = lons[i] * milesPerLon;
+            ys[i] = lats[i] * MILES_PER_DEGREE;
+        }
+        int[] hull = ConcaveHull.of(xs, ys, CONCAVITY, HULL_EDGE_MILES);
+        hullLons = new double[hull.length];
+        hullLats = new double[hull.length];
+        for (int i = 0; i < hull.length; i++) {
+            hullLons[i] = lons[hull[i]];
+            hullLats[i] = lats[hull[i]];
+        }
+    }
+
+    /** Returns the distance in miles the isochrone reaches. */
+    double miles() {
+        return miles;
+    }
+
+    /** Returns the number of vertices reached. */
+    int size() {
+        return ids.length;
+    }
+
+    /** Returns the id of the i-th vertex reached, in order of distance. */
+    long id(int i) {
+        return ids[i];
+    }
+
+    /** Returns the distance in miles to the i-th vertex reached. */
+    double distance(int i) {
+        return distances[i];
+    }
+
+    /** Returns the corners of the hull as lon, lat pairs, in counterclockwise order. */
+    double[][] hull() {
+        double[][] res = new double[hullLons.length][];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = new double[] {hullLons[i], hullLats[i]};
+        }
+        return res;
+    }
+
+    /**
+     * Fills and outlines the hull onto a raster of the given bounds and size. Does
+     * nothing if fewer than three vertices were reached, or they lie on a line.
+     * @param g The graphics of the raster; its color and stroke are changed.
+     * @param ullon The longitude of the left edge of the raster.
+     * @param ullat The latitude of the top edge of the raster.
+     * @param lrlon The longitude of the right edge of the raster.
+     * @param lrlat The latitude of the bottom edge of the raster.
+     * @param width The width of the raster in pixels.
+     * @param height The height of the raster in pixels.
+     */
+    void draw(Graphics2D g, double ullon, double ullat, double lrlon, double lrlat, int width,
+              int height) {
+        if (hullLons.length < 3) {
+            return;
+        }
+        double scaleX = width / (lrlon - ullon);
+        double scaleY = height / (ullat - lrlat);
+        Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, hullLons.length);
+        path.moveTo((hullLons[0] - ullon) * scaleX, (ullat - hullLats[0]) * scaleY);
+        for (int i = 1; i < hullLons.length; i++) {
+            path.lineTo((hullLons[i] - ullon) * scaleX, (ullat - hullLats[i]) * scaleY);
+        }
+        path.closePath();
+        g.setColor(FILL_COLOR);
+        g.fill(path);
+        g.setColor(OUTLINE_COLOR);
+        g.setStroke(new BasicStroke(OUTLINE_WIDTH_PX, BasicStroke.CAP_ROUND,
+                BasicStroke.JOIN_ROUND));
+        g.draw(path);
+    }
+}
@@ -0,0 +1,310 @@
+import java.util.Arrays;
+
+/**
+ * A static 3-d tree over the vertices of a graph, used to answer nearest-vertex,
+ * k-nearest and radius queries without scanning every vertex.
+ * Each longitude/latitude pair is stored as a point on the unit sphere. The straight
+ * line (chord) distance between two such points grows monotonically with their
+ * great-circle distance, so the vertex with the smallest chord distance is also the
+ * one GraphDB.distance considers closest, and the usual k-d pruning by splitting
+ * plane stays exact.
+ * The tree is implicit: the points of a subtree occupy a range of the order array,
+ * the splitting point sits in the middle of the range, and its axis is in axes.
+ */
+public class KdTree {
+    private final double[][] coords;
+    private final int[] order;
+    private final byte[] axes;
+
+    /**
+     * Builds the tree over points 0 to lons.length - 1.
+     * @param lons The longitude of each point.
+     * @param lats The latitude of each point.
+     */
+    public KdTree(double[] lons, double[] lats) {
+        int n = lons.length;
+        coords = new double[3][n];
+        order = new int[n];
+        axes = new byte[n];
+        for (int i = 0; i < n; i++) {
+            double phi = Math.toRadians(lats[i]);
+            double lambda = Math.toRadians(lons[i]);
+            coords[0][i] = Math.cos(phi) * Math.cos(lambda);
+            coords[1][i] = Math.cos(phi) * Math.sin(lambda);
+            coords[2][i] = Math.sin(phi);
+            order[i] = i;
+        }
+        build(0, n);
+    }
+
+    int size() {
+        return order.length;
+    }
+
+    private void build(int lo, int hi) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int axis = widestAxis(lo, hi);
+        int mid = (lo + hi) >>> 1;
+        select(coords[axis], lo, hi - 1, mid);
+        axes[mid] = (byte) axis;
+        build(lo, mid);
+        build(mid + 1, hi);
+    }
+
+    private int widestAxis(int lo, int hi) {
+        int best = 0;
+        double bestSpread = -1;
+        for (int axis = 0; axis < 3; axis++) {
+            double[] c = coords[axis];
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = lo; i < hi; i++) {
+                min = Math.min(min, c[order[i]]);
+                max = Math.max(max, c[order[i]]);
+            }
+            if (max - min > bestSpread) {
+                bestSpread = max - min;
+                best = axis;
+            }
+        }
+        return best;
+    }
+
+    /** Quickselect: rearranges order[lo..hi] so that order[k] is in its sorted position. */
+    private void select(double[] c, int lo, int hi, int k) {
+        while (hi > lo) {
+            double pivot = c[order[(lo + hi) >>> 1]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (c[order[i]] < pivot) {
+                    i++;
+                }
+                while (c[order[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the point closest to the given location. When several points are
+     * equally close, the one with the largest index wins, as in a linear scan
+     * that keeps the last minimum.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The index of the closest point, or -1 if the tree is empty.
+     */
+    int nearest(double lon, double lat) {
+        if (order.length == 0) {
+            return -1;
+        }
+        double[] q = toPoint(lon, lat);
+        Neighbors best = new Neighbors(1);
+        search(q, 0, order.length, best);
+        return best.points[0];
+    }
+
+    /**
+     * Returns the k points closest to the given location, closest first.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param k The number of points wanted.
+     * @return The indices of up to k points.
+     */
+    int[] nearest(double lon, double lat, int k) {
+        k = Math.min(k, order.length);
+        if (k <= 0) {
+            return new int[0];
+        }
+        double[] q = toPoint(lon, lat);
+        Neighbors best = new Neighbors(k);
+        search(q, 0, order.length, best);
+        return best.sorted();
+    }
+
+    /**
+     * Returns every point within the given great-circle distance of a location,
+     * closest first.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param radius The distance in miles.
+     * @return The indices of the points within radius.
+     */
+    int[] withinRadius(double lon, double lat, double radius) {
+        double chord = 2 * Math.sin(Math.min(radius / GraphDB.EARTH_RADIUS_MILES, Math.PI) / 2);
+        double[] q = toPoint(lon, lat);
+        int[] found = new int[16];
+        double[] dists = new double[16];
+        int count = 0;
+        int[] stack = new int[128];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = order.length;
+        double limit = chord * chord;
+        while (top > 0) {
+            int hi = stack[--top];
+            int lo = stack[--top];
+            if (lo >= hi) {
+                continue;
+            }
+            int mid = (lo + hi) >>> 1;
+            int p = order[mid];
+            double d = squaredChord(q, p);
+            if (d <= limit) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                    dists = Arrays.copyOf(dists, count * 2);
+                }
+                found[count] = p;
+                dists[count] = d;
+                count++;
+            }
+            int axis = axes[mid];
+            double diff = q[axis] - coords[axis][p];
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            if (diff <= 0 || diff * diff <= limit) {
+                stack[top++] = lo;
+                stack[top++] = mid;
+            }
+            if (diff >= 0 || diff * diff <= limit) {
+                stack[top++] = mid + 1;
+                stack[top++] = hi;
+            }
+        }
+        return sortByDistance(found, dists, count);
+    }
+
+    private void search(double[] q, int lo, int hi, Neighbors best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int p = order[mid];
+        best.offer(p, squaredChord(q, p));
+        if (hi - lo == 1) {
+            return;
+        }
+        int axis = axes[mid];
+        double diff = q[axis] - coords[axis][p];
+        if (diff < 0) {
+            search(q, lo, mid, best);
+            if (diff * diff <= best.bound()) {
+                search(q, mid + 1, hi, best);
+            }
+        } else {
+            search(q, mid + 1, hi, best);
+            if (diff * diff <= best.bound()) {
+                search(q, lo, mid, best);
+            }
+        }
+    }
+
+    private double squaredChord(double[] q, int p) {
+        double dx = q[0] - coords[0][p];
+        double dy = q[1] - coords[1][p];
+        double dz = q[2] - coords[2][p];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static double[] toPoint(double lon, double lat) {
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        return new double[]{Math.cos(phi) * Math.cos(lambda),
+            Math.cos(phi) * Math.sin(lambda), Math.sin(phi)};
+    }
+
+    private static int[] sortByDistance(int[] points, double[] dists, int count) {
+        Integer[] ranks = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            ranks[i] = i;
+        }
+        Arrays.sort(ranks, (a, b) -> dists[a] != dists[b]
+                ? Double.compare(dists[a], dists[b]) : Integer.compare(points[b], points[a]));
+        int[] res = new int[count];
+        for (int i = 0; i < count; i++) {
+            res[i] = points[ranks[i]];
+        }
+        return res;
+    }
+
+    /**
+     * The k best points seen so far, kept as a binary max-heap on distance so the
+     * worst of them can be replaced in logarithmic time.
+     */
+    private static class Neighbors {
+        final int[] points;
+        final double[] dists;
+        int size;
+
+        Neighbors(int k) {
+            points = new int[k];
+            dists = new double[k];
+        }
+
+        /** Squared chord distance a point must not exceed to still be a candidate. */
+        double bound() {
+            return size < points.length ? Double.POSITIVE_INFINITY : dists[0];
+        }
+
+        /** True if point a at distance da ranks after point b at distance db. */
+        private static boolean worse(double da, int a, double db, int b) {
+            return da > db || (da == db && a < b);
+        }
+
+        void offer(int p, double d) {
+            if (size < points.length) {
+                int i = size++;
+                while (i > 0 && worse(d, p, dists[(i - 1) / 2], points[(i - 1) / 2])) {
+                    points[i] = points[(i - 1) / 2];
+                    dists[i] = dists[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                points[i] = p;
+                dists[i] = d;
+            } else if (worse(dists[0], points[0], d, p)) {
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && worse(dists[child + 1], points[child + 1],
+                            dists[child], points[child])) {
+                        child++;
+                    }
+                    if (!worse(dists[child], points[child], d, p)) {
+                        break;
+                    }
+                    points[i] = points[child];
+                    dists[i] = dists[child];
+                    i = child;
+                }
+                points[i] = p;
+                dists[i] = d;
+            }
+        }
+
+        int[] sorted() {
+            return sortByDistance(points, dists, size);
+        }
+    }
+}
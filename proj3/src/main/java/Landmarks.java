@@ -0,0 +1,216 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * ALT (A*, landmarks and triangle inequality) lower bounds for a GraphDB.
+ * A few landmark vertices are chosen up front, and the shortest path distance
+ * from each landmark to every vertex is stored. For a landmark L the triangle
+ * inequality gives d(v, t) >= |d(L, t) - d(L, v)|, and the estimate is the best
+ * of these bounds and the plane distance of GraphDB.planeDistanceAt. Roads are two-way, so one
+ * distance array per landmark serves as both the distances to and from it.
+ */
+public class Landmarks implements Heuristic {
+    /** Ways of choosing the landmarks. */
+    enum Selection {
+        /** Each landmark is the vertex farthest from the landmarks chosen so far. */
+        FARTHEST,
+        /**
+         * Each landmark is the leaf of the shortest path tree from a random root in
+         * the subtree whose vertices the current landmarks bound worst, as in
+         * Goldberg and Werneck's "avoid" method.
+         */
+        AVOID
+    }
+
+    private final GraphDB g;
+    private final int[] landmarks;
+    /** dist[i][v] is the shortest path distance between landmark i and vertex v. */
+    private final double[][] dist;
+
+    private Landmarks(GraphDB g, int[] landmarks, double[][] dist) {
+        this.g = g;
+        this.landmarks = landmarks;
+        this.dist = dist;
+    }
+
+    /**
+     * Chooses k landmarks of g and precomputes their distances.
+     * @param g The graph.
+     * @param k The number of landmarks.
+     * @param selection How to choose them.
+     * @return The landmarks.
+     */
+    static Landmarks select(GraphDB g, int k, Selection selection) {
+        int n = g.size();
+        k = Math.min(k, n);
+        int[] chosen = new int[k];
+        double[][] dist = new double[k][];
+        ShortestPathTree tree = new ShortestPathTree(n);
+        Random random = new Random(n);
+        for (int i = 0; i < k; i++) {
+            Landmarks partial = new Landmarks(g, Arrays.copyOf(chosen, i),
+                    Arrays.copyOf(dist, i));
+            int root = random.nextInt(n);
+            tree.grow(g, root);
+            chosen[i] = selection == Selection.FARTHEST
+                    ? partial.farthest(tree, i == 0) : partial.avoid(tree);
+            tree.grow(g, chosen[i]);
+            dist[i] = tree.dist.clone();
+        }
+        return new Landmarks(g, chosen, dist);
+    }
+
+    int size() {
+        return landmarks.length;
+    }
+
+    /** Returns the index of the vertex used as landmark i. */
+    int landmark(int i) {
+        return landmarks[i];
+    }
+
+    @Override
+    public double estimate(int v, int target) {
+        double best = g.planeDistanceAt(v, target);
+        for (double[] d : dist) {
+            double bound = Math.abs(d[target] - d[v]);
+            /* Infinite distances mean v and the landmark are in different components. */
+            if (bound > best && bound != Double.POSITIVE_INFINITY) {
+                best = bound;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the reachable vertex of the tree farthest from all current landmarks.
+     * The first landmark is simply the vertex farthest from the tree's root.
+     */
+    private int farthest(ShortestPathTree tree, boolean first) {
+        int best = tree.root;
+        double bestDistance = -1;
+        for (int v = 0; v < tree.dist.length; v++) {
+            if (tree.dist[v] == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            double d = first ? tree.dist[v] : Double.POSITIVE_INFINITY;
+            for (double[] l : dist) {
+                d = Math.min(d, l[v]);
+            }
+            if (d > bestDistance) {
+                bestDistance = d;
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Weighs each vertex of the tree by how much its distance from the root exceeds
+     * the current lower bound, then walks down from the root into the heaviest
+     * subtree that holds no landmark until reaching a leaf.
+     */
+    private int avoid(ShortestPathTree tree) {
+        int n = tree.dist.length;
+        double[] size = new double[n];
+        boolean[] hasLandmark = new boolean[n];
+        for (int l : landmarks) {
+            hasLandmark[l] = true;
+        }
+        /* Children are settled after their parents, so walk the settle order backwards. */
+        for (int i = tree.settledCount - 1; i >= 0; i--) {
+            int v = tree.settled[i];
+            size[v] += tree.dist[v] - estimate(tree.root, v);
+            int p = tree.parent[v];
+            if (p != v) {
+                hasLandmark[p] |= hasLandmark[v];
+                size[p] += size[v];
+            }
+        }
+
+        /* Group the children of each vertex, in CSR form. */
+        int[] childStart = new int[n + 1];
+        for (int i = 0; i < tree.settledCount; i++) {
+            int v = tree.settled[i];
+            if (tree.parent[v] != v) {
+                childStart[tree.parent[v] + 1] += 1;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            childStart[v + 1] += childStart[v];
+        }
+        int[] fill = Arrays.copyOf(childStart, n);
+        int[] children = new int[childStart[n]];
+        for (int i = 0; i < tree.settledCount; i++) {
+            int v = tree.settled[i];
+            if (tree.parent[v] != v) {
+                children[fill[tree.parent[v]]++] = v;
+            }
+        }
+
+        int v = tree.root;
+        while (true) {
+            int next = -1;
+            double nextSize = 0;
+            for (int c = childStart[v]; c < childStart[v + 1]; c++) {
+                int child = children[c];
+                if (!hasLandmark[child] && size[child] > nextSize) {
+                    next = child;
+                    nextSize = size[child];
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            v = next;
+        }
+        /* If every subtree already holds a landmark, fall back to the farthest vertex. */
+        return v == tree.root ? farthest(tree, landmarks.length == 0) : v;
+    }
+
+    /** Full Dijkstra from a root, remembering parents and the order vertices settle in. */
+    private static class ShortestPathTree {
+        final double[] dist;
+        final int[] parent;
+        final int[] settled;
+        final boolean[] marked;
+        final VertexHeap fringe = new VertexHeap();
+        int settledCount;
+        int root;
+
+        ShortestPathTree(int n) {
+            dist = new double[n];
+            parent = new int[n];
+            settled = new int[n];
+            marked = new boolean[n];
+        }
+
+        void grow(GraphDB g, int source) {
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            Arrays.fill(marked, false);
+            settledCount = 0;
+            root = source;
+            dist[source] = 0.0;
+            parent[source] = source;
+            fringe.clear();
+            fringe.push(source, 0.0);
+            while (!fringe.isEmpty()) {
+                int v = fringe.pop();
+                if (marked[v]) {
+                    continue;
+                }
+                marked[v] = true;
+                settled[settledCount++] = v;
+                for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) {
+                    int w = g.edgeTarget(e);
+                    double d = dist[v] + g.edgeLength(e);
+                    if (d < dist[w]) {
+                        dist[w] = d;
+                        parent[w] = v;
+                        fringe.push(w, d);
+                    }
+                }
+            }
+        }
+    }
+}
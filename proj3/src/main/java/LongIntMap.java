@@ -0,0 +1,102 @@
+/**
+ * An open-addressing hash map from primitive long keys to primitive int values.
+ * Used to translate OSM node ids into dense vertex indices without boxing every
+ * key into a Long and every entry into a HashMap.Node.
+ * Removal is not supported; the map only grows.
+ */
+public class LongIntMap {
+    private static final double MAX_LF = 0.5;
+    /** Returned by get() when a key is absent. */
+    static final int MISSING = -1;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+
+    /**
+     * Create a map that can hold expectedSize entries without resizing.
+     * @param expectedSize The number of entries the map is expected to hold.
+     */
+    public LongIntMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity * MAX_LF < expectedSize) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    public LongIntMap() {
+        this(16);
+    }
+
+    /** Mixes the bits of the key so that sequential OSM ids spread over the table. */
+    private static int hash(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key, mask);
+        while (used[i] && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the value mapped to key, or MISSING if there is none.
+     * @param key The key to look up.
+     * @return The value mapped to key, or MISSING.
+     */
+    int get(long key) {
+        int i = slot(key);
+        return used[i] ? values[i] : MISSING;
+    }
+
+    boolean containsKey(long key) {
+        return used[slot(key)];
+    }
+
+    /**
+     * Associates value with key, replacing any previous mapping.
+     * @param key The key.
+     * @param value The value, which should not be MISSING.
+     */
+    void put(long key, int value) {
+        int i = slot(key);
+        if (!used[i]) {
+            used[i] = true;
+            keys[i] = key;
+            size += 1;
+        }
+        values[i] = value;
+        if (size > keys.length * MAX_LF) {
+            resize(keys.length << 1);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int j = slot(oldKeys[i]);
+                used[j] = true;
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
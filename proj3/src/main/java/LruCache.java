@@ -0,0 +1,181 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * A bounded map that evicts its least recently used entries once their total
+ * weight exceeds a fixed bound. By default every entry weighs one, bounding the
+ * number of entries; a weigher can instead bound, say, the bytes the values
+ * hold. All operations lock the cache, which is cheap next to the work a hit
+ * saves. Values can be loaded through the cache, and concurrent misses on the
+ * same key then share a single load. Hits, misses and evictions are counted so
+ * that the bound can be sized from live traffic.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public class LruCache<K, V> {
+    private final long capacity;
+    private final ToLongFunction<? super V> weigher;
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** Loads in progress, which later misses on the same key wait for. */
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+    private long weight;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create an empty cache bounded by its number of entries.
+     * @param capacity The most entries the cache holds.
+     */
+    public LruCache(int capacity) {
+        this(capacity, v -> 1);
+    }
+
+    /**
+     * Create an empty cache bounded by the total weight of its values.
+     * @param capacity The most total weight the cache holds.
+     * @param weigher Returns the weight of a value, which must not change.
+     */
+    public LruCache(long capacity, ToLongFunction<? super V> weigher) {
+        this.capacity = capacity;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Returns the value cached for key and marks it most recently used.
+     * @param key The key.
+     * @return The value, or null on a miss.
+     */
+    V get(K key) {
+        V value;
+        synchronized (entries) {
+            value = entries.get(key);
+        }
+        (value != null ? hits : misses).incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Returns the value cached for key, loading and caching it on a miss. If
+     * another thread is already loading the key, waits for its value instead of
+     * loading it again, and throws what its loader throws if the load fails.
+     * @param key The key.
+     * @param loader Computes the value of a key; a null value is returned but not
+     *               cached.
+     * @return The value.
+     */
+    V get(K key, Function<? super K, ? extends V> loader) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> running = loading.putIfAbsent(key, load);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                /* Fail the way the loading thread did. */
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+        try {
+            /* A load may have finished between the miss and claiming the key. */
+            synchronized (entries) {
+                value = entries.get(key);
+            }
+            if (value == null) {
+                value = loader.apply(key);
+                if (value != null) {
+                    put(key, value);
+                }
+            }
+            load.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key);
+        }
+    }
+
+    /**
+     * Caches value for key, evicting least recently used entries until the cache
+     * is within its bound again. A value heavier than the whole bound is not kept.
+     * @param key The key.
+     * @param value The value, which must not be null.
+     */
+    void put(K key, V value) {
+        synchronized (entries) {
+            V old = entries.put(key, value);
+            if (old != null) {
+                weight -= weigher.applyAsLong(old);
+            }
+            weight += weigher.applyAsLong(value);
+            Iterator<V> eldest = entries.values().iterator();
+            while (weight > capacity && eldest.hasNext()) {
+                weight -= weigher.applyAsLong(eldest.next());
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /** Removes every entry. The counters are kept. */
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+            weight = 0;
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /** Returns the total weight of the cached values. */
+    long weight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    long evictions() {
+        return evictions.get();
+    }
+
+    /** Returns the fraction of lookups that were hits, or 0 before the first lookup. */
+    double hitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+}
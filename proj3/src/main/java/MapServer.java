@@ -1,22 +1,45 @@
-import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.BasicStroke;
 import java.awt.Color;
+import java.awt.RenderingHints;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import javax.imageio.ImageIO;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.LinkedList;
 import java.util.Base64;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 
 /* Maven is used to pull in these dependencies. */
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 
 import static spark.Spark.*;
 
@@ -51,6 +74,64 @@ public class MapServer {
      * using custom region selection.
      **/
     private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    /**
+     * System property naming the binary snapshot of the graph, which is written after
+     * the XML is parsed and loaded instead of parsing on later starts. Defaults to the
+     * XML path with a .snapshot suffix.
+     */
+    private static final String SNAPSHOT_PATH_PROPERTY = "bearmaps.snapshot";
+    /**
+     * System property that makes the server parse the XML, when it has no current
+     * snapshot, with the two-pass StreamingGraphBuilder, e.g.
+     * -Dbearmaps.streamingIngest=true.
+     */
+    private static final String STREAMING_INGEST_PROPERTY = "bearmaps.streamingIngest";
+    /**
+     * System property naming the file a contraction hierarchy for the graph is kept in,
+     * e.g. -Dbearmaps.hierarchy=berkeley-2018.ch. If set, routes are found with the
+     * hierarchy, which is built and saved on the first start and loaded afterwards.
+     */
+    private static final String HIERARCHY_PATH_PROPERTY = "bearmaps.hierarchy";
+    /**
+     * System property giving a number of landmarks to select at startup, e.g.
+     * -Dbearmaps.landmarks=16. If set, routes are found by A* with ALT bounds
+     * unless a contraction hierarchy is also configured.
+     */
+    private static final String LANDMARKS_PROPERTY = "bearmaps.landmarks";
+    /**
+     * System property that makes bidirectional A* the default for /route, e.g.
+     * -Dbearmaps.bidirectional=true. A request can still choose either search with
+     * its optional bidirectional parameter.
+     */
+    private static final String BIDIRECTIONAL_PROPERTY = "bearmaps.bidirectional";
+    /**
+     * System property giving a TileArchive to read tiles from instead of IMG_ROOT,
+     * e.g. -Dbearmaps.tileArchive=../library-sp18/data/proj3_tiles.bin. TilePyramid
+     * builds one.
+     */
+    private static final String TILE_ARCHIVE_PROPERTY = "bearmaps.tileArchive";
+    private static final int TILE_MAX_AGE_SECONDS = 24 * 60 * 60;
+    private static final int NOT_FOUND_RESPONSE = 404;
+    /**
+     * Distinguishes this run of the server in ETags and image URLs, since route
+     * ids start over when it restarts.
+     */
+    private static final String INSTANCE_TAG = Long.toString(System.currentTimeMillis(), 36);
+    /**
+     * System properties giving the most sessions to keep routes for and the minutes
+     * a session may go unused, e.g. -Dbearmaps.maxSessions=100000
+     * -Dbearmaps.sessionIdleMinutes=120.
+     */
+    private static final String MAX_SESSIONS_PROPERTY = "bearmaps.maxSessions";
+    private static final String SESSION_IDLE_MINUTES_PROPERTY = "bearmaps.sessionIdleMinutes";
+    private static final int DEFAULT_MAX_SESSIONS = 10000;
+    private static final int DEFAULT_SESSION_IDLE_MINUTES = 30;
+    /**
+     * Cookie that carries the session id. Clients that do not keep cookies can pass
+     * the id that /route returns as the session parameter instead.
+     */
+    private static final String SESSION_COOKIE = "bearmaps_session";
+    private static final String SESSION_PARAM = "session";
     /**
      * Each raster request to the server will have the following parameters
      * as keys in the params map accessible by,
@@ -70,6 +151,82 @@ public class MapServer {
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
         "end_lat", "end_lon"};
 
+    /**
+     * Each isochrone request to the server will have the following parameters
+     * as keys in the params map.<br>
+     * lon : start point longitude,<br> lat : start point latitude,<br>
+     * miles : the farthest travel distance to reach.
+     **/
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"lon", "lat", "miles"};
+
+    /**
+     * System property giving the number of routes to cache, e.g.
+     * -Dbearmaps.routeCacheSize=4096. The hit, miss and eviction counters at
+     * /route_cache show whether it is large enough.
+     */
+    private static final String ROUTE_CACHE_SIZE_PROPERTY = "bearmaps.routeCacheSize";
+    private static final int DEFAULT_ROUTE_CACHE_SIZE = 1024;
+    /**
+     * System property giving the most bytes of decoded tile images to keep in
+     * memory, e.g. -Dbearmaps.tileCacheBytes=536870912. Its counters are at
+     * /tile_cache.
+     */
+    private static final String TILE_CACHE_BYTES_PROPERTY = "bearmaps.tileCacheBytes";
+    private static final long DEFAULT_TILE_CACHE_BYTES = 128L << 20;
+    /**
+     * System property giving the most bytes of encoded rasters to keep,
+     * e.g. -Dbearmaps.rasterCacheBytes=268435456. Its counters are at /raster_cache.
+     */
+    private static final String RASTER_CACHE_BYTES_PROPERTY = "bearmaps.rasterCacheBytes";
+    private static final long DEFAULT_RASTER_CACHE_BYTES = 64L << 20;
+    /**
+     * System property giving the number of threads that load tiles and encode
+     * rasters, e.g. -Dbearmaps.rasterThreads=8. Defaults to one per processor.
+     */
+    private static final String RASTER_THREADS_PROPERTY = "bearmaps.rasterThreads";
+    /**
+     * System properties giving the deflate level, 0 to 9, and the PNG row filter,
+     * one of PngEncoder.Filter, of rasters, e.g. -Dbearmaps.pngLevel=1
+     * -Dbearmaps.pngFilter=SUB for cheaper encoding of larger images. The defaults
+     * are those of the ImageIO PNG writer.
+     */
+    private static final String PNG_LEVEL_PROPERTY = "bearmaps.pngLevel";
+    private static final String PNG_FILTER_PROPERTY = "bearmaps.pngFilter";
+    private static final int DEFAULT_PNG_LEVEL = 4;
+    /**
+     * System properties bounding the rendering of rasters and the finding of routes
+     * that miss their caches: how many run at once, defaulting to one per processor,
+     * and how many more may wait, e.g. -Dbearmaps.rasterRequests=4
+     * -Dbearmaps.rasterQueueDepth=32. Requests beyond those, and requests still
+     * waiting after bearmaps.requestTimeoutMillis, are answered 503 at once. The
+     * queues are at /request_queues.
+     */
+    private static final String RASTER_REQUESTS_PROPERTY = "bearmaps.rasterRequests";
+    private static final String RASTER_QUEUE_DEPTH_PROPERTY = "bearmaps.rasterQueueDepth";
+    private static final String ROUTE_REQUESTS_PROPERTY = "bearmaps.routeRequests";
+    private static final String ROUTE_QUEUE_DEPTH_PROPERTY = "bearmaps.routeQueueDepth";
+    private static final String REQUEST_TIMEOUT_MILLIS_PROPERTY = "bearmaps.requestTimeoutMillis";
+    private static final int DEFAULT_QUEUE_DEPTH = 16;
+    /**
+     * System property giving the most sources, and the most targets, a /distance_table
+     * request may ask for, e.g. -Dbearmaps.maxTablePoints=500.
+     */
+    private static final String MAX_TABLE_POINTS_PROPERTY = "bearmaps.maxTablePoints";
+    private static final int DEFAULT_MAX_TABLE_POINTS = 100;
+    /**
+     * System property giving the farthest an /isochrone request may reach, in miles,
+     * e.g. -Dbearmaps.maxIsochroneMiles=10.
+     */
+    private static final String MAX_ISOCHRONE_MILES_PROPERTY = "bearmaps.maxIsochroneMiles";
+    private static final double DEFAULT_MAX_ISOCHRONE_MILES = 5.0;
+    private static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = 10000;
+    /** HTTP response to requests turned away by a full queue. */
+    private static final int OVERLOADED_RESPONSE = 503;
+    /** Number of suggestions /search returns when the request gives no limit. */
+    private static final int SEARCH_RESULT_LIMIT = 10;
+    /** The most suggestions /search returns, whatever limit the request gives. */
+    private static final int MAX_SEARCH_RESULT_LIMIT = 100;
+
     /**
      * The result of rastering must be a map containing all of the
      * fields listed in the comments for getMapRaster in Rasterer.java.
@@ -79,7 +236,60 @@ public class MapServer {
 
     private static Rasterer rasterer;
     private static GraphDB graph;
-    private static List<Long> route = new LinkedList<>();
+    /** Source of CachedRoute ids, and of the ids of the isochrones they show. */
+    private static final AtomicLong ROUTE_IDS = new AtomicLong();
+    private static final AtomicLong ISOCHRONE_IDS = new AtomicLong();
+    /** The state of sessions without a route, and of requests without a session. */
+    private static final CachedRoute NO_ROUTE = new CachedRoute(0,
+            Collections.<Long>emptyList(), "", RouteOverlay.EMPTY, null, 0);
+    /** The route of each session. Sessions without one show NO_ROUTE. */
+    private static SessionStore<CachedRoute> sessions;
+    private static boolean bidirectional;
+    /** Routes keyed by their snapped endpoints and routing profile. */
+    private static LruCache<String, CachedRoute> routeCache;
+    /** Decoded tiles keyed by their file name, e.g. d3_x2_y5.png. */
+    private static LruCache<String, BufferedImage> tileCache;
+    /** Encoded rasters keyed by their tile window and route id. */
+    private static LruCache<String, byte[]> rasterCache;
+    /** The tiles, or null to read them from IMG_ROOT. */
+    private static TileArchive tileArchive;
+    /** Tells tiles of different archives apart in ETags. */
+    private static String tileArchiveTag;
+    private static TileCompositor compositor;
+    private static PngEncoder pngEncoder;
+    /** Where rasters that miss the raster cache are rendered. */
+    private static BoundedExecutor rasterRequests;
+    /** Where routes that miss the route cache are found. */
+    private static BoundedExecutor routeRequests;
+    /** Where the searches of a distance table run, one task per source. */
+    private static ForkJoinPool tablePool;
+    private static int maxTablePoints;
+    private static double maxIsochroneMiles;
+    /** Latency histograms, counters and gauges, scraped from /metrics. */
+    private static final Metrics METRICS = new Metrics();
+    private static final String STAGE_SECONDS = "bearmaps_stage_seconds";
+    private static final String STAGE_HELP = "Time spent in each stage of serving requests.";
+    private static final Histogram GET_MAP_RASTER_TIME = stageHistogram("get_map_raster");
+    private static final Histogram TILE_LOAD_TIME = stageHistogram("tile_load");
+    private static final Histogram COMPOSITE_TIME = stageHistogram("composite");
+    private static final Histogram ROUTE_DRAW_TIME = stageHistogram("route_draw");
+    private static final Histogram PNG_ENCODE_TIME = stageHistogram("png_encode");
+    private static final Histogram SHORTEST_PATH_TIME = stageHistogram("shortest_path");
+    private static final Histogram ROUTE_DIRECTIONS_TIME = stageHistogram("route_directions");
+    private static final Histogram PREFIX_SEARCH_TIME = stageHistogram("prefix_search");
+    private static final Histogram LOCATION_SEARCH_TIME = stageHistogram("location_search");
+    private static final Histogram DISTANCE_TABLE_TIME = stageHistogram("distance_table");
+    private static final Histogram ISOCHRONE_TIME = stageHistogram("isochrone");
+    private static final Histogram SETTLED_VERTICES = METRICS.histogram(
+            "bearmaps_route_settled_vertices", "", 1,
+            "Vertices settled by each route search that missed the route cache.");
+    /** Request attribute holding the System.nanoTime at which the request arrived. */
+    private static final String START_ATTRIBUTE = "bearmaps.start";
+    /** The endpoints that get their own request metrics; others count as other. */
+    private static final Set<String> ENDPOINTS = new HashSet<>(Arrays.asList("/raster",
+        "/raster_info", "/raster.png", "/tiles", "/route", "/route_cache", "/tile_cache",
+        "/raster_cache", "/request_queues", "/metrics", "/clear_route", "/search",
+        "/distance_table", "/isochrone", "/directions"));
     /* Define any static variables here. Do not define any instance variables of MapServer. */
 
 
@@ -89,8 +299,66 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
+        graph = GraphSnapshot.loadOrParse(OSM_DB_PATH,
+                System.getProperty(SNAPSHOT_PATH_PROPERTY, OSM_DB_PATH + ".snapshot"),
+                Boolean.getBoolean(STREAMING_INGEST_PROPERTY));
+        String hierarchyPath = System.getProperty(HIERARCHY_PATH_PROPERTY);
+        if (hierarchyPath != null) {
+            graph.setHierarchy(ContractionHierarchy.loadOrBuild(graph, hierarchyPath));
+        }
+        int landmarks = Integer.getInteger(LANDMARKS_PROPERTY, 0);
+        if (landmarks > 0) {
+            graph.setLandmarks(Landmarks.select(graph, landmarks, Landmarks.Selection.AVOID));
+        }
+        bidirectional = Boolean.getBoolean(BIDIRECTIONAL_PROPERTY);
+        routeCache = new LruCache<>(Integer.getInteger(ROUTE_CACHE_SIZE_PROPERTY,
+                DEFAULT_ROUTE_CACHE_SIZE));
+        tileCache = new LruCache<>(Long.getLong(TILE_CACHE_BYTES_PROPERTY,
+                DEFAULT_TILE_CACHE_BYTES), MapServer::imageBytes);
+        rasterCache = new LruCache<>(Long.getLong(RASTER_CACHE_BYTES_PROPERTY,
+                DEFAULT_RASTER_CACHE_BYTES), png -> png.length);
+        ExecutorService rasterPool = new ForkJoinPool(Integer.getInteger(RASTER_THREADS_PROPERTY,
+                Runtime.getRuntime().availableProcessors()));
+        compositor = new TileCompositor(TILE_SIZE, MapServer::getImage, rasterPool);
+        pngEncoder = new PngEncoder(Integer.getInteger(PNG_LEVEL_PROPERTY, DEFAULT_PNG_LEVEL),
+                PngEncoder.Filter.valueOf(System.getProperty(PNG_FILTER_PROPERTY,
+                        PngEncoder.Filter.ADAPTIVE.name())), rasterPool);
+        sessions = new SessionStore<>(Integer.getInteger(MAX_SESSIONS_PROPERTY,
+                DEFAULT_MAX_SESSIONS), TimeUnit.MINUTES.toNanos(Integer.getInteger(
+                SESSION_IDLE_MINUTES_PROPERTY, DEFAULT_SESSION_IDLE_MINUTES)));
+        int processors = Runtime.getRuntime().availableProcessors();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(Integer.getInteger(
+                REQUEST_TIMEOUT_MILLIS_PROPERTY, DEFAULT_REQUEST_TIMEOUT_MILLIS));
+        rasterRequests = new BoundedExecutor("raster", Integer.getInteger(
+                RASTER_REQUESTS_PROPERTY, processors), Integer.getInteger(
+                RASTER_QUEUE_DEPTH_PROPERTY, DEFAULT_QUEUE_DEPTH), timeout);
+        routeRequests = new BoundedExecutor("route", Integer.getInteger(
+                ROUTE_REQUESTS_PROPERTY, processors), Integer.getInteger(
+                ROUTE_QUEUE_DEPTH_PROPERTY, DEFAULT_QUEUE_DEPTH), timeout);
+        tablePool = new ForkJoinPool(processors);
+        maxTablePoints = Integer.getInteger(MAX_TABLE_POINTS_PROPERTY, DEFAULT_MAX_TABLE_POINTS);
+        maxIsochroneMiles = Double.parseDouble(System.getProperty(MAX_ISOCHRONE_MILES_PROPERTY,
+                String.valueOf(DEFAULT_MAX_ISOCHRONE_MILES)));
         rasterer = new Rasterer();
+        String archivePath = System.getProperty(TILE_ARCHIVE_PROPERTY);
+        if (archivePath != null) {
+            File archiveFile = new File(archivePath);
+            try {
+                tileArchive = TileArchive.open(archiveFile);
+                tileArchiveTag = archiveFile.length() + "-" + archiveFile.lastModified();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        registerCacheMetrics("route", routeCache);
+        registerCacheMetrics("tile", tileCache);
+        registerCacheMetrics("raster", rasterCache);
+        registerQueueMetrics("raster", rasterRequests);
+        registerQueueMetrics("route", routeRequests);
+        METRICS.gauge("bearmaps_sessions", "", "Sessions held, including expired ones.",
+                () -> sessions.size());
+        METRICS.counter("bearmaps_session_evictions_total", "",
+                "Sessions dropped for being idle or for lack of room.", sessions::evictions);
     }
 
     public static void main(String[] args) {
@@ -102,6 +370,23 @@ public class MapServer {
             response.header("Access-Control-Allow-Origin", "*");
             response.header("Access-Control-Request-Method", "*");
             response.header("Access-Control-Allow-Headers", "*");
+            request.attribute(START_ATTRIBUTE, System.nanoTime());
+        });
+
+        /* Time every request, including those that halt or fail. */
+        afterAfter((request, response) -> {
+            Long start = request.attribute(START_ATTRIBUTE);
+            if (start != null) {
+                recordRequest(request.pathInfo(), response.raw().getStatus(),
+                        System.nanoTime() - start);
+            }
+        });
+
+        /* Turn away requests the raster and route queues have no room for. */
+        exception(BoundedExecutor.Overloaded.class, (e, request, response) -> {
+            response.status(OVERLOADED_RESPONSE);
+            response.header("Retry-After", "1");
+            response.body("Server busy - " + e.getMessage() + ".");
         });
 
         /* Define the raster endpoint for HTTP GET requests. I use anonymous functions to define
@@ -109,42 +394,273 @@ public class MapServer {
         get("/raster", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
-            /* The png image is written to the ByteArrayOutputStream */
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
             /* getMapRaster() does almost all the work for this API call */
-            Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
+            Map<String, Object> rasteredImgParams = getMapRaster(params);
 
             boolean rasterSuccess = validateRasteredImgParams(rasteredImgParams);
 
-            if (rasterSuccess) {
-                writeImagesToOutputStream(rasteredImgParams, os);
-                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-                rasteredImgParams.put("b64_encoded_image_data", encodedImage);
+            if (!rasterSuccess) {
+                Gson gson = new Gson();
+                return gson.toJson(rasteredImgParams);
             }
-
+            byte[] png = getRasterImage(rasteredImgParams, sessionRoute(req));
+            String encodedImage = Base64.getEncoder().encodeToString(png);
+            rasteredImgParams.put("b64_encoded_image_data", encodedImage);
             /* Encode response to Json */
             Gson gson = new Gson();
             return gson.toJson(rasteredImgParams);
         });
 
-        /* Define the routing endpoint for HTTP GET requests. */
+        /* Define the raster metadata endpoint: /raster without the image, which the client
+         * fetches from image_url as raw PNG bytes instead, or tile by tile from /tiles. */
+        get("/raster_info", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
+            Map<String, Object> rasteredImgParams = getMapRaster(params);
+            if (validateRasteredImgParams(rasteredImgParams)) {
+                putRasterSize(rasteredImgParams);
+                rasteredImgParams.put("image_url", String.format(
+                        "/raster.png?depth=%d&ul_x=%d&ul_y=%d&lr_x=%d&lr_y=%d&v=%s",
+                        rasteredImgParams.get("depth"), rasteredImgParams.get("tile_ul_x"),
+                        rasteredImgParams.get("tile_ul_y"), rasteredImgParams.get("tile_lr_x"),
+                        rasteredImgParams.get("tile_lr_y"),
+                        INSTANCE_TAG + "." + sessionRoute(req).drawingId()));
+            }
+            Gson gson = new Gson();
+            return gson.toJson(rasteredImgParams);
+        });
+
+        /* Define the composite image endpoint, which streams the PNG of a tile window with
+         * the route of the session drawn on it. The v parameter only keeps browsers from
+         * reusing the image of an older route; the image always shows the current one. */
+        get("/raster.png", (req, res) -> {
+            Map<String, Object> window = rasterer.getTileWindow(
+                    getIntParam(req, "depth"), getIntParam(req, "ul_x"), getIntParam(req, "ul_y"),
+                    getIntParam(req, "lr_x"), getIntParam(req, "lr_y"));
+            if (window == null) {
+                halt(HALT_RESPONSE, "Incorrect parameters - tiles out of range.");
+            }
+            CachedRoute shown = sessionRoute(req);
+            String etag = "\"" + rasterKey(window, shown) + "@" + INSTANCE_TAG + "\"";
+            /* The image depends on the session, so only the browser may keep it, and it
+             * must check that the route is still the same. */
+            if (notModified(req, res, etag, "private, no-cache")) {
+                return "";
+            }
+            return sendPng(res, getRasterImage(window, shown));
+        });
+
+        /* Define the tile endpoint, which streams a tile file as is. Tiles never change
+         * while the server runs, so caches may keep them for a day without asking. */
+        get("/tiles/:name", (req, res) -> {
+            String name = req.params(":name");
+            int index = rasterer.tileIndex(name);
+            if (index < 0) {
+                halt(NOT_FOUND_RESPONSE, "No such tile.");
+            }
+            if (tileArchive != null) {
+                ByteBuffer tile = tileArchive.tile(index);
+                if (tile == null) {
+                    halt(NOT_FOUND_RESPONSE, "No such tile.");
+                }
+                String etag = "\"" + name + "-" + tileArchiveTag + "\"";
+                if (notModified(req, res, etag, "public, max-age=" + TILE_MAX_AGE_SECONDS)) {
+                    return "";
+                }
+                res.type("image/png");
+                res.raw().setContentLength(tile.remaining());
+                try (WritableByteChannel out = Channels.newChannel(res.raw().getOutputStream())) {
+                    while (tile.hasRemaining()) {
+                        out.write(tile);
+                    }
+                }
+                return "";
+            }
+            File file = new File(IMG_ROOT + name);
+            if (!file.isFile()) {
+                halt(NOT_FOUND_RESPONSE, "No such tile.");
+            }
+            String etag = "\"" + name + "-" + file.length() + "-" + file.lastModified() + "\"";
+            if (notModified(req, res, etag, "public, max-age=" + TILE_MAX_AGE_SECONDS)) {
+                return "";
+            }
+            res.type("image/png");
+            res.raw().setContentLength((int) file.length());
+            try (OutputStream out = res.raw().getOutputStream()) {
+                Files.copy(file.toPath(), out);
+            }
+            return "";
+        });
+
+        /* Define the routing endpoint for HTTP GET requests. The optional profile parameter
+         * picks how edges are weighed: shortest (the default), fastest or avoid_motorways. */
         get("/route", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
-            String directions = getDirectionsText();
+            String mode = req.queryParams("bidirectional");
+            boolean bidirectionalRoute = mode != null ? Boolean.parseBoolean(mode) : bidirectional;
+            RoutingProfile profile = getProfileParam(req);
+            CachedRoute found = findRoute(params.get("start_lon"), params.get("start_lat"),
+                    params.get("end_lon"), params.get("end_lat"), bidirectionalRoute, profile);
+            /* A new route keeps the isochrone the session shows. */
+            String session = showInSession(req, res, found::withIsochroneOf);
+            String directions = found.directions;
             Map<String, Object> routeParams = new HashMap<>();
-            routeParams.put("routing_success", !route.isEmpty());
+            routeParams.put(SESSION_PARAM, session);
+            routeParams.put("profile", profile.name().toLowerCase(Locale.ROOT));
+            routeParams.put("routing_success", !found.route.isEmpty());
             routeParams.put("directions_success", directions.length() > 0);
             routeParams.put("directions", directions);
             Gson gson = new Gson();
             return gson.toJson(routeParams);
         });
 
-        /* Define the API endpoint for clearing the current route. */
+        /* Define the streaming directions endpoint: the directions of the session's route
+         * as newline-delimited JSON, one object per direction. Directions are made as
+         * they are written, and the first is flushed at once, so clients can show it
+         * before the rest of a long route has been turned into directions. */
+        get("/directions", (req, res) -> {
+            CachedRoute shown = sessionRoute(req);
+            Iterator<Router.NavigationDirection> directions =
+                    Router.directions(graph, shown.route.iterator());
+            res.type("application/x-ndjson");
+            Gson gson = new Gson();
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                    res.raw().getOutputStream(), StandardCharsets.UTF_8))) {
+                int step = 1;
+                while (directions.hasNext()) {
+                    Router.NavigationDirection d = directions.next();
+                    Map<String, Object> direction = new HashMap<>();
+                    direction.put("step", step);
+                    direction.put("direction", Router.NavigationDirection.DIRECTIONS[d.direction]);
+                    direction.put("way", d.way);
+                    direction.put("distance", d.distance);
+                    direction.put("text", d.toString());
+                    out.write(gson.toJson(direction));
+                    out.write('\n');
+                    if (step == 1) {
+                        out.flush();
+                    }
+                    step += 1;
+                }
+            }
+            return "";
+        });
+
+        /* Define the distance table endpoint: the travel distance in miles from each of
+         * the sources to each of the targets, or null where there is no route. Points
+         * are lon,lat pairs separated by semicolons, e.g.
+         * sources=-122.26,37.87;-122.25,37.86. Without targets, the sources are also
+         * the targets. */
+        get("/distance_table", (req, res) -> {
+            double[][] sources = getPointsParam(req, "sources");
+            double[][] targets = req.queryParams("targets") != null
+                    ? getPointsParam(req, "targets") : sources;
+            double[][] table = routeRequests.call(() -> {
+                long start = System.nanoTime();
+                double[][] found = Router.distanceTable(graph, sources, targets, tablePool);
+                DISTANCE_TABLE_TIME.record(System.nanoTime() - start);
+                return found;
+            });
+            Double[][] distances = new Double[table.length][];
+            for (int i = 0; i < table.length; i++) {
+                distances[i] = new Double[table[i].length];
+                for (int j = 0; j < table[i].length; j++) {
+                    distances[i][j] = Double.isInfinite(table[i][j]) ? null : table[i][j];
+                }
+            }
+            Map<String, Object> tableParams = new HashMap<>();
+            tableParams.put("distances", distances);
+            tableParams.put("sources", sources.length);
+            tableParams.put("targets", targets.length);
+            Gson gson = new GsonBuilder().serializeNulls().create();
+            return gson.toJson(tableParams);
+        });
+
+        /* Define the isochrone endpoint: what can be reached within miles of travel from
+         * lon,lat, as the number of vertices and a concave hull of lon,lat pairs around
+         * them, which rasters of the session then show under its route. With
+         * include_vertices=true, also the id and distance of each vertex. */
+        get("/isochrone", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+            double miles = params.get("miles");
+            if (!(miles >= 0 && miles <= maxIsochroneMiles)) {
+                halt(HALT_RESPONSE, "Incorrect parameters - miles must be from 0 to "
+                        + maxIsochroneMiles + ".");
+            }
+            Isochrone found = routeRequests.call(() -> {
+                long start = System.nanoTime();
+                Isochrone reached = Router.isochrone(graph, params.get("lon"),
+                        params.get("lat"), miles);
+                ISOCHRONE_TIME.record(System.nanoTime() - start);
+                return reached;
+            });
+            long isochroneId = ISOCHRONE_IDS.incrementAndGet();
+            String session = showInSession(req, res,
+                    shown -> shown.withIsochrone(found, isochroneId));
+            Map<String, Object> isochroneParams = new HashMap<>();
+            isochroneParams.put(SESSION_PARAM, session);
+            isochroneParams.put("isochrone_success", found.size() > 0);
+            isochroneParams.put("miles", miles);
+            isochroneParams.put("reachable", found.size());
+            isochroneParams.put("hull", found.hull());
+            if (Boolean.parseBoolean(req.queryParams("include_vertices"))) {
+                List<Map<String, Object>> vertices = new ArrayList<>();
+                for (int i = 0; i < found.size(); i++) {
+                    Map<String, Object> vertex = new HashMap<>();
+                    vertex.put("id", found.id(i));
+                    vertex.put("distance", found.distance(i));
+                    vertices.add(vertex);
+                }
+                isochroneParams.put("vertices", vertices);
+            }
+            Gson gson = new Gson();
+            return gson.toJson(isochroneParams);
+        });
+
+        /* Define the API endpoint for the route cache counters. */
+        get("/route_cache", (req, res) -> {
+            Gson gson = new Gson();
+            return gson.toJson(cacheStats(routeCache));
+        });
+
+        /* Define the API endpoint for the tile cache counters. Its size and capacity are in
+         * bytes of decoded pixels. */
+        get("/tile_cache", (req, res) -> {
+            Map<String, Object> stats = cacheStats(tileCache);
+            stats.put("tiles", tileCache.size());
+            Gson gson = new Gson();
+            return gson.toJson(stats);
+        });
+
+        /* Define the API endpoint for the raster cache counters. Its size and capacity
+         * are in bytes of PNG. */
+        get("/raster_cache", (req, res) -> {
+            Map<String, Object> stats = cacheStats(rasterCache);
+            stats.put("responses", rasterCache.size());
+            Gson gson = new Gson();
+            return gson.toJson(stats);
+        });
+
+        /* Define the API endpoint for the raster and route queue counters. */
+        get("/request_queues", (req, res) -> {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("raster", queueStats(rasterRequests));
+            stats.put("route", queueStats(routeRequests));
+            Gson gson = new Gson();
+            return gson.toJson(stats);
+        });
+
+        /* Define the metrics endpoint, in the Prometheus text format. */
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4");
+            return METRICS.scrape();
+        });
+
+        /* Define the API endpoint for clearing the route and isochrone of the session. */
         get("/clear_route", (req, res) -> {
-            clearRoute();
+            clearRoute(sessionId(req));
             return true;
         });
 
@@ -158,8 +674,17 @@ public class MapServer {
                 List<Map<String, Object>> data = getLocations(term);
                 return gson.toJson(data);
             } else {
-                /* Search for prefix matching strings. */
-                List<String> matches = getLocationsByPrefix(term);
+                /* Search for the best prefix matching strings. */
+                int limit = SEARCH_RESULT_LIMIT;
+                if (reqParams.contains("limit")) {
+                    try {
+                        limit = Integer.parseInt(req.queryParams("limit"));
+                    } catch (NumberFormatException e) {
+                        halt(HALT_RESPONSE, "Incorrect parameters - limit must be a number.");
+                    }
+                    limit = Math.min(limit, MAX_SEARCH_RESULT_LIMIT);
+                }
+                List<String> matches = getLocationsByPrefix(term, limit);
                 return gson.toJson(matches);
             }
         });
@@ -203,89 +728,448 @@ public class MapServer {
      * we have made this into provided code since it was just a bit too low level.
      */
     private static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
+                                                  RouteOverlay overlay, Isochrone isochrone,
                                                   ByteArrayOutputStream os) {
         String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
-        int numVertTiles = renderGrid.length;
-        int numHorizTiles = renderGrid[0].length;
-
-        BufferedImage img = new BufferedImage(numHorizTiles * MapServer.TILE_SIZE,
-                numVertTiles * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
-        Graphics graphic = img.getGraphics();
-        int x = 0, y = 0;
-
-        for (int r = 0; r < numVertTiles; r += 1) {
-            for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(IMG_ROOT + renderGrid[r][c]), x, y, null);
-                x += MapServer.TILE_SIZE;
-                if (x >= img.getWidth()) {
-                    x = 0;
-                    y += MapServer.TILE_SIZE;
-                }
-            }
-        }
+        long start = System.nanoTime();
+        BufferedImage img = compositor.composite(renderGrid);
+        COMPOSITE_TIME.record(System.nanoTime() - start);
+        double ullon = (double) rasteredImageParams.get("raster_ul_lon");
+        double ullat = (double) rasteredImageParams.get("raster_ul_lat");
+        double lrlon = (double) rasteredImageParams.get("raster_lr_lon");
+        double lrlat = (double) rasteredImageParams.get("raster_lr_lat");
 
-        /* If there is a route, draw it. */
-        double ullon = (double) rasteredImageParams.get("raster_ul_lon"); //tiles.get(0).ulp;
-        double ullat = (double) rasteredImageParams.get("raster_ul_lat"); //tiles.get(0).ulp;
-        double lrlon = (double) rasteredImageParams.get("raster_lr_lon"); //tiles.get(0).ulp;
-        double lrlat = (double) rasteredImageParams.get("raster_lr_lat"); //tiles.get(0).ulp;
+        /* If there is an isochrone, shade it under the route. */
+        if (isochrone != null) {
+            Graphics2D g2d = img.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            isochrone.draw(g2d, ullon, ullat, lrlon, lrlat, img.getWidth(), img.getHeight());
+            g2d.dispose();
+        }
 
-        final double wdpp = (lrlon - ullon) / img.getWidth();
-        final double hdpp = (ullat - lrlat) / img.getHeight();
-        if (route != null && !route.isEmpty()) {
-            Graphics2D g2d = (Graphics2D) graphic;
+        /* If there is a route, draw the part of it on the raster. */
+        if (overlay.size() > 1) {
+            int depth = (int) rasteredImageParams.get("depth");
+            Graphics2D g2d = img.createGraphics();
             g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
             g2d.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
                     BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            route.stream().reduce((v, w) -> {
-                g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
-                             (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(w)) * (1 / hdpp)));
-                return w;
-            });
+            start = System.nanoTime();
+            overlay.draw(g2d, ullon, ullat, lrlon, lrlat, img.getWidth(), img.getHeight(),
+                    depth, MapServer.ROUTE_STROKE_WIDTH_PX);
+            g2d.dispose();
+            ROUTE_DRAW_TIME.record(System.nanoTime() - start);
+        }
+
+        try {
+            start = System.nanoTime();
+            pngEncoder.write(img, os);
+            PNG_ENCODE_TIME.record(System.nanoTime() - start);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
 
-        rasteredImageParams.put("raster_width", img.getWidth());
-        rasteredImageParams.put("raster_height", img.getHeight());
+    }
 
+    /**
+     * Returns the decoded tile of the given name, reading it from the tile archive
+     * or IMG_ROOT only if it is not in the tile cache.
+     */
+    private static BufferedImage getImage(String tileName) {
+        if (tileArchive != null) {
+            return tileCache.get(tileName, name -> timeTileLoad(name,
+                    MapServer::readArchivedImage));
+        }
+        return tileCache.get(tileName, name -> timeTileLoad(name,
+                n -> readImage(IMG_ROOT + n)));
+    }
+
+    private static BufferedImage timeTileLoad(String tileName,
+                                              Function<String, BufferedImage> load) {
+        long start = System.nanoTime();
+        BufferedImage img = load.apply(tileName);
+        TILE_LOAD_TIME.record(System.nanoTime() - start);
+        return img;
+    }
+
+    private static BufferedImage readArchivedImage(String tileName) {
+        ByteBuffer tile = tileArchive.tile(rasterer.tileIndex(tileName));
+        if (tile == null) {
+            return null;
+        }
+        byte[] bytes = new byte[tile.remaining()];
+        tile.get(bytes);
         try {
-            ImageIO.write(img, "png", os);
+            return TileCompositor.toIntRgb(ImageIO.read(new ByteArrayInputStream(bytes)));
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
         }
+    }
+
+    private static BufferedImage readImage(String imgPath) {
+        try {
+            return TileCompositor.toIntRgb(ImageIO.read(new File(imgPath)));
+        } catch (IOException | NullPointerException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the PNG of a raster, as described by getMapRaster, with the given
+     * route drawn on it, from the raster cache if possible. The image only depends
+     * on the tile window and the route, so a viewport that shows the same tiles
+     * under the same route reuses the encoded image, and concurrent requests for it
+     * share one rendering. Renderings wait their turn in the raster queue.
+     */
+    private static byte[] getRasterImage(Map<String, Object> rasteredImgParams,
+                                         CachedRoute shown) {
+        putRasterSize(rasteredImgParams);
+        return rasterCache.get(rasterKey(rasteredImgParams, shown), k ->
+            rasterRequests.call(() -> {
+                /* The png image is written to the ByteArrayOutputStream */
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                writeImagesToOutputStream(rasteredImgParams, shown.overlay, shown.isochrone,
+                        os);
+                return os.toByteArray();
+            }));
+    }
+
+    /** Returns the raster cache key of a tile window showing a route. */
+    private static String rasterKey(Map<String, Object> rasteredImgParams, CachedRoute shown) {
+        String[][] renderGrid = (String[][]) rasteredImgParams.get("render_grid");
+        return renderGrid[0][0] + ":"
+                + renderGrid[renderGrid.length - 1][renderGrid[0].length - 1] + ":"
+                + shown.drawingId();
+    }
 
+    private static void putRasterSize(Map<String, Object> rasteredImgParams) {
+        String[][] renderGrid = (String[][]) rasteredImgParams.get("render_grid");
+        rasteredImgParams.put("raster_width", renderGrid[0].length * TILE_SIZE);
+        rasteredImgParams.put("raster_height", renderGrid.length * TILE_SIZE);
     }
 
-    private static BufferedImage getImage(String imgPath) {
-        BufferedImage tileImg = null;
-        if (tileImg == null) {
+    /**
+     * Returns the points of a parameter of lon,lat pairs separated by semicolons,
+     * halting if it is missing, malformed or has more than maxTablePoints points.
+     */
+    private static double[][] getPointsParam(spark.Request req, String param) {
+        String value = req.queryParams(param);
+        if (value == null || value.isEmpty()) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        String[] pairs = value.split(";");
+        if (pairs.length > maxTablePoints) {
+            halt(HALT_RESPONSE, "Incorrect parameters - at most " + maxTablePoints + " "
+                    + param + ".");
+        }
+        double[][] points = new double[pairs.length][];
+        for (int i = 0; i < pairs.length; i++) {
+            String[] lonLat = pairs[i].split(",");
             try {
-                File in = new File(imgPath);
-                tileImg = ImageIO.read(in);
-            } catch (IOException | NullPointerException e) {
-                e.printStackTrace();
+                if (lonLat.length != 2) {
+                    throw new NumberFormatException(pairs[i]);
+                }
+                points[i] = new double[] {Double.parseDouble(lonLat[0]),
+                    Double.parseDouble(lonLat[1])};
+            } catch (NumberFormatException e) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide lon,lat pairs.");
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Returns the routing profile a request names in its profile parameter, such as
+     * fastest or avoid_motorways, or SHORTEST if it names none; halts if it names
+     * one that does not exist.
+     */
+    private static RoutingProfile getProfileParam(spark.Request req) {
+        String name = req.queryParams("profile");
+        if (name == null) {
+            return RoutingProfile.SHORTEST;
+        }
+        try {
+            return RoutingProfile.fromParam(name);
+        } catch (IllegalArgumentException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - profile must be one of "
+                    + Arrays.toString(RoutingProfile.values()).toLowerCase(Locale.ROOT) + ".");
+            return null;
+        }
+    }
+
+    private static int getIntParam(spark.Request req, String param) {
+        String value = req.queryParams(param);
+        if (value == null) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - provide integers.");
+            return 0;
+        }
+    }
+
+    /**
+     * Sets the ETag and Cache-Control headers of a response, and answers 304 Not
+     * Modified if the request already holds the entity with that tag.
+     * @return True if the response is a 304 with no body.
+     */
+    private static boolean notModified(spark.Request req, spark.Response res, String etag,
+                                       String cacheControl) {
+        res.header("ETag", etag);
+        res.header("Cache-Control", cacheControl);
+        String held = req.headers("If-None-Match");
+        if (held != null && (held.equals("*") || Arrays.asList(held.split("\\s*,\\s*"))
+                .contains(etag))) {
+            res.status(304);
+            return true;
+        }
+        return false;
+    }
+
+    /** Streams png as the body of res, without copying it. */
+    private static String sendPng(spark.Response res, byte[] png) throws IOException {
+        res.type("image/png");
+        res.raw().setContentLength(png.length);
+        try (OutputStream out = res.raw().getOutputStream()) {
+            out.write(png);
+        }
+        return "";
+    }
+
+    /** Returns the bytes held by the pixels of img, its weight in the tile cache. */
+    private static long imageBytes(BufferedImage img) {
+        DataBuffer pixels = img.getRaster().getDataBuffer();
+        return (long) pixels.getSize() * pixels.getNumBanks()
+                * DataBuffer.getDataTypeSize(pixels.getDataType()) / 8;
+    }
+
+    /** Returns the counters of cache as a map for a JSON response. */
+    private static Map<String, Object> cacheStats(LruCache<?, ?> cache) {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hits", cache.hits());
+        stats.put("misses", cache.misses());
+        stats.put("hit_rate", cache.hitRate());
+        stats.put("evictions", cache.evictions());
+        stats.put("size", cache.weight());
+        stats.put("capacity", cache.capacity());
+        return stats;
+    }
+
+    /** Rasters a viewport as Rasterer.getMapRaster does, timing it. */
+    private static Map<String, Object> getMapRaster(Map<String, Double> params) {
+        long start = System.nanoTime();
+        Map<String, Object> rastered = rasterer.getMapRaster(params);
+        GET_MAP_RASTER_TIME.record(System.nanoTime() - start);
+        return rastered;
+    }
+
+    private static Histogram stageHistogram(String stage) {
+        return METRICS.histogram(STAGE_SECONDS, "stage=\"" + stage + "\"", 1e-9, STAGE_HELP);
+    }
+
+    /** Records the latency and status of a request to the given path. */
+    private static void recordRequest(String path, int status, long nanos) {
+        String endpoint = path == null ? "other" : path.startsWith("/tiles/") ? "/tiles"
+                : ENDPOINTS.contains(path) ? path : "other";
+        String labels = "endpoint=\"" + endpoint + "\"";
+        METRICS.histogram("bearmaps_http_request_seconds", labels, 1e-9,
+                "Time to answer requests, by endpoint.").record(nanos);
+        METRICS.counter("bearmaps_http_responses_total", labels + ",status=\"" + status + "\"",
+                "Responses sent, by endpoint and status.").increment();
+    }
+
+    /** Exposes the counters of cache to /metrics with the label cache=name. */
+    private static void registerCacheMetrics(String name, LruCache<?, ?> cache) {
+        String labels = "cache=\"" + name + "\"";
+        METRICS.counter("bearmaps_cache_hits_total", labels, "Cache hits.", cache::hits);
+        METRICS.counter("bearmaps_cache_misses_total", labels, "Cache misses.", cache::misses);
+        METRICS.counter("bearmaps_cache_evictions_total", labels, "Cache evictions.",
+                cache::evictions);
+        METRICS.gauge("bearmaps_cache_size", labels,
+                "Total weight of cached values: entries, or bytes for tiles and rasters.",
+                cache::weight);
+        METRICS.gauge("bearmaps_cache_capacity", labels, "Most total weight a cache holds.",
+                cache::capacity);
+    }
+
+    /** Exposes the counters of a request queue to /metrics with the label queue=name. */
+    private static void registerQueueMetrics(String name, BoundedExecutor queue) {
+        String labels = "queue=\"" + name + "\"";
+        METRICS.gauge("bearmaps_queue_active", labels, "Tasks running.", queue::active);
+        METRICS.gauge("bearmaps_queue_waiting", labels, "Tasks waiting for a thread.",
+                queue::queued);
+        METRICS.counter("bearmaps_queue_completed_total", labels, "Tasks finished in time.",
+                queue::completed);
+        METRICS.counter("bearmaps_queue_rejected_total", labels,
+                "Tasks turned away by a full queue.", queue::rejected);
+        METRICS.counter("bearmaps_queue_timed_out_total", labels,
+                "Tasks cancelled for not finishing in time.", queue::timedOut);
+    }
+
+    /** Returns the counters of a request queue as a map for a JSON response. */
+    private static Map<String, Object> queueStats(BoundedExecutor queue) {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("active", queue.active());
+        stats.put("queued", queue.queued());
+        stats.put("completed", queue.completed());
+        stats.put("rejected", queue.rejected());
+        stats.put("timed_out", queue.timedOut());
+        return stats;
+    }
+
+    /**
+     * A route and its directions text, as kept in the route cache and as the state
+     * of a session, which may also show an isochrone. Immutable. Each route has an
+     * id, unique in this run of the server, and so does each isochrone shown. The
+     * two name what is drawn in raster cache keys, so sessions showing the same
+     * cached route and isochrone share their rasters.
+     */
+    private static class CachedRoute {
+        final long id;
+        final List<Long> route;
+        final String directions;
+        /** The route projected and simplified for drawing, made once per route. */
+        final RouteOverlay overlay;
+        /** The isochrone shown under the route, or null; never set on cached routes. */
+        final Isochrone isochrone;
+        /** The id of isochrone, or 0 if there is none. */
+        final long isochroneId;
+
+        CachedRoute(List<Long> route, String directions) {
+            this(ROUTE_IDS.incrementAndGet(), route, directions,
+                    route.isEmpty() ? RouteOverlay.EMPTY : RouteOverlay.of(graph, route), null,
+                    0);
+        }
+
+        private CachedRoute(long id, List<Long> route, String directions, RouteOverlay overlay,
+                            Isochrone isochrone, long isochroneId) {
+            this.id = id;
+            this.route = route;
+            this.directions = directions;
+            this.overlay = overlay;
+            this.isochrone = isochrone;
+            this.isochroneId = isochroneId;
+        }
+
+        /** Returns this route showing a newly found isochrone with a new id instead. */
+        CachedRoute withIsochrone(Isochrone shown, long shownId) {
+            return new CachedRoute(id, route, directions, overlay, shown, shownId);
+        }
+
+        /** Returns this route showing the isochrone other shows, keeping its id. */
+        CachedRoute withIsochroneOf(CachedRoute other) {
+            if (other.isochroneId == isochroneId) {
+                return this;
             }
+            return new CachedRoute(id, route, directions, overlay, other.isochrone,
+                    other.isochroneId);
+        }
+
+        /** Returns what names the drawing of this state: its route and isochrone ids. */
+        String drawingId() {
+            return id + "." + isochroneId;
         }
-        return tileImg;
     }
 
     /**
-     * Clear the current found route, if it exists.
+     * Finds the route between the vertices closest to two locations, and its
+     * directions, through the route cache. Routes are cached by their snapped
+     * endpoints, profile and search mode, so every request that snaps to the same
+     * pair under the same profile and mode shares one entry. Searches wait their turn
+     * in the route queue.
      */
-    public static void clearRoute() {
-        route = new LinkedList<Long>();
+    private static CachedRoute findRoute(double stlon, double stlat, double destlon,
+                                         double destlat, boolean bidirectionalRoute,
+                                         RoutingProfile profile) {
+        int startNode = graph.closestIndex(stlon, stlat);
+        int desNode = graph.closestIndex(destlon, destlat);
+        if (startNode < 0 || desNode < 0) {
+            return NO_ROUTE;
+        }
+        /* Only SHORTEST searches from both ends, so other profiles share one mode. */
+        boolean fromBothEnds = bidirectionalRoute && profile == RoutingProfile.SHORTEST;
+        String key = startNode + ":" + desNode + ":" + profile.ordinal() + ":"
+                + (fromBothEnds ? "b" : "f");
+        return routeCache.get(key, k -> routeRequests.call(() -> {
+            long start = System.nanoTime();
+            List<Long> found = Collections.unmodifiableList(Router.shortestPathBetween(
+                    graph, startNode, desNode, fromBothEnds, profile));
+            SHORTEST_PATH_TIME.record(System.nanoTime() - start);
+            SETTLED_VERTICES.record(Router.settledCount(graph, fromBothEnds, profile));
+            return new CachedRoute(found, getDirectionsText(found));
+        }));
     }
 
     /**
-     * In linear time, collect all the names of OSM locations that prefix-match the query string.
+     * Clear the found route of a session, if it exists.
+     * @param session The session id, or null.
+     */
+    public static void clearRoute(String session) {
+        sessions.update(session, NO_ROUTE);
+    }
+
+    /**
+     * Changes what the session of a request shows, in one atomic step, starting a
+     * session from NO_ROUTE, and setting its cookie, if the request has none or it
+     * has expired.
+     * @param change Returns the new state of the session given the current one.
+     * @return The id of the session.
+     */
+    private static String showInSession(spark.Request req, spark.Response res,
+                                        UnaryOperator<CachedRoute> change) {
+        String session = sessionId(req);
+        if (!sessions.update(session, change)) {
+            session = sessions.create(change.apply(NO_ROUTE));
+            res.cookie("/", SESSION_COOKIE, session, -1, false, true);
+        }
+        return session;
+    }
+
+    /** Returns the session id a request carries, or null if it has none. */
+    private static String sessionId(spark.Request req) {
+        String session = req.queryParams(SESSION_PARAM);
+        return session != null ? session : req.cookie(SESSION_COOKIE);
+    }
+
+    /** Returns the route of the session of a request, or NO_ROUTE. */
+    private static CachedRoute sessionRoute(spark.Request req) {
+        CachedRoute found = sessions.get(sessionId(req));
+        return found != null ? found : NO_ROUTE;
+    }
+
+    /**
+     * Collect all the names of OSM locations that prefix-match the query string.
      * @param prefix Prefix string to be searched for. Could be any case, with or without
      *               punctuation.
      * @return A <code>List</code> of the full names of locations whose cleaned name matches the
      * cleaned <code>prefix</code>.
      */
     public static List<String> getLocationsByPrefix(String prefix) {
-        return graph.getLocationsByPrefix(prefix);
+        long start = System.nanoTime();
+        List<String> found = graph.getLocationsByPrefix(prefix);
+        PREFIX_SEARCH_TIME.record(System.nanoTime() - start);
+        return found;
+    }
+
+    /**
+     * Collect the names of the highest scoring OSM locations that prefix-match the query
+     * string, without visiting the other matches.
+     * @param prefix Prefix string to be searched for. Could be any case, with or without
+     *               punctuation.
+     * @param limit The most names to return.
+     * @return A <code>List</code> of up to <code>limit</code> full names of locations whose
+     * cleaned name matches the cleaned <code>prefix</code>, best first.
+     */
+    public static List<String> getLocationsByPrefix(String prefix, int limit) {
+        long start = System.nanoTime();
+        List<String> found = graph.getLocationsByPrefix(prefix, limit);
+        PREFIX_SEARCH_TIME.record(System.nanoTime() - start);
+        return found;
     }
 
     /**
@@ -301,7 +1185,10 @@ public class MapServer {
      * "id" : Number, The id of the node. <br>
      */
     public static List<Map<String, Object>> getLocations(String locationName) {
-        return graph.getLocations(locationName);
+        long start = System.nanoTime();
+        List<Map<String, Object>> found = graph.getLocations(locationName);
+        LOCATION_SEARCH_TIME.record(System.nanoTime() - start);
+        return found;
     }
 
     /**
@@ -329,17 +1216,20 @@ public class MapServer {
      * Takes the route of this MapServer and converts it into an HTML friendly
      * String to be passed to the frontend.
      */
-    private static String getDirectionsText() {
-        List<Router.NavigationDirection> directions = Router.routeDirections(graph, route);
-        if (directions == null || directions.isEmpty()) {
+    private static String getDirectionsText(List<Long> route) {
+        if (route.size() < 2) {
             return "";
         }
+        long start = System.nanoTime();
+        Iterator<Router.NavigationDirection> directions =
+                Router.directions(graph, route.iterator());
         StringBuilder sb = new StringBuilder();
         int step = 1;
-        for (Router.NavigationDirection d: directions) {
-            sb.append(String.format("%d. %s <br>", step, d));
+        while (directions.hasNext()) {
+            sb.append(String.format("%d. %s <br>", step, directions.next()));
             step += 1;
         }
+        ROUTE_DIRECTIONS_TIME.record(System.nanoTime() - start);
         return sb.toString();
     }
 }
@@ -0,0 +1,184 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ * Command line load test for a running MapServer. Like GraphDBBenchmark, this is
+ * not used by the server; run it by hand against a server started separately.
+ * Each thread is a user with its own session cookie, who asks for a random route
+ * and then pans over random viewports, fetching /raster_info and the composite
+ * image it names. Every image a user fetches between two of its routes must show
+ * the same route, whatever the other users do; the route a composite shows is
+ * read from its ETag. Reports throughput, latency percentiles, errors and any
+ * images that showed another route.
+ * Usage: java MapServerLoadTest [server url] [threads] [seconds].
+ */
+public class MapServerLoadTest {
+    private static final String DEFAULT_SERVER = "http://localhost:4567";
+    private static final int DEFAULT_THREADS = 16;
+    private static final int DEFAULT_SECONDS = 30;
+    /** Viewports each user fetches after each route. */
+    private static final int PANS_PER_ROUTE = 5;
+
+    private static final AtomicLong ERRORS = new AtomicLong();
+    private static final AtomicLong MIXED_ROUTES = new AtomicLong();
+
+    public static void main(String[] args) throws InterruptedException {
+        String server = args.length > 0 ? args[0] : DEFAULT_SERVER;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_THREADS;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SECONDS;
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        List<User> users = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            User user = new User(server, i, deadline);
+            users.add(user);
+            Thread worker = new Thread(user, "user-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        report("route", users, 0, seconds);
+        report("raster_info", users, 1, seconds);
+        report("raster.png", users, 2, seconds);
+        System.out.printf("errors %d, images showing another route %d%n", ERRORS.get(),
+                MIXED_ROUTES.get());
+    }
+
+    private static void report(String endpoint, List<User> users, int kind, int seconds) {
+        int count = 0;
+        for (User user : users) {
+            count += user.latencies.get(kind).size();
+        }
+        long[] sorted = new long[count];
+        int i = 0;
+        for (User user : users) {
+            for (long latency : user.latencies.get(kind)) {
+                sorted[i++] = latency;
+            }
+        }
+        Arrays.sort(sorted);
+        if (count == 0) {
+            System.out.printf("%-12s no requests%n", endpoint);
+            return;
+        }
+        System.out.printf(Locale.ROOT, "%-12s %8d requests %8.1f/s  p50 %7.2f ms  p99 %7.2f ms"
+                        + "  max %7.2f ms%n", endpoint, count, (double) count / seconds,
+                GraphDBBenchmark.percentile(sorted, 0.5) / 1e6,
+                GraphDBBenchmark.percentile(sorted, 0.99) / 1e6, sorted[count - 1] / 1e6);
+    }
+
+    /** One simulated user, with its own session. */
+    private static class User implements Runnable {
+        private final String server;
+        private final Random random;
+        private final long deadline;
+        private final Gson gson = new Gson();
+        /** Latencies in nanoseconds of /route, /raster_info and /raster.png. */
+        final List<List<Long>> latencies = Arrays.asList(new ArrayList<>(), new ArrayList<>(),
+                new ArrayList<>());
+        private String cookie;
+        private String lastEtag;
+
+        User(String server, int seed, long deadline) {
+            this.server = server;
+            this.random = new Random(seed);
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            while (System.nanoTime() < deadline) {
+                try {
+                    get("/route?" + String.format(Locale.ROOT,
+                            "start_lon=%f&start_lat=%f&end_lon=%f&end_lat=%f",
+                            randomLon(), randomLat(), randomLon(), randomLat()), 0);
+                    String shownRoute = null;
+                    for (int pan = 0; pan < PANS_PER_ROUTE; pan++) {
+                        double width = (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON)
+                                / (1 << random.nextInt(6));
+                        double height = width * 0.8;
+                        double ullon = randomLon();
+                        double ullat = randomLat();
+                        JsonObject info = gson.fromJson(new String(get("/raster_info?"
+                                + String.format(Locale.ROOT,
+                                "ullon=%f&ullat=%f&lrlon=%f&lrlat=%f&w=1024&h=800", ullon,
+                                ullat, ullon + width, ullat - height), 1), "UTF-8"),
+                                JsonObject.class);
+                        if (!info.get("query_success").getAsBoolean()) {
+                            continue;
+                        }
+                        String etag = etagOf(info.get("image_url").getAsString());
+                        String route = etag.substring(etag.lastIndexOf(':') + 1,
+                                etag.lastIndexOf('@'));
+                        if (shownRoute == null) {
+                            shownRoute = route;
+                        } else if (!shownRoute.equals(route)) {
+                            MIXED_ROUTES.incrementAndGet();
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    ERRORS.incrementAndGet();
+                }
+            }
+        }
+
+        /** Fetches the composite at url and returns its ETag. */
+        private String etagOf(String url) throws IOException {
+            get(url, 2);
+            return lastEtag;
+        }
+
+        /** Fetches path, records its latency as the given kind and returns the body. */
+        private byte[] get(String path, int kind) throws IOException {
+            long start = System.nanoTime();
+            HttpURLConnection conn = (HttpURLConnection) new URL(server + path).openConnection();
+            if (cookie != null) {
+                conn.setRequestProperty("Cookie", cookie);
+            }
+            int status = conn.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException(path + " answered " + status);
+            }
+            String setCookie = conn.getHeaderField("Set-Cookie");
+            if (setCookie != null) {
+                cookie = setCookie.split(";", 2)[0];
+            }
+            lastEtag = conn.getHeaderField("ETag");
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = conn.getInputStream()) {
+                byte[] buf = new byte[16 * 1024];
+                for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                    body.write(buf, 0, n);
+                }
+            }
+            latencies.get(kind).add(System.nanoTime() - start);
+            return body.toByteArray();
+        }
+
+        private double randomLon() {
+            return MapServer.ROOT_ULLON
+                    + random.nextDouble() * (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON);
+        }
+
+        private double randomLat() {
+            return MapServer.ROOT_LRLAT
+                    + random.nextDouble() * (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT);
+        }
+    }
+}
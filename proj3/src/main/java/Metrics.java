@@ -0,0 +1,160 @@
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Named histograms, counters and gauges, written out in the Prometheus text
+ * format for scraping. A metric is a family name, such as
+ * bearmaps_stage_seconds, and optional labels in that format's syntax, such as
+ * stage="png_encode"; each family has one type. Histograms are written as
+ * summaries of everything recorded since the start, with a separate _max gauge
+ * family, and are scaled on the way out, so latencies can be recorded in
+ * nanoseconds and read in seconds. Counters and gauges may be read from a
+ * supplier, so existing counters such as those of LruCache need no copying.
+ */
+public class Metrics {
+    /** The quantiles each histogram reports. */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, String> types = new ConcurrentHashMap<>();
+    private final Map<String, String> helps = new ConcurrentHashMap<>();
+    /** Keyed by family name and labels, sorted so that each family is contiguous. */
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, Double> scales = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> counters = new ConcurrentSkipListMap<>();
+    /** The counters that callers add to, as opposed to those read from a supplier. */
+    private final Map<String, LongAdder> adders = new ConcurrentHashMap<>();
+    private final Map<String, DoubleSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    /**
+     * Returns the histogram of the given name and labels, creating it on first use.
+     * @param name The family name.
+     * @param labels The labels, e.g. stage="png_encode", or "" for none.
+     * @param scale What to multiply recorded values by when writing them out.
+     * @param help One line describing the family.
+     * @return The histogram.
+     */
+    Histogram histogram(String name, String labels, double scale, String help) {
+        declare(name, "summary", help);
+        declare(name + "_max", "gauge", help + " Largest value.");
+        scales.put(name, scale);
+        return histograms.computeIfAbsent(key(name, labels), k -> new Histogram());
+    }
+
+    /**
+     * Returns a counter of the given name and labels, creating it on first use.
+     * @return The counter, which the caller adds to.
+     */
+    LongAdder counter(String name, String labels, String help) {
+        declare(name, "counter", help);
+        String key = key(name, labels);
+        LongAdder adder = adders.computeIfAbsent(key, k -> new LongAdder());
+        counters.putIfAbsent(key, adder::sum);
+        return adder;
+    }
+
+    /** Registers a counter read from value, replacing any earlier one. */
+    void counter(String name, String labels, String help, LongSupplier value) {
+        declare(name, "counter", help);
+        counters.put(key(name, labels), value);
+    }
+
+    /** Registers a gauge read from value, replacing any earlier one. */
+    void gauge(String name, String labels, String help, DoubleSupplier value) {
+        declare(name, "gauge", help);
+        gauges.put(key(name, labels), value);
+    }
+
+    /** Returns every metric in the Prometheus text format. */
+    String scrape() {
+        StringBuilder out = new StringBuilder();
+        String family = null;
+        StringBuilder maxima = new StringBuilder();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            String name = name(entry.getKey());
+            String labels = labels(entry.getKey());
+            if (!name.equals(family)) {
+                out.append(maxima);
+                maxima.setLength(0);
+                header(out, name);
+                header(maxima, name + "_max");
+                family = name;
+            }
+            Histogram h = entry.getValue();
+            double scale = scales.get(name);
+            for (double q : QUANTILES) {
+                String quantile = "quantile=\"" + q + "\"";
+                sample(out, name, labels.isEmpty() ? quantile : labels + "," + quantile,
+                        h.valueAt(q) * scale);
+            }
+            sample(out, name + "_sum", labels, h.sum() * scale);
+            sample(out, name + "_count", labels, h.count());
+            sample(maxima, name + "_max", labels, h.max() * scale);
+        }
+        out.append(maxima);
+        family = null;
+        for (Map.Entry<String, LongSupplier> entry : counters.entrySet()) {
+            String name = name(entry.getKey());
+            if (!name.equals(family)) {
+                header(out, name);
+                family = name;
+            }
+            sample(out, name, labels(entry.getKey()), entry.getValue().getAsLong());
+        }
+        family = null;
+        for (Map.Entry<String, DoubleSupplier> entry : gauges.entrySet()) {
+            String name = name(entry.getKey());
+            if (!name.equals(family)) {
+                header(out, name);
+                family = name;
+            }
+            sample(out, name, labels(entry.getKey()), entry.getValue().getAsDouble());
+        }
+        return out.toString();
+    }
+
+    private void declare(String name, String type, String help) {
+        String declared = types.putIfAbsent(name, type);
+        if (declared != null && !declared.equals(type)) {
+            throw new IllegalArgumentException(name + " is a " + declared + ", not a " + type);
+        }
+        helps.putIfAbsent(name, help);
+    }
+
+    private void header(StringBuilder out, String name) {
+        out.append("# HELP ").append(name).append(' ').append(helps.get(name)).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(types.get(name)).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.6g", value));
+        }
+        out.append('\n');
+    }
+
+    private static String key(String name, String labels) {
+        return labels.isEmpty() ? name : name + "{" + labels + "}";
+    }
+
+    private static String name(String key) {
+        int brace = key.indexOf('{');
+        return brace < 0 ? key : key.substring(0, brace);
+    }
+
+    private static String labels(String key) {
+        int brace = key.indexOf('{');
+        return brace < 0 ? "" : key.substring(brace + 1, key.length() - 1);
+    }
+}
@@ -0,0 +1,293 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder for 8-bit RGB images with a configurable deflate level and row
+ * filter, trading CPU time for bytes. The image is cut into strips of rows that
+ * are filtered and deflated in parallel. Each strip but the last ends on a
+ * deflate sync flush, so the compressed strips concatenate into a single zlib
+ * stream, as pigz does; the strips only lose the shared history of the first few
+ * rows of each strip.
+ */
+public class PngEncoder {
+    /** The PNG row filters. ADAPTIVE picks, per row, the filter with the smallest output. */
+    public enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE
+    }
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int BYTES_PER_PIXEL = 3;
+    /** Rows per strip, enough for a strip to compress about as well as the whole image. */
+    private static final int STRIP_ROWS = 64;
+    /** zlib header for a 32K window and default compression. */
+    private static final int ZLIB_HEADER = 0x789C;
+
+    private final int level;
+    private final Filter filter;
+    private final ExecutorService pool;
+
+    /**
+     * Create an encoder.
+     * @param level The deflate level, from 0 (store) to 9 (smallest), or -1 for the
+     *              zlib default.
+     * @param filter The row filter.
+     * @param pool The workers that filter and deflate strips.
+     */
+    public PngEncoder(int level, Filter filter, ExecutorService pool) {
+        if (level < -1 || level > 9) {
+            throw new IllegalArgumentException("Deflate level out of range: " + level);
+        }
+        this.level = level;
+        this.filter = filter;
+        this.pool = pool;
+    }
+
+    /**
+     * Writes img to out as a PNG. Alpha is dropped.
+     * @param img The image.
+     * @param out The stream to write to, which is not closed.
+     * @throws IOException If out cannot be written.
+     */
+    void write(BufferedImage img, OutputStream out) throws IOException {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int[] pixels = rgbPixels(img);
+        int strips = (height + STRIP_ROWS - 1) / STRIP_ROWS;
+        byte[][] filtered = new byte[strips][];
+        byte[][] compressed = new byte[strips][];
+        List<Future<?>> tasks = new ArrayList<>(strips);
+        for (int s = 0; s < strips; s++) {
+            int strip = s;
+            tasks.add(pool.submit(() -> {
+                int from = strip * STRIP_ROWS;
+                int to = Math.min(height, from + STRIP_ROWS);
+                filtered[strip] = filterRows(pixels, width, from, to);
+                compressed[strip] = deflate(filtered[strip], strip == strips - 1);
+            }));
+        }
+        await(tasks);
+
+        Adler32 adler = new Adler32();
+        int idatLength = 2 + 4;
+        for (int s = 0; s < strips; s++) {
+            adler.update(filtered[s]);
+            idatLength += compressed[s].length;
+        }
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        /* Bit depth 8, truecolor, deflate, adaptive filtering, no interlace. */
+        headerData.write(new byte[] {8, 2, 0, 0, 0});
+        writeChunk(data, "IHDR", header.toByteArray());
+
+        CRC32 crc = new CRC32();
+        byte[] type = "IDAT".getBytes("US-ASCII");
+        data.writeInt(idatLength);
+        data.write(type);
+        crc.update(type);
+        byte[] zlibHeader = {(byte) (ZLIB_HEADER >>> 8), (byte) ZLIB_HEADER};
+        data.write(zlibHeader);
+        crc.update(zlibHeader);
+        for (byte[] part : compressed) {
+            data.write(part);
+            crc.update(part);
+        }
+        long checksum = adler.getValue();
+        byte[] trailer = {(byte) (checksum >>> 24), (byte) (checksum >>> 16),
+            (byte) (checksum >>> 8), (byte) checksum};
+        data.write(trailer);
+        crc.update(trailer);
+        data.writeInt((int) crc.getValue());
+
+        writeChunk(data, "IEND", new byte[0]);
+        data.flush();
+    }
+
+    /** Returns the pixels of img as packed RGB ints, without copying if it already is. */
+    private static int[] rgbPixels(BufferedImage img) {
+        int width = img.getWidth();
+        if (img.getType() == BufferedImage.TYPE_INT_RGB
+                && img.getRaster().getParent() == null
+                && img.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) img.getSampleModel()).getScanlineStride()
+                    == width) {
+            return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        }
+        return img.getRGB(0, 0, width, img.getHeight(), null, 0, width);
+    }
+
+    /** Returns rows [from, to) of the image as PNG scanlines, each led by its filter type. */
+    private byte[] filterRows(int[] pixels, int width, int from, int to) {
+        int rowBytes = width * BYTES_PER_PIXEL;
+        byte[] res = new byte[(to - from) * (rowBytes + 1)];
+        byte[] prev = new byte[rowBytes];
+        byte[] cur = new byte[rowBytes];
+        byte[][] candidates = filter == Filter.ADAPTIVE
+                ? new byte[Filter.ADAPTIVE.ordinal()][rowBytes] : null;
+        if (from > 0) {
+            unpack(pixels, width, from - 1, prev);
+        }
+        int pos = 0;
+        for (int y = from; y < to; y++) {
+            unpack(pixels, width, y, cur);
+            if (filter != Filter.ADAPTIVE) {
+                res[pos] = (byte) filter.ordinal();
+                apply(filter, cur, prev, res, pos + 1);
+            } else {
+                int bestType = 0;
+                long bestCost = Long.MAX_VALUE;
+                for (int t = 0; t < candidates.length; t++) {
+                    apply(Filter.values()[t], cur, prev, candidates[t], 0);
+                    long cost = cost(candidates[t], bestCost);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestType = t;
+                    }
+                }
+                res[pos] = (byte) bestType;
+                System.arraycopy(candidates[bestType], 0, res, pos + 1, rowBytes);
+            }
+            pos += rowBytes + 1;
+            byte[] swap = prev;
+            prev = cur;
+            cur = swap;
+        }
+        return res;
+    }
+
+    private static void unpack(int[] pixels, int width, int y, byte[] row) {
+        for (int x = 0, p = y * width, i = 0; x < width; x++, p++) {
+            int rgb = pixels[p];
+            row[i++] = (byte) (rgb >>> 16);
+            row[i++] = (byte) (rgb >>> 8);
+            row[i++] = (byte) rgb;
+        }
+    }
+
+    /** Writes row filtered against prev with type into dst from off. */
+    private static void apply(Filter type, byte[] row, byte[] prev, byte[] dst, int off) {
+        int n = row.length;
+        int bpp = BYTES_PER_PIXEL;
+        switch (type) {
+            case NONE:
+                System.arraycopy(row, 0, dst, off, n);
+                break;
+            case SUB:
+                for (int i = 0; i < n; i++) {
+                    int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    dst[off + i] = (byte) (row[i] - left);
+                }
+                break;
+            case UP:
+                for (int i = 0; i < n; i++) {
+                    dst[off + i] = (byte) (row[i] - prev[i]);
+                }
+                break;
+            case AVERAGE:
+                for (int i = 0; i < n; i++) {
+                    int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    dst[off + i] = (byte) (row[i] - ((left + (prev[i] & 0xFF)) >>> 1));
+                }
+                break;
+            case PAETH:
+                for (int i = 0; i < n; i++) {
+                    int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    int b = prev[i] & 0xFF;
+                    int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+                    dst[off + i] = (byte) (row[i] - paeth(a, b, c));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Not a single filter: " + type);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Returns the sum of the absolute values of the filtered bytes as signed, the
+     * usual estimate of how well a row compresses, stopping early past limit.
+     */
+    private static long cost(byte[] filtered, long limit) {
+        long sum = 0;
+        for (int i = 0; i < filtered.length && sum < limit; i++) {
+            sum += Math.abs(filtered[i]);
+        }
+        return sum;
+    }
+
+    /** Returns data as raw deflate blocks, ending the stream if last and syncing otherwise. */
+    private byte[] deflate(byte[] data, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        ByteArrayOutputStream res = new ByteArrayOutputStream(data.length / 4 + 64);
+        byte[] buf = new byte[32 * 1024];
+        try {
+            deflater.setInput(data);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    res.write(buf, 0, deflater.deflate(buf));
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    res.write(buf, 0, n);
+                } while (n == buf.length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return res.toByteArray();
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] body)
+            throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(body);
+        out.writeInt(body.length);
+        out.write(typeBytes);
+        out.write(body);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void await(List<Future<?>> tasks) throws IOException {
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -14,10 +14,46 @@ public class Rasterer {
 
     private static final double ROOT_LONDPP = (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON)
             / MapServer.TILE_SIZE;
-    private static final int MAX_DEPTH = 7;
+    static final int MAX_DEPTH = 7;
+
+    /** tileNames[d][y * 2^d + x] is the file name of the tile in column x and row y at depth d. */
+    private final String[][] tileNames = new String[MAX_DEPTH + 1][];
+    /** The TileArchive index of each tile name. */
+    private final Map<String, Integer> tileIndex = new HashMap<>();
+    /**
+     * depthLonDPP[d] is the longitudinal distance per pixel of depth d. A query
+     * gets the first depth whose LonDPP is at most its own.
+     */
+    private final double[] depthLonDPP = new double[MAX_DEPTH + 1];
 
     public Rasterer() {
-        // YOUR CODE HERE
+        for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+            int tilesPerLine = 1 << depth;
+            tileNames[depth] = new String[tilesPerLine * tilesPerLine];
+            for (int y = 0; y < tilesPerLine; y++) {
+                for (int x = 0; x < tilesPerLine; x++) {
+                    String name = tileName(depth, x, y);
+                    tileNames[depth][y * tilesPerLine + x] = name;
+                    tileIndex.put(name, TileArchive.index(depth, x, y));
+                }
+            }
+            depthLonDPP[depth] = ROOT_LONDPP / tilesPerLine;
+        }
+    }
+
+    /** Returns the file name of the tile in column x and row y at the given depth. */
+    static String tileName(int depth, int x, int y) {
+        return "d" + depth + "_x" + x + "_y"  + y + ".png";
+    }
+
+    /**
+     * Returns the TileArchive index of a tile.
+     * @param name The file name of the tile.
+     * @return The index, or -1 if name is not the name of a tile.
+     */
+    int tileIndex(String name) {
+        Integer index = tileIndex.get(name);
+        return index == null ? -1 : index;
     }
 
     /**
@@ -68,12 +104,11 @@ public class Rasterer {
         }
         // Determine the depth for the query
         int depth = 0;
-        while (lonDPP < ROOT_LONDPP && depth < MAX_DEPTH) {
+        while (lonDPP < depthLonDPP[depth] && depth < MAX_DEPTH) {
             depth++;
-            lonDPP *= 2;
         }
-        // Determine the bounding upper left longitude of the rastered image
-        int tilesPerLine = (int) Math.pow(2, depth);
+        // Determine the tile indices of the rastered image
+        int tilesPerLine = 1 << depth;
         double lineTileSize = (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON) / tilesPerLine;
         double colTileSize = (MapServer.ROOT_LRLAT - MapServer.ROOT_ULLAT) / tilesPerLine;
         int ulLonIndex = Math.max(0,
@@ -85,9 +120,40 @@ public class Rasterer {
         int lrLatIndex = Math.min(tilesPerLine - 1,
                 (int) ((userLrLat - MapServer.ROOT_ULLAT) / colTileSize));
 
+        results.putAll(window(depth, ulLonIndex, ulLatIndex, lrLonIndex, lrLatIndex));
+        results.put("query_success", querySuccessFlag);
+        return results;
+    }
+
+    /**
+     * Returns the raster of a rectangle of tiles at one depth, as getMapRaster would
+     * describe it, along with the tile indices themselves as "tile_ul_x",
+     * "tile_ul_y", "tile_lr_x" and "tile_lr_y".
+     * @param depth The depth of the tiles.
+     * @param ulLonIndex The column of the upper left tile.
+     * @param ulLatIndex The row of the upper left tile.
+     * @param lrLonIndex The column of the lower right tile.
+     * @param lrLatIndex The row of the lower right tile.
+     * @return The raster, or null if the rectangle is empty or not within the map.
+     */
+    public Map<String, Object> getTileWindow(int depth, int ulLonIndex, int ulLatIndex,
+                                             int lrLonIndex, int lrLatIndex) {
+        int tilesPerLine = 1 << depth;
+        if (depth < 0 || depth > MAX_DEPTH || ulLonIndex < 0 || ulLatIndex < 0
+                || lrLonIndex >= tilesPerLine || lrLatIndex >= tilesPerLine
+                || ulLonIndex > lrLonIndex || ulLatIndex > lrLatIndex) {
+            return null;
+        }
+        return window(depth, ulLonIndex, ulLatIndex, lrLonIndex, lrLatIndex);
+    }
+
+    private Map<String, Object> window(int depth, int ulLonIndex, int ulLatIndex,
+                                       int lrLonIndex, int lrLatIndex) {
+        int tilesPerLine = 1 << depth;
+        Map<String, Object> results = new HashMap<>();
+        double lineTileSize = (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON) / tilesPerLine;
+        double colTileSize = (MapServer.ROOT_LRLAT - MapServer.ROOT_ULLAT) / tilesPerLine;
         String[][] rasterGrid = gridRender(ulLonIndex, lrLonIndex, ulLatIndex, lrLatIndex, depth);
-        // System.out.println("Since you haven't implemented getMapRaster, nothing is displayed in "
-        //                   + "your browser.");
 
         double rasterUlLon = MapServer.ROOT_ULLON + ulLonIndex * lineTileSize;
         double rasterUlLat = MapServer.ROOT_ULLAT + ulLatIndex * colTileSize;
@@ -101,20 +167,22 @@ public class Rasterer {
         results.put("raster_lr_lon", rasterLrLon);
         results.put("raster_lr_lat", rasterLrLat);
         results.put("depth", depth);
-        results.put("query_success", querySuccessFlag);
+        results.put("tile_ul_x", ulLonIndex);
+        results.put("tile_ul_y", ulLatIndex);
+        results.put("tile_lr_x", lrLonIndex);
+        results.put("tile_lr_y", lrLatIndex);
+        results.put("query_success", true);
         return results;
     }
 
     private String[][] gridRender(int ulLonIndex, int lrLonIndex, int ulLatIndex,
                                   int lrLatIndex, int depth) {
         String[][] grid = new String[lrLatIndex - ulLatIndex + 1][lrLonIndex - ulLonIndex + 1];
+        String[] names = tileNames[depth];
+        int tilesPerLine = 1 << depth;
         int row = 0;
         for (int y = ulLatIndex; y <= lrLatIndex; y++) {
-            int col = 0;
-            for (int x = ulLonIndex; x <= lrLonIndex; x++) {
-                grid[row][col] = "d" + depth + "_x" + x + "_y"  + y + ".png";
-                col++;
-            }
+            System.arraycopy(names, y * tilesPerLine + ulLonIndex, grid[row], 0, grid[row].length);
             row++;
         }
         return grid;
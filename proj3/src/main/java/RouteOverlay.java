@@ -0,0 +1,252 @@
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A route polyline prepared for drawing over rasters. The vertices are projected
+ * once, when the overlay is made, into pixels of the depth 0 tile, so that placing
+ * them on a raster of any depth is a multiply and an add. Douglas-Peucker
+ * simplification also runs once: it records for every vertex the tolerance below
+ * which the vertex matters, so the polyline for a depth keeps just the vertices
+ * that move the line by at least half a pixel at that depth. Drawing clips each
+ * segment to the raster, so a long route costs little on a small raster.
+ * Immutable.
+ */
+public class RouteOverlay {
+    /** The overlay of an empty route. */
+    static final RouteOverlay EMPTY = new RouteOverlay(new double[0], new double[0]);
+
+    private static final double ROOT_LONDPP = (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON)
+            / MapServer.TILE_SIZE;
+    private static final double ROOT_LATDPP = (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT)
+            / MapServer.TILE_SIZE;
+    /** Most a simplified polyline may stray from the route, in pixels of its depth. */
+    private static final double TOLERANCE_PX = 0.5;
+    /** Flags clip returns for the ends of a segment it moved. */
+    private static final int CLIPPED_START = 1;
+    private static final int CLIPPED_END = 2;
+
+    /** The vertices in pixels of the depth 0 tile, from its upper left corner. */
+    private final double[] xs;
+    private final double[] ys;
+    /** The Douglas-Peucker tolerance below which each vertex is kept. */
+    private final double[] significance;
+    /** The vertices kept at each depth. */
+    private final int[][] kept;
+
+    /**
+     * Create the overlay of a route.
+     * @param g The graph of the route.
+     * @param route The ids of the vertices of the route, in order.
+     * @return The overlay.
+     */
+    static RouteOverlay of(GraphDB g, List<Long> route) {
+        double[] lons = new double[route.size()];
+        double[] lats = new double[route.size()];
+        int i = 0;
+        for (long id : route) {
+            lons[i] = g.lon(id);
+            lats[i] = g.lat(id);
+            i += 1;
+        }
+        return new RouteOverlay(lons, lats);
+    }
+
+    /**
+     * Create the overlay of a polyline.
+     * @param lons The longitudes of its vertices.
+     * @param lats The latitudes of its vertices.
+     */
+    RouteOverlay(double[] lons, double[] lats) {
+        int n = lons.length;
+        xs = new double[n];
+        ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = (lons[i] - MapServer.ROOT_ULLON) / ROOT_LONDPP;
+            ys[i] = (MapServer.ROOT_ULLAT - lats[i]) / ROOT_LATDPP;
+        }
+        significance = simplify(xs, ys);
+        kept = new int[Rasterer.MAX_DEPTH + 1][];
+        for (int depth = 0; depth <= Rasterer.MAX_DEPTH; depth++) {
+            kept[depth] = keep(TOLERANCE_PX / (1 << depth));
+        }
+    }
+
+    /** Returns the number of vertices of the route. */
+    int size() {
+        return xs.length;
+    }
+
+    /**
+     * Returns the indices of the vertices kept at a depth, in order. The first and
+     * last vertex are always kept.
+     * @param depth The depth, from 0 to Rasterer.MAX_DEPTH.
+     * @return The indices.
+     */
+    int[] simplified(int depth) {
+        return kept[depth];
+    }
+
+    /** Returns the indices of the vertices whose significance reaches tolerance. */
+    private int[] keep(double tolerance) {
+        int count = 0;
+        for (double s : significance) {
+            if (s >= tolerance) {
+                count += 1;
+            }
+        }
+        int[] res = new int[count];
+        count = 0;
+        for (int i = 0; i < significance.length; i++) {
+            if (significance[i] >= tolerance) {
+                res[count++] = i;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Draws the route, simplified for depth, with the stroke and color of g onto a
+     * raster of the given bounds and size.
+     * @param g The graphics of the raster.
+     * @param ullon The longitude of the left edge of the raster.
+     * @param ullat The latitude of the top edge of the raster.
+     * @param lrlon The longitude of the right edge of the raster.
+     * @param lrlat The latitude of the bottom edge of the raster.
+     * @param width The width of the raster in pixels.
+     * @param height The height of the raster in pixels.
+     * @param depth The depth of the raster's tiles.
+     * @param margin How far past the raster's edges to keep segments, at least half
+     *               the stroke width so clipped ends stay hidden.
+     */
+    void draw(Graphics2D g, double ullon, double ullat, double lrlon, double lrlat, int width,
+              int height, int depth, double margin) {
+        if (xs.length < 2) {
+            return;
+        }
+        double scaleX = width / ((lrlon - ullon) / ROOT_LONDPP);
+        double scaleY = height / ((ullat - lrlat) / ROOT_LATDPP);
+        double offsetX = -(ullon - MapServer.ROOT_ULLON) / ROOT_LONDPP * scaleX;
+        double offsetY = -(MapServer.ROOT_ULLAT - ullat) / ROOT_LATDPP * scaleY;
+        double minX = -margin;
+        double minY = -margin;
+        double maxX = width + margin;
+        double maxY = height + margin;
+
+        int[] vertices = simplified(Math.max(0, Math.min(Rasterer.MAX_DEPTH, depth)));
+        Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, vertices.length);
+        double[] clipped = new double[4];
+        boolean connected = false;
+        double x0 = xs[vertices[0]] * scaleX + offsetX;
+        double y0 = ys[vertices[0]] * scaleY + offsetY;
+        for (int k = 1; k < vertices.length; k++) {
+            double x1 = xs[vertices[k]] * scaleX + offsetX;
+            double y1 = ys[vertices[k]] * scaleY + offsetY;
+            int clip = clip(x0, y0, x1, y1, minX, minY, maxX, maxY, clipped);
+            if (clip < 0) {
+                connected = false;
+            } else {
+                if (!connected || (clip & CLIPPED_START) != 0) {
+                    path.moveTo(clipped[0], clipped[1]);
+                }
+                path.lineTo(clipped[2], clipped[3]);
+                connected = (clip & CLIPPED_END) == 0;
+            }
+            x0 = x1;
+            y0 = y1;
+        }
+        g.draw(path);
+    }
+
+    /**
+     * Clips the segment from (x0, y0) to (x1, y1) to a rectangle with the
+     * Liang-Barsky algorithm, writing the ends of the visible part into res.
+     * @return -1 if no part is visible, and otherwise CLIPPED_START and CLIPPED_END
+     * for the ends that were moved.
+     */
+    private static int clip(double x0, double y0, double x1, double y1, double minX,
+                            double minY, double maxX, double maxY, double[] res) {
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        double[] p = {-dx, dx, -dy, dy};
+        double[] q = {x0 - minX, maxX - x0, y0 - minY, maxY - y0};
+        double enter = 0;
+        double leave = 1;
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return -1;
+                }
+            } else {
+                double t = q[i] / p[i];
+                if (p[i] < 0) {
+                    enter = Math.max(enter, t);
+                } else {
+                    leave = Math.min(leave, t);
+                }
+            }
+        }
+        if (enter > leave) {
+            return -1;
+        }
+        res[0] = x0 + enter * dx;
+        res[1] = y0 + enter * dy;
+        res[2] = x0 + leave * dx;
+        res[3] = y0 + leave * dy;
+        return (enter > 0 ? CLIPPED_START : 0) | (leave < 1 ? CLIPPED_END : 0);
+    }
+
+    /**
+     * Runs Douglas-Peucker over the polyline and returns, for every vertex, the
+     * largest tolerance at which it is kept: its distance from the chord it split,
+     * capped by that of the vertex that split the enclosing chord, so that the
+     * vertices kept at a tolerance are exactly those Douglas-Peucker would keep.
+     */
+    private static double[] simplify(double[] xs, double[] ys) {
+        int n = xs.length;
+        double[] res = new double[n];
+        if (n == 0) {
+            return res;
+        }
+        res[0] = Double.POSITIVE_INFINITY;
+        res[n - 1] = Double.POSITIVE_INFINITY;
+        /* Chords still to split, as (first, last, cap) triples. */
+        Deque<double[]> chords = new ArrayDeque<>();
+        chords.push(new double[] {0, n - 1, Double.POSITIVE_INFINITY});
+        while (!chords.isEmpty()) {
+            double[] chord = chords.pop();
+            int first = (int) chord[0];
+            int last = (int) chord[1];
+            if (last - first < 2) {
+                continue;
+            }
+            int split = -1;
+            double farthest = -1;
+            for (int i = first + 1; i < last; i++) {
+                double d = distanceToSegment(xs[i], ys[i], xs[first], ys[first], xs[last],
+                        ys[last]);
+                if (d > farthest) {
+                    farthest = d;
+                    split = i;
+                }
+            }
+            double cap = Math.min(chord[2], farthest);
+            res[split] = cap;
+            chords.push(new double[] {first, split, cap});
+            chords.push(new double[] {split, last, cap});
+        }
+        return res;
+    }
+
+    private static double distanceToSegment(double x, double y, double ax, double ay,
+                                            double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0
+                : Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / lengthSquared));
+        return Math.hypot(x - (ax + t * dx), y - (ay + t * dy));
+    }
+}
@@ -1,14 +1,11 @@
-import java.util.Map;
-import java.util.Set;
-import java.util.HashSet;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Queue;
-import java.util.Comparator;
-import java.util.Collections;
+import java.util.NoSuchElementException;
 import java.util.Objects;
-import java.util.PriorityQueue;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -21,10 +18,30 @@ import java.util.regex.Pattern;
  * down to the priority you use to order your vertices.
  */
 public class Router {
+    /** Search state of the calling thread, reused across queries on the same graph. */
+    private static final ThreadLocal<AStarSearch> SEARCHES = new ThreadLocal<>();
+    /** Bidirectional search state of the calling thread. */
+    private static final ThreadLocal<BidirectionalAStarSearch> BIDIRECTIONAL_SEARCHES =
+            new ThreadLocal<>();
+
+    /** Lower bounds that A* can order its fringe by. */
+    public enum HeuristicType {
+        /** Great-circle distance to the destination. */
+        GREAT_CIRCLE,
+        /**
+         * Equirectangular distance to the destination, a slightly weaker bound than
+         * GREAT_CIRCLE that takes no trigonometry; see GraphDB.planeDistanceAt.
+         */
+        PLANE,
+        /** ALT bounds from the graph's landmarks, or the plane distance if it has none. */
+        LANDMARKS
+    }
+
     /**
      * Return a List of longs representing the shortest path from the node
      * closest to a start location and the node closest to the destination
-     * location.
+     * location. Uses the graph's contraction hierarchy if it has one, and
+     * otherwise A* with landmark bounds if it has landmarks.
      * @param g The graph to use.
      * @param stlon The longitude of the start location.
      * @param stlat The latitude of the start location.
@@ -34,79 +51,275 @@ public class Router {
      */
     public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
                                           double destlon, double destlat) {
-        /* Key: the id of an vertex, Value: best know distance from start location. */
-        Map<Long, Double> bestDistance = new HashMap<>();
-        /* Key: the id of an vertex, Value: the id of the best parent vertex */
-        Map<Long, Long> bestParent = new HashMap<>();
-        Set<Long> marked = new HashSet<>();
-        /* Key: the id of an vertex, Value: distance to the destination*/
-        Map<Long, Double> heuristic = new HashMap<>();
-        long startNode = g.closest(stlon, stlat);
-        long desNode = g.closest(destlon, destlat);
-
-        /* Compare two nodes based on their best estimate distance to the destination */
-        class NodeComparator implements Comparator<Long> {
-            @Override
-            public int compare(Long o1, Long o2) {
-                double bestEstimate1 = heuristic.get(o1) + bestDistance.get(o1);
-                double bestEstimate2 = heuristic.get(o2) + bestDistance.get(o2);
-//                double bestEstimate1 = g.distance(o1, desNode) + bestDistance.get(o1);
-                //double bestEstimate2 = g.distance(o2, desNode) + bestDistance.get(o2);
-                if (bestEstimate1 > bestEstimate2) {
-                    return 1;
-                } else if (bestEstimate1 < bestEstimate2) {
-                    return -1;
-                }
-                return 0;
-            }
+        return shortestPath(g, stlon, stlat, destlon, destlat, false);
+    }
+
+    /**
+     * Return a List of longs representing the shortest path from the node
+     * closest to a start location and the node closest to the destination
+     * location. Uses the graph's contraction hierarchy if it has one, and
+     * otherwise A*, with landmark bounds if the graph has landmarks.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param bidirectional Whether A* should search from both ends at once.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat,
+                                          boolean bidirectional) {
+        int startNode = g.closestIndex(stlon, stlat);
+        int desNode = g.closestIndex(destlon, destlat);
+        if (startNode < 0 || desNode < 0) {
+            return new ArrayList<>();
+        }
+        return shortestPathBetween(g, startNode, desNode, bidirectional);
+    }
+
+    /**
+     * Return a List of longs representing the best path under a routing profile
+     * from the node closest to a start location to the node closest to the
+     * destination location. SHORTEST is found as by the other versions of
+     * shortestPath; other profiles by A* over their edge weights, since the
+     * contraction hierarchy and landmarks are built on edge lengths.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param profile How to weigh the edges.
+     * @return A list of node id's in the order visited on the best path.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat,
+                                          RoutingProfile profile) {
+        int startNode = g.closestIndex(stlon, stlat);
+        int desNode = g.closestIndex(destlon, destlat);
+        if (startNode < 0 || desNode < 0) {
+            return new ArrayList<>();
         }
-        List<Long> res = new ArrayList<>();
-        Queue<Long> fringe = new PriorityQueue<>(new NodeComparator());
+        return shortestPathBetween(g, startNode, desNode, false, profile);
+    }
 
+    /**
+     * Returns the best path between two vertices under a routing profile, found as
+     * by the profile version of shortestPath once it has snapped its endpoints.
+     * @param bidirectional Whether A* should search from both ends at once; only
+     *                      for SHORTEST.
+     */
+    static List<Long> shortestPathBetween(GraphDB g, int startNode, int desNode,
+                                          boolean bidirectional, RoutingProfile profile) {
+        if (profile == RoutingProfile.SHORTEST) {
+            return shortestPathBetween(g, startNode, desNode, bidirectional);
+        }
+        double perMile = g.weightPerMile(profile);
+        AStarSearch search = searchFor(g);
+        boolean found = search.search(startNode, desNode,
+                (v, target) -> perMile * g.planeDistanceAt(v, target), g.edgeWeights(profile));
+        return found ? search.path(desNode) : new ArrayList<>();
+    }
 
-        /* Initialize the best distance of all nodes to infinity */
-        for (Long nodeID : g.vertices()) {
-            bestDistance.put(nodeID, Double.POSITIVE_INFINITY);
-            heuristic.put(nodeID, g.distance(nodeID, desNode));
+    /**
+     * Returns the shortest path between two vertices, found as by the coordinate
+     * version of shortestPath once it has snapped its endpoints.
+     * @param g The graph to use.
+     * @param startNode The index of the start vertex.
+     * @param desNode The index of the destination vertex.
+     * @param bidirectional Whether A* should search from both ends at once.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    static List<Long> shortestPathBetween(GraphDB g, int startNode, int desNode,
+                                          boolean bidirectional) {
+        ContractionHierarchy ch = g.hierarchy();
+        if (ch != null) {
+            return ch.shortestPath(startNode, desNode);
         }
-        /* Handle the start node */
-        fringe.add(startNode);
-        bestDistance.put(startNode, 0.0);
-        Long curNode = fringe.poll();
-        marked.add(curNode);
-        /* Walk through edges */
-        while (curNode != null && !curNode.equals(desNode)) {
-            double startToCur = bestDistance.get(curNode);
-            /* Add sources to fringe */
-            for (Long neighbor : g.adjacent(curNode)) {
-                if (!marked.contains(neighbor)) {
-                    double disToParent = g.distance(curNode, neighbor);
-                    double startToNeighbor = startToCur + disToParent;
-                    /* Update the best and fringe */
-                    if (startToNeighbor < bestDistance.get(neighbor)) {
-                        //priority.put(neighbor, g.distance(neighbor, desNode) + startToNeighbor);
-                        bestDistance.put(neighbor, startToNeighbor);
-                        bestParent.put(neighbor, curNode);
-                        fringe.add(neighbor);
-                    }
-                }
-            }
-            curNode = fringe.poll();
-            marked.add(curNode);
+        HeuristicType heuristic = g.landmarks() != null
+                ? HeuristicType.LANDMARKS : HeuristicType.PLANE;
+        return shortestPathBetween(g, startNode, desNode, heuristic, bidirectional);
+    }
+
+    /**
+     * Return a List of longs representing the shortest path from the node
+     * closest to a start location and the node closest to the destination
+     * location, found by A* with the given heuristic.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param heuristic The lower bound to guide the search with.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat,
+                                          HeuristicType heuristic) {
+        return shortestPath(g, stlon, stlat, destlon, destlat, heuristic, false);
+    }
+
+    /**
+     * Return a List of longs representing the shortest path from the node
+     * closest to a start location and the node closest to the destination
+     * location, found by forward or bidirectional A* with the given heuristic.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param heuristic The lower bound to guide the search with.
+     * @param bidirectional Whether to search from both ends at once.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat,
+                                          HeuristicType heuristic, boolean bidirectional) {
+        int startNode = g.closestIndex(stlon, stlat);
+        int desNode = g.closestIndex(destlon, destlat);
+        if (startNode < 0 || desNode < 0) {
+            return new ArrayList<>();
+        }
+        return shortestPathBetween(g, startNode, desNode, heuristic, bidirectional);
+    }
+
+    private static List<Long> shortestPathBetween(GraphDB g, int startNode, int desNode,
+                                                  HeuristicType heuristic,
+                                                  boolean bidirectional) {
+        Heuristic h = null;
+        if (heuristic == HeuristicType.LANDMARKS) {
+            h = g.landmarks();
+        } else if (heuristic == HeuristicType.GREAT_CIRCLE) {
+            h = g::distanceAt;
+        }
+        if (bidirectional) {
+            BidirectionalAStarSearch search = bidirectionalSearchFor(g);
+            boolean found = h != null ? search.search(startNode, desNode, h)
+                    : search.search(startNode, desNode);
+            return found ? search.path() : new ArrayList<>();
         }
+        AStarSearch search = searchFor(g);
+        boolean found = h != null ? search.search(startNode, desNode, h)
+                : search.search(startNode, desNode);
+        return found ? search.path(desNode) : new ArrayList<>();
+    }
 
-        /* Generate the shortest path */
-        while (curNode != null && !curNode.equals(startNode)) {
-            res.add(curNode);
-            curNode = bestParent.get(curNode);
+    /**
+     * Returns the travel distance from every source to every target. Each point is
+     * snapped to its closest vertex once. Each source then takes one Dijkstra
+     * search, which stops once it has settled every target. The searches run in
+     * parallel on pool, each on its worker's reused search state.
+     * @param g The graph to use.
+     * @param sources The longitude and latitude of each source.
+     * @param targets The longitude and latitude of each target.
+     * @param pool The pool to run the searches on.
+     * @return The distance in miles from source i to target j at [i][j], or
+     * Double.POSITIVE_INFINITY if either point cannot be snapped or the target
+     * cannot be reached.
+     */
+    public static double[][] distanceTable(GraphDB g, double[][] sources, double[][] targets,
+                                           ForkJoinPool pool) {
+        int[] sourceNodes = new int[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            sourceNodes[i] = g.closestIndex(sources[i][0], sources[i][1]);
         }
-        res.add(curNode);
-        Collections.reverse(res);
-        //System.out.println(g.bearing(35719115, 35719114));
+        int[] targetNodes = new int[targets.length];
+        for (int j = 0; j < targets.length; j++) {
+            targetNodes[j] = g.closestIndex(targets[j][0], targets[j][1]);
+        }
+        int[] sortedTargets = Arrays.stream(targetNodes).filter(v -> v >= 0).sorted()
+                .distinct().toArray();
+
+        double[][] res = new double[sources.length][targets.length];
+        List<ForkJoinTask<?>> rows = new ArrayList<>();
+        for (int i = 0; i < sources.length; i++) {
+            double[] row = res[i];
+            int source = sourceNodes[i];
+            rows.add(ForkJoinTask.adapt(() -> {
+                if (source < 0) {
+                    Arrays.fill(row, Double.POSITIVE_INFINITY);
+                    return;
+                }
+                AStarSearch search = searchFor(g);
+                search.searchAll(source, sortedTargets);
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = targetNodes[j] < 0 ? Double.POSITIVE_INFINITY
+                            : search.distance(targetNodes[j]);
+                }
+            }));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(rows)));
         return res;
     }
 
+    /**
+     * Returns what can be reached within a travel distance of a location: the
+     * vertices a Dijkstra search from the closest vertex settles before passing the
+     * distance, and a concave hull around them. The search runs on the calling
+     * thread's reused search state.
+     * @param g The graph to use.
+     * @param lon The longitude of the start.
+     * @param lat The latitude of the start.
+     * @param miles The greatest travel distance to reach.
+     * @return The isochrone, Isochrone.EMPTY if the start cannot be snapped.
+     */
+    public static Isochrone isochrone(GraphDB g, double lon, double lat, double miles) {
+        int source = g.closestIndex(lon, lat);
+        if (source < 0) {
+            return Isochrone.EMPTY;
+        }
+        AStarSearch search = searchFor(g);
+        int[] reached = search.searchWithin(source, miles);
+        double[] distances = new double[reached.length];
+        for (int i = 0; i < reached.length; i++) {
+            distances[i] = search.distance(reached[i]);
+        }
+        return new Isochrone(g, reached, distances, miles);
+    }
+
+    /**
+     * Returns the calling thread's A* search state for g, creating it if the thread
+     * has none yet or last searched a different graph.
+     */
+    static AStarSearch searchFor(GraphDB g) {
+        AStarSearch search = SEARCHES.get();
+        if (search == null || search.graph() != g) {
+            search = new AStarSearch(g);
+            SEARCHES.set(search);
+        }
+        return search;
+    }
+
+    /** Like searchFor, for the calling thread's bidirectional search state. */
+    static BidirectionalAStarSearch bidirectionalSearchFor(GraphDB g) {
+        BidirectionalAStarSearch search = BIDIRECTIONAL_SEARCHES.get();
+        if (search == null || search.graph() != g) {
+            search = new BidirectionalAStarSearch(g);
+            BIDIRECTIONAL_SEARCHES.set(search);
+        }
+        return search;
+    }
+
+    /**
+     * Returns the number of vertices the calling thread's last search of g settled,
+     * as a measure of the work it did.
+     * @param g The graph searched.
+     * @param bidirectional Whether the search was bidirectional A*; ignored if g
+     *                      has a contraction hierarchy.
+     */
+    static int settledCount(GraphDB g, boolean bidirectional) {
+        if (g.hierarchy() != null) {
+            return g.hierarchy().settledCount();
+        }
+        return bidirectional ? bidirectionalSearchFor(g).settledCount()
+                : searchFor(g).settledCount();
+    }
 
+    /** Like settledCount, for a search under a routing profile. */
+    static int settledCount(GraphDB g, boolean bidirectional, RoutingProfile profile) {
+        return profile == RoutingProfile.SHORTEST ? settledCount(g, bidirectional)
+                : searchFor(g).settledCount();
+    }
 
     /**
      * Create the list of directions corresponding to a route on the graph.
@@ -118,36 +331,102 @@ public class Router {
      */
     public static List<NavigationDirection> routeDirections(GraphDB g, List<Long> route) {
         List<NavigationDirection> res = new ArrayList<>();
-        long cur = route.get(0);
-        long next = route.get(1);
-        long pre = cur;
-        /* Initialize the start node */
-        NavigationDirection nd = new NavigationDirection();
-        nd.direction = NavigationDirection.START;
-        nd.distance = g.distance(cur, next);
-        nd.way = g.ways(cur).get(next);
-        /* Walk through the route */
-        for (int i = 1; i < route.size() - 1; i++) {
-            cur = route.get(i);
-            next = route.get(i + 1);
-            String preWay = nd.way;
-            String curWay = g.ways(cur).get(next);
-            double heading = g.bearing(pre, cur);
-            double bearing = g.bearing(cur, next);
-            double relative = getRelativeBearing(heading, bearing);
-            if (!preWay.equals(curWay)) {
-                res.add(nd);
-                nd = new NavigationDirection();
-                nd.direction = getDirection(relative);
-                nd.way = curWay;
+        directions(g, route.iterator()).forEachRemaining(res::add);
+        return res;
+    }
+
+    /**
+     * Returns the directions of a route lazily, as routeDirections would list them.
+     * Each direction is made when it is asked for, taking route vertices only up to
+     * the first vertex past it, so directions can be sent while the rest of the
+     * route is still being produced.
+     * @param g The graph to use.
+     * @param route The ids of the vertices of the route, in order.
+     * @return The directions, none if the route has fewer than two vertices.
+     */
+    public static Iterator<NavigationDirection> directions(GraphDB g, Iterator<Long> route) {
+        return new DirectionIterator(g, route);
+    }
+
+    /**
+     * Directions made as route vertices arrive. Way names and bearings are read from
+     * the graph's edge slot arrays, so each route edge costs one scan of its
+     * start's slots, and the bearing of each edge is kept as the heading for the
+     * next turn instead of being computed again.
+     */
+    private static class DirectionIterator implements Iterator<NavigationDirection> {
+        private final GraphDB g;
+        private final Iterator<Long> route;
+        /** The direction being extended, or null once the last has been returned. */
+        private NavigationDirection pending;
+        /** The way name index of pending, -1 for a null name. */
+        private int way;
+        /** The index of the last vertex taken from route. */
+        private int cur;
+        /** The bearing of the last edge taken from route. */
+        private double heading;
+
+        DirectionIterator(GraphDB g, Iterator<Long> route) {
+            this.g = g;
+            this.route = route;
+            if (!route.hasNext()) {
+                return;
+            }
+            cur = g.checkedIndex(route.next());
+            if (!route.hasNext()) {
+                return;
             }
-            nd.distance += g.distance(cur, next);
-            pre = cur;
+            int next = g.checkedIndex(route.next());
+            int e = g.edgeSlot(cur, next);
+            pending = new NavigationDirection();
+            pending.direction = NavigationDirection.START;
+            pending.distance = e < 0 ? g.distanceAt(cur, next) : g.edgeLength(e);
+            way = e < 0 ? -1 : g.edgeWayIndex(e);
+            pending.way = way < 0 ? null : g.wayName(way);
+            heading = bearing(e, cur, next);
+            cur = next;
+        }
 
+        @Override
+        public boolean hasNext() {
+            return pending != null;
         }
-        res.add(nd);
 
-        return res;
+        @Override
+        public NavigationDirection next() {
+            if (pending == null) {
+                throw new NoSuchElementException();
+            }
+            while (route.hasNext()) {
+                int next = g.checkedIndex(route.next());
+                int e = g.edgeSlot(cur, next);
+                int nextWay = e < 0 ? -1 : g.edgeWayIndex(e);
+                double bearing = bearing(e, cur, next);
+                NavigationDirection done = null;
+                if (nextWay != way) {
+                    done = pending;
+                    pending = new NavigationDirection();
+                    pending.direction = getDirection(getRelativeBearing(heading, bearing));
+                    pending.way = nextWay < 0 ? null : g.wayName(nextWay);
+                    way = nextWay;
+                }
+                pending.distance += e < 0 ? g.distanceAt(cur, next) : g.edgeLength(e);
+                heading = bearing;
+                cur = next;
+                if (done != null) {
+                    return done;
+                }
+            }
+            NavigationDirection last = pending;
+            pending = null;
+            return last;
+        }
+
+        /** Returns the bearing of slot e, from i to j, or of the line from i to j if none. */
+        private double bearing(int e, int i, int j) {
+            return e >= 0 ? g.edgeBearing(e)
+                    : GraphDB.bearing(g.lonAt(i), g.latAt(i), g.lonAt(j), g.latAt(j));
+        }
     }
 
     private static double getRelativeBearing(double heading, double bearing) {
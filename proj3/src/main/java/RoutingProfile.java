@@ -0,0 +1,87 @@
+import java.util.Locale;
+
+/**
+ * How a route is weighed: each profile turns the length and attributes of an edge
+ * into the cost of driving it, in its own unit. GraphDB weighs every edge slot
+ * under every profile when it is built, so a search under any profile reads its
+ * weights from an array, and switching profiles costs nothing per query.
+ */
+public enum RoutingProfile {
+    /** Miles, along every edge in either direction, as routes have always been found. */
+    SHORTEST(false) {
+        @Override
+        double weight(double miles, int highwayClass, int maxSpeed) {
+            return miles;
+        }
+    },
+    /**
+     * Hours, at the speed limit, or at a typical speed for the highway class where
+     * there is none, obeying one-way streets.
+     */
+    FASTEST(true) {
+        @Override
+        double weight(double miles, int highwayClass, int maxSpeed) {
+            return miles / (maxSpeed > 0 ? maxSpeed : typicalSpeed(highwayClass));
+        }
+    },
+    /**
+     * Miles, with motorways and their links counted MOTORWAY_PENALTY times over,
+     * obeying one-way streets. Motorways are still taken where there is no other way.
+     */
+    AVOID_MOTORWAYS(true) {
+        @Override
+        double weight(double miles, int highwayClass, int maxSpeed) {
+            return isMotorway(highwayClass) ? miles * MOTORWAY_PENALTY : miles;
+        }
+    };
+
+    /** How many times its length a motorway counts for under AVOID_MOTORWAYS. */
+    static final double MOTORWAY_PENALTY = 10.0;
+    /**
+     * Typical speeds in miles per hour of each of GraphBuildingHandler.HIGHWAY_CLASSES,
+     * in its order, for edges without a speed limit.
+     */
+    private static final int[] TYPICAL_SPEEDS = {65, 55, 45, 40, 35, 30, 25, 10, 45, 40, 35,
+        30, 25};
+    /** Typical speed of edges of no known class. */
+    private static final int DEFAULT_SPEED = 25;
+
+    private final boolean obeysOneway;
+
+    RoutingProfile(boolean obeysOneway) {
+        this.obeysOneway = obeysOneway;
+    }
+
+    /** Returns whether the profile keeps to the direction of one-way streets. */
+    boolean obeysOneway() {
+        return obeysOneway;
+    }
+
+    /**
+     * Returns the weight of an edge under this profile.
+     * @param miles The length of the edge.
+     * @param highwayClass The index of its highway tag in
+     *                     GraphBuildingHandler.HIGHWAY_CLASSES, or -1.
+     * @param maxSpeed Its speed limit in miles per hour, or 0 if it has none.
+     * @return The weight, at least 0.
+     */
+    abstract double weight(double miles, int highwayClass, int maxSpeed);
+
+    /** Returns the profile a query parameter such as fastest names, ignoring case. */
+    static RoutingProfile fromParam(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+
+    private static int typicalSpeed(int highwayClass) {
+        return highwayClass >= 0 && highwayClass < TYPICAL_SPEEDS.length
+                ? TYPICAL_SPEEDS[highwayClass] : DEFAULT_SPEED;
+    }
+
+    private static boolean isMotorway(int highwayClass) {
+        if (highwayClass < 0) {
+            return false;
+        }
+        String type = GraphBuildingHandler.HIGHWAY_CLASSES[highwayClass];
+        return type.equals("motorway") || type.equals("motorway_link");
+    }
+}
@@ -0,0 +1,202 @@
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bounded map from random session ids to per-session state. The state of a
+ * session is an immutable snapshot that is replaced as a whole, so readers get a
+ * consistent view with a single volatile read and never lock, and a change made
+ * from the current snapshot is applied by compare-and-set, so concurrent changes
+ * to one session are never lost. Sessions idle for longer than a timeout are
+ * dropped; when the store is full, creating a session first drops the idle ones
+ * and then the least recently used, down to nine tenths of the capacity, so the
+ * scan this takes is paid once per tenth of the capacity of new sessions rather
+ * than on each.
+ *
+ * @param <S> The type of the state snapshots, which must be immutable.
+ */
+public class SessionStore<S> {
+    /** Bytes of randomness in a session id. */
+    private static final int ID_BYTES = 16;
+
+    private final ConcurrentHashMap<String, Session<S>> sessions = new ConcurrentHashMap<>();
+    private final int capacity;
+    private final long idleNanos;
+    private final LongSupplier clock;
+    private final SecureRandom random = new SecureRandom();
+    private volatile long lastSweep;
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static class Session<S> {
+        final AtomicReference<S> state;
+        volatile long lastAccess;
+
+        Session(S state, long now) {
+            this.state = new AtomicReference<>(state);
+            this.lastAccess = now;
+        }
+    }
+
+    /**
+     * Create an empty store.
+     * @param capacity The most sessions to keep.
+     * @param idleNanos How long a session may go unused before it is dropped.
+     */
+    public SessionStore(int capacity, long idleNanos) {
+        this(capacity, idleNanos, System::nanoTime);
+    }
+
+    /**
+     * Create an empty store that reads the time from clock.
+     * @param capacity The most sessions to keep.
+     * @param idleNanos How long a session may go unused before it is dropped.
+     * @param clock Returns the current time in nanoseconds, as System.nanoTime does.
+     */
+    SessionStore(int capacity, long idleNanos, LongSupplier clock) {
+        this.capacity = capacity;
+        this.idleNanos = idleNanos;
+        this.clock = clock;
+        this.lastSweep = clock.getAsLong();
+    }
+
+    /**
+     * Returns the state of a session and marks it used.
+     * @param id The session id, or null.
+     * @return The state, or null if there is no such session or it has expired.
+     */
+    S get(String id) {
+        Session<S> session = live(id);
+        return session == null ? null : session.state.get();
+    }
+
+    /**
+     * Replaces the state of a session and marks it used.
+     * @param id The session id, or null.
+     * @param state The new state.
+     * @return False if there is no such session or it has expired, in which case
+     * nothing is stored.
+     */
+    boolean update(String id, S state) {
+        Session<S> session = live(id);
+        if (session == null) {
+            return false;
+        }
+        session.state.set(state);
+        return true;
+    }
+
+    /**
+     * Replaces the state of a session with a change of it, and marks it used. If
+     * another thread replaces the state meanwhile, the change is made again from
+     * the new state, so it should be free of side effects.
+     * @param id The session id, or null.
+     * @param change Returns the new state given the current one.
+     * @return False if there is no such session or it has expired, in which case
+     * nothing is stored.
+     */
+    boolean update(String id, UnaryOperator<S> change) {
+        Session<S> session = live(id);
+        if (session == null) {
+            return false;
+        }
+        S current;
+        do {
+            current = session.state.get();
+        } while (!session.state.compareAndSet(current, change.apply(current)));
+        return true;
+    }
+
+    /**
+     * Starts a session, making room for it if the store is full.
+     * @param state The state of the new session.
+     * @return The id of the new session, which is hard to guess.
+     */
+    String create(S state) {
+        byte[] bytes = new byte[ID_BYTES];
+        random.nextBytes(bytes);
+        String id = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        long now = clock.getAsLong();
+        sessions.put(id, new Session<>(state, now));
+        if (sessions.size() > capacity || now - lastSweep > idleNanos / 4) {
+            sweep(now);
+        }
+        return id;
+    }
+
+    /** Returns the number of sessions, including expired ones not yet dropped. */
+    int size() {
+        return sessions.size();
+    }
+
+    /** Returns the number of sessions dropped for being idle or for lack of room. */
+    long evictions() {
+        return evictions.get();
+    }
+
+    private Session<S> live(String id) {
+        if (id == null) {
+            return null;
+        }
+        Session<S> session = sessions.get(id);
+        if (session == null) {
+            return null;
+        }
+        long now = clock.getAsLong();
+        if (now - session.lastAccess > idleNanos) {
+            if (sessions.remove(id, session)) {
+                evictions.incrementAndGet();
+            }
+            return null;
+        }
+        session.lastAccess = now;
+        return session;
+    }
+
+    /**
+     * Drops the idle sessions, then if the store is over capacity the least recently
+     * used until it is down to nine tenths of it.
+     */
+    private synchronized void sweep(long now) {
+        lastSweep = now;
+        Iterator<Map.Entry<String, Session<S>>> it = sessions.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue().lastAccess > idleNanos) {
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        if (sessions.size() <= capacity) {
+            return;
+        }
+        /* Ages rather than access times, so that nanoTime wrapping cannot reorder them. */
+        long[] ages = new long[sessions.size()];
+        int count = 0;
+        for (Session<S> session : sessions.values()) {
+            if (count == ages.length) {
+                break;
+            }
+            ages[count++] = now - session.lastAccess;
+        }
+        int drop = count - (capacity - capacity / 10);
+        if (drop <= 0) {
+            return;
+        }
+        Arrays.sort(ages, 0, count);
+        long minAge = ages[count - drop];
+        it = sessions.entrySet().iterator();
+        while (it.hasNext() && drop > 0) {
+            if (now - it.next().getValue().lastAccess >= minAge) {
+                it.remove();
+                evictions.incrementAndGet();
+                drop -= 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,473 @@
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Two-pass streaming alternative to parsing with GraphBuildingHandler.
+ * The first pass keeps only the ways with an allowed highway tag, as flat arrays
+ * of node ids, and the set of ids they reference. The second pass materializes
+ * just those nodes, plus the named ones needed for search, instead of a Node
+ * for every node in the file. Coordinate strings are handed to a worker pool in
+ * batches, and edge construction is split across the same pool by vertex range.
+ *
+ * The result is the same graph GraphDB(String) builds: vertices in file order
+ * without the unconnected ones, and the edges of each vertex in the iteration
+ * order of the HashMap of neighbors the node map would have given it.
+ */
+public class StreamingGraphBuilder {
+    private static final int BATCH_SIZE = 4096;
+    /** HashMap's initial capacity and load factor, whose iteration order is reproduced. */
+    private static final int HASH_MAP_CAPACITY = 16;
+    private static final double HASH_MAP_LOAD_FACTOR = 0.75;
+
+    private final String dbPath;
+    private final ExecutorService pool;
+    private final List<Future<?>> tasks = new ArrayList<>();
+
+    /* Pass one: allowed ways as runs of node ids, and the ids they reference. */
+    private LongArray wayRefs = new LongArray();
+    private int[] wayStarts = new int[64];
+    private String[] wayNames = new String[64];
+    /** The highway class, speed limit and one-way direction of each way, as addEdge takes. */
+    private int[] wayClasses = new int[64];
+    private int[] wayMaxSpeeds = new int[64];
+    private int[] wayOneways = new int[64];
+    private int wayCount;
+    private final LongIntMap referenced = new LongIntMap();
+
+    /* Pass two: referenced nodes in file order, and named nodes. */
+    private final LongIntMap nodeIndex = new LongIntMap();
+    private long[] nodeIds;
+    private double[] lons;
+    private double[] lats;
+    private int nodeCount;
+    private final List<GraphDB.Node> named = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+
+    private StreamingGraphBuilder(String dbPath, int threads) {
+        this.dbPath = dbPath;
+        this.pool = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Builds the graph of an OSM XML file, optionally gzipped, in two streaming passes.
+     * @param dbPath Path to the XML file.
+     * @param threads The number of worker threads.
+     * @return The graph.
+     */
+    static GraphDB build(String dbPath, int threads) {
+        StreamingGraphBuilder builder = new StreamingGraphBuilder(dbPath, threads);
+        try {
+            return builder.run();
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            e.printStackTrace();
+            return builder.empty();
+        } finally {
+            builder.pool.shutdown();
+        }
+    }
+
+    static GraphDB build(String dbPath) {
+        return build(dbPath, Runtime.getRuntime().availableProcessors());
+    }
+
+    private GraphDB run() throws ParserConfigurationException, SAXException, IOException {
+        parse(new WayPass());
+        nodeIds = new long[referenced.size()];
+        lons = new double[referenced.size()];
+        lats = new double[referenced.size()];
+        NodePass nodePass = new NodePass();
+        parse(nodePass);
+        nodePass.flush();
+        await();
+        return assemble();
+    }
+
+    private void parse(DefaultHandler handler)
+            throws ParserConfigurationException, SAXException, IOException {
+        try (InputStream in = GraphDB.openInput(dbPath)) {
+            SAXParserFactory.newInstance().newSAXParser().parse(in, handler);
+        }
+    }
+
+    private GraphDB empty() {
+        return new GraphDB(new long[0], new double[0], new double[0], new int[1], new int[0],
+                new int[0], new String[0], new byte[0], new short[0], new byte[0]);
+    }
+
+    /** Waits for every task submitted to the pool so far. */
+    private void await() {
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        tasks.clear();
+    }
+
+    /** Runs body over [0, n) split into one contiguous range per worker, and waits. */
+    private void forRanges(int n, RangeBody body) {
+        int chunk = Math.max(BATCH_SIZE, n / (4 * Runtime.getRuntime().availableProcessors()));
+        for (int lo = 0; lo < n; lo += chunk) {
+            int from = lo;
+            int to = Math.min(n, lo + chunk);
+            tasks.add(pool.submit(() -> body.run(from, to)));
+        }
+        await();
+    }
+
+    private interface RangeBody {
+        void run(int from, int to);
+    }
+
+    /**
+     * Turns the ways and nodes of both passes into CSR arrays. Every segment of a
+     * way becomes an edge record in each direction, grouped by source in the order
+     * the node map would have inserted them; duplicates are merged with the name
+     * and attributes of the last way, as HashMap.put would. A record holds its way
+     * times two, plus one if it runs against the way's order.
+     */
+    private GraphDB assemble() {
+        int n = nodeCount;
+        int refCount = wayRefs.size;
+        int[] wayVertices = new int[refCount];
+        long[] refs = wayRefs.values;
+        forRanges(refCount, (from, to) -> {
+            for (int r = from; r < to; r++) {
+                wayVertices[r] = nodeIndex.get(refs[r]);
+            }
+        });
+
+        /* Counting sort of the directed edge records by source, stable in way order. */
+        int[] recordStart = new int[n + 1];
+        for (int w = 0; w < wayCount; w++) {
+            for (int r = wayStarts[w]; r + 1 < wayStarts[w + 1]; r++) {
+                int a = wayVertices[r];
+                int b = wayVertices[r + 1];
+                if (a >= 0 && b >= 0) {
+                    recordStart[a + 1] += 1;
+                    recordStart[b + 1] += 1;
+                }
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            recordStart[v + 1] += recordStart[v];
+        }
+        int[] fill = Arrays.copyOf(recordStart, n);
+        int[] recordTarget = new int[recordStart[n]];
+        int[] recordWay = new int[recordStart[n]];
+        for (int w = 0; w < wayCount; w++) {
+            for (int r = wayStarts[w]; r + 1 < wayStarts[w + 1]; r++) {
+                int a = wayVertices[r];
+                int b = wayVertices[r + 1];
+                if (a >= 0 && b >= 0) {
+                    recordTarget[fill[a]] = b;
+                    recordWay[fill[a]++] = 2 * w;
+                    recordTarget[fill[b]] = a;
+                    recordWay[fill[b]++] = 2 * w + 1;
+                }
+            }
+        }
+
+        /* Merge duplicates and reorder each vertex's records in place. */
+        int[] degree = new int[n];
+        forRanges(n, (from, to) -> {
+            for (int v = from; v < to; v++) {
+                degree[v] = mergeEdges(recordStart[v], recordStart[v + 1], recordTarget,
+                        recordWay);
+            }
+        });
+
+        /* Drop unconnected vertices, as GraphDB.clean() does. */
+        int[] newIndex = new int[n];
+        int kept = 0;
+        for (int v = 0; v < n; v++) {
+            newIndex[v] = degree[v] > 0 ? kept++ : -1;
+        }
+        long[] ids = new long[kept];
+        double[] keptLons = new double[kept];
+        double[] keptLats = new double[kept];
+        int[] offsets = new int[kept + 1];
+        for (int v = 0; v < n; v++) {
+            int i = newIndex[v];
+            if (i >= 0) {
+                ids[i] = nodeIds[v];
+                keptLons[i] = lons[v];
+                keptLats[i] = lats[v];
+                offsets[i + 1] = offsets[i] + degree[v];
+            }
+        }
+        int[] targets = new int[offsets[kept]];
+        int[] edgeWays = new int[offsets[kept]];
+        byte[] edgeClasses = new byte[offsets[kept]];
+        short[] edgeMaxSpeeds = new short[offsets[kept]];
+        byte[] edgeFlags = new byte[offsets[kept]];
+        forRanges(n, (from, to) -> {
+            for (int v = from; v < to; v++) {
+                int i = newIndex[v];
+                if (i < 0) {
+                    continue;
+                }
+                for (int k = 0; k < degree[v]; k++) {
+                    int e = offsets[i] + k;
+                    int record = recordWay[recordStart[v] + k];
+                    int w = record >>> 1;
+                    boolean reversed = (record & 1) != 0;
+                    targets[e] = newIndex[recordTarget[recordStart[v] + k]];
+                    edgeWays[e] = w;
+                    edgeClasses[e] = (byte) wayClasses[w];
+                    edgeMaxSpeeds[e] = (short) wayMaxSpeeds[w];
+                    if (reversed ? wayOneways[w] > 0 : wayOneways[w] < 0) {
+                        edgeFlags[e] = GraphDB.AGAINST_ONEWAY;
+                    }
+                }
+            }
+        });
+
+        /* Intern way names in edge order, as GraphDB.compact() numbers them. */
+        int[] nameOfWay = new int[wayCount];
+        Arrays.fill(nameOfWay, -2);
+        Map<String, Integer> nameIndex = new HashMap<>();
+        List<String> distinct = new ArrayList<>();
+        for (int e = 0; e < edgeWays.length; e++) {
+            int w = edgeWays[e];
+            if (nameOfWay[w] == -2) {
+                String name = wayNames[w];
+                Integer nameID = name == null ? Integer.valueOf(-1) : nameIndex.get(name);
+                if (nameID == null) {
+                    nameID = distinct.size();
+                    nameIndex.put(name, nameID);
+                    distinct.add(name);
+                }
+                nameOfWay[w] = nameID;
+            }
+            edgeWays[e] = nameOfWay[w];
+        }
+
+        GraphDB g = new GraphDB(ids, keptLons, keptLats, offsets, targets, edgeWays,
+                distinct.toArray(new String[0]), edgeClasses, edgeMaxSpeeds, edgeFlags);
+        for (int k = 0; k < named.size(); k++) {
+            g.addLocation(names.get(k), named.get(k));
+        }
+        return g;
+    }
+
+    /**
+     * Merges the records of one vertex with equal targets, keeping the position of
+     * the first and the way of the last, then orders them as a HashMap keyed by the
+     * target ids would iterate: by bucket, and by insertion within a bucket.
+     * @return The number of distinct targets, now at the front of the range.
+     */
+    private int mergeEdges(int start, int end, int[] recordTarget, int[] recordWay) {
+        int count = 0;
+        for (int r = start; r < end; r++) {
+            int k = start;
+            while (k < start + count && recordTarget[k] != recordTarget[r]) {
+                k++;
+            }
+            if (k == start + count) {
+                recordTarget[k] = recordTarget[r];
+                count += 1;
+            }
+            recordWay[k] = recordWay[r];
+        }
+        int capacity = HASH_MAP_CAPACITY;
+        while (count > capacity * HASH_MAP_LOAD_FACTOR) {
+            capacity <<= 1;
+        }
+        /* Stable insertion sort by bucket; degrees are small. */
+        for (int i = start + 1; i < start + count; i++) {
+            int target = recordTarget[i];
+            int way = recordWay[i];
+            int bucket = bucket(nodeIds[target], capacity);
+            int j = i - 1;
+            while (j >= start && bucket(nodeIds[recordTarget[j]], capacity) > bucket) {
+                recordTarget[j + 1] = recordTarget[j];
+                recordWay[j + 1] = recordWay[j];
+                j--;
+            }
+            recordTarget[j + 1] = target;
+            recordWay[j + 1] = way;
+        }
+        return count;
+    }
+
+    /** Returns the bucket HashMap puts a Long key in for a table of the given capacity. */
+    private static int bucket(long id, int capacity) {
+        int h = Long.hashCode(id);
+        return (h ^ (h >>> 16)) & (capacity - 1);
+    }
+
+    private void addWay(LongArray refs, String name, int highwayClass, int maxSpeed,
+                        int oneway) {
+        if (wayCount + 1 >= wayStarts.length) {
+            wayStarts = Arrays.copyOf(wayStarts, wayStarts.length * 2);
+            wayNames = Arrays.copyOf(wayNames, wayNames.length * 2);
+            wayClasses = Arrays.copyOf(wayClasses, wayClasses.length * 2);
+            wayMaxSpeeds = Arrays.copyOf(wayMaxSpeeds, wayMaxSpeeds.length * 2);
+            wayOneways = Arrays.copyOf(wayOneways, wayOneways.length * 2);
+        }
+        wayStarts[wayCount] = wayRefs.size;
+        wayNames[wayCount] = name;
+        wayClasses[wayCount] = highwayClass;
+        wayMaxSpeeds[wayCount] = maxSpeed;
+        wayOneways[wayCount] = oneway;
+        for (int i = 0; i < refs.size; i++) {
+            wayRefs.add(refs.values[i]);
+            referenced.put(refs.values[i], 0);
+        }
+        wayCount += 1;
+        wayStarts[wayCount] = wayRefs.size;
+    }
+
+    /**
+     * First pass: the way handling of GraphBuildingHandler, recording allowed ways
+     * and their attributes instead of adding edges. Way names follow the same rules,
+     * so a way without a name tag gets null before the first way ends and "" after.
+     */
+    private class WayPass extends DefaultHandler {
+        private String activeState = "";
+        private final LongArray possibleWay = new LongArray();
+        private boolean isValidWay = false;
+        private String currentWay = null;
+        private int currentClass = -1;
+        private int currentMaxSpeed = 0;
+        private String currentOneway = null;
+        private boolean currentRoundabout = false;
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes attributes) throws SAXException {
+            if (qName.equals("node")) {
+                activeState = "node";
+            } else if (qName.equals("way")) {
+                activeState = "way";
+            } else if (activeState.equals("way") && qName.equals("nd")) {
+                possibleWay.add(Long.parseLong(attributes.getValue("ref")));
+            } else if (activeState.equals("way") && qName.equals("tag")) {
+                String k = attributes.getValue("k");
+                String v = attributes.getValue("v");
+                if (k.equals("highway")) {
+                    isValidWay = GraphBuildingHandler.isAllowedHighway(v);
+                    currentClass = GraphBuildingHandler.highwayClass(v);
+                } else if (k.equals("name")) {
+                    currentWay = v;
+                } else if (k.equals("maxspeed")) {
+                    currentMaxSpeed = GraphBuildingHandler.parseMaxSpeed(v);
+                } else if (k.equals("oneway")) {
+                    currentOneway = v;
+                } else if (k.equals("junction")) {
+                    currentRoundabout = v.equals("roundabout");
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (qName.equals("way")) {
+                if (isValidWay && possibleWay.size > 1) {
+                    addWay(possibleWay, currentWay, currentClass, currentMaxSpeed,
+                            GraphBuildingHandler.parseOneway(currentOneway, currentRoundabout));
+                }
+                possibleWay.size = 0;
+                isValidWay = false;
+                currentWay = "";
+                currentClass = -1;
+                currentMaxSpeed = 0;
+                currentOneway = null;
+                currentRoundabout = false;
+            }
+        }
+    }
+
+    /**
+     * Second pass: keeps the coordinates of referenced nodes, parsed by the pool a
+     * batch at a time, and the named nodes in the order they appear.
+     */
+    private class NodePass extends DefaultHandler {
+        private String activeState = "";
+        private long curId;
+        private String curLon;
+        private String curLat;
+        private String[] batchLons = new String[BATCH_SIZE];
+        private String[] batchLats = new String[BATCH_SIZE];
+        private int batchStart;
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes attributes) throws SAXException {
+            if (qName.equals("node")) {
+                activeState = "node";
+                curId = Long.parseLong(attributes.getValue("id"));
+                curLon = attributes.getValue("lon");
+                curLat = attributes.getValue("lat");
+                if (referenced.containsKey(curId) && !nodeIndex.containsKey(curId)) {
+                    nodeIndex.put(curId, nodeCount);
+                    nodeIds[nodeCount] = curId;
+                    batchLons[nodeCount - batchStart] = curLon;
+                    batchLats[nodeCount - batchStart] = curLat;
+                    nodeCount += 1;
+                    if (nodeCount - batchStart == BATCH_SIZE) {
+                        flush();
+                    }
+                }
+            } else if (qName.equals("way")) {
+                activeState = "way";
+            } else if (activeState.equals("node") && qName.equals("tag")
+                    && attributes.getValue("k").equals("name")) {
+                named.add(new GraphDB.Node(curId, Double.parseDouble(curLon),
+                        Double.parseDouble(curLat)));
+                names.add(attributes.getValue("v"));
+            }
+        }
+
+        /** Hands the current batch of coordinate strings to the pool. */
+        void flush() {
+            String[] batchLonsCopy = batchLons;
+            String[] batchLatsCopy = batchLats;
+            int from = batchStart;
+            int to = nodeCount;
+            tasks.add(pool.submit(() -> {
+                for (int i = from; i < to; i++) {
+                    lons[i] = Double.parseDouble(batchLonsCopy[i - from]);
+                    lats[i] = Double.parseDouble(batchLatsCopy[i - from]);
+                }
+            }));
+            batchLons = new String[BATCH_SIZE];
+            batchLats = new String[BATCH_SIZE];
+            batchStart = nodeCount;
+        }
+    }
+
+    /** Growable array of primitive longs. */
+    private static class LongArray {
+        long[] values = new long[64];
+        int size;
+
+        void add(long v) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = v;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A whole tile pyramid packed into one file, read through a memory-mapped
+ * FileChannel, so serving a tile is a slice of the mapping rather than a file
+ * open. Tiles are addressed by their index in the quadtree: depth by depth from
+ * the root, and row by row within a depth, as index computes it. TilePyramid
+ * writes archives.
+ *
+ * Layout, big-endian: magic, version, maximum depth, index position, the tile
+ * bytes in any order, and at the index position the start and length of every
+ * tile. A missing tile has length 0.
+ */
+public class TileArchive {
+    private static final int MAGIC = 0x54494C31;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 8;
+
+    private final MappedByteBuffer buf;
+    private final int maxDepth;
+    private final int[] starts;
+    private final int[] lengths;
+
+    private TileArchive(MappedByteBuffer buf, int maxDepth, int[] starts, int[] lengths) {
+        this.buf = buf;
+        this.maxDepth = maxDepth;
+        this.starts = starts;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Returns the index of a tile in an archive.
+     * @param depth The depth of the tile; the root is at depth 0.
+     * @param x The column of the tile, from 0 to 2^depth - 1.
+     * @param y The row of the tile, from 0 to 2^depth - 1.
+     * @return The index.
+     */
+    static int index(int depth, int x, int y) {
+        return tileCount(depth - 1) + (y << depth) + x;
+    }
+
+    /** Returns the number of tiles at depths 0 to maxDepth. */
+    static int tileCount(int maxDepth) {
+        return ((1 << (2 * (maxDepth + 1))) - 1) / 3;
+    }
+
+    /**
+     * Maps an archive.
+     * @param file The archive.
+     * @return The archive.
+     * @throws IOException If the file cannot be read or is not an archive of this version.
+     */
+    static TileArchive open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Tile archive too large to map: " + file);
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                throw new IOException("Not a version " + VERSION + " tile archive: " + file);
+            }
+            int maxDepth = buf.getInt();
+            buf.position((int) buf.getLong());
+            int count = tileCount(maxDepth);
+            int[] starts = new int[count];
+            int[] lengths = new int[count];
+            buf.asIntBuffer().get(starts);
+            buf.position(buf.position() + 4 * count);
+            buf.asIntBuffer().get(lengths);
+            return new TileArchive(buf, maxDepth, starts, lengths);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt tile archive: " + file, e);
+        }
+    }
+
+    int maxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the bytes of a tile, as a read-only view of the mapping.
+     * @param index The index of the tile.
+     * @return The tile's bytes, or null if the archive has no such tile.
+     */
+    ByteBuffer tile(int index) {
+        if (index < 0 || index >= lengths.length || lengths[index] == 0) {
+            return null;
+        }
+        ByteBuffer res = buf.asReadOnlyBuffer();
+        res.position(starts[index]);
+        res.limit(starts[index] + lengths[index]);
+        return res.slice();
+    }
+
+    /**
+     * Writes an archive. Tiles may be added in any order and from any thread; the
+     * archive is written beside its file and moved over it by commit, so readers
+     * never see a partial archive. Closing a writer that was not committed deletes
+     * what it wrote and leaves the file as it was.
+     */
+    static class Writer implements Closeable {
+        private final File file;
+        private final File tmp;
+        private final RandomAccessFile out;
+        private final int[] starts;
+        private final int[] lengths;
+        private long position = HEADER_BYTES;
+        private boolean committed;
+
+        /**
+         * Starts an archive.
+         * @param file The destination.
+         * @param maxDepth The deepest depth of the pyramid.
+         * @throws IOException If the file cannot be written.
+         */
+        Writer(File file, int maxDepth) throws IOException {
+            this.file = file;
+            this.tmp = new File(file.getPath() + ".tmp");
+            this.out = new RandomAccessFile(tmp, "rw");
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(maxDepth);
+            out.writeLong(0);
+            starts = new int[tileCount(maxDepth)];
+            lengths = new int[starts.length];
+        }
+
+        /**
+         * Adds the encoded bytes of a tile.
+         * @param index The index of the tile.
+         * @param bytes The tile, usually a PNG.
+         * @throws IOException If the file cannot be written or grows too large to map.
+         */
+        synchronized void add(int index, byte[] bytes) throws IOException {
+            if (position + bytes.length > Integer.MAX_VALUE) {
+                throw new IOException("Tile archive too large to map");
+            }
+            starts[index] = (int) position;
+            lengths[index] = bytes.length;
+            out.seek(position);
+            out.write(bytes);
+            position += bytes.length;
+        }
+
+        /**
+         * Writes the index and moves the archive over its file.
+         * @throws IOException If the archive cannot be written or moved.
+         */
+        synchronized void commit() throws IOException {
+            ByteBuffer index = ByteBuffer.allocate(8 * starts.length);
+            index.asIntBuffer().put(starts).put(lengths);
+            out.seek(position);
+            out.write(index.array());
+            out.seek(HEADER_BYTES - 8);
+            out.writeLong(position);
+            out.close();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        /** Discards the archive unless it was committed. */
+        @Override
+        public synchronized void close() throws IOException {
+            if (committed) {
+                return;
+            }
+            try {
+                out.close();
+            } finally {
+                Files.deleteIfExists(tmp.toPath());
+            }
+        }
+    }
+}
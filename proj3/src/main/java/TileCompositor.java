@@ -0,0 +1,104 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Assembles a grid of square tiles into one RGB image. Tiles are fetched and
+ * copied in parallel, one task per tile, row by row straight into the int pixel
+ * array behind the result, instead of through Graphics.drawImage. Tiles are
+ * expected as TYPE_INT_RGB, which toIntRgb converts to once when a tile is
+ * loaded, so that copying a tile is a System.arraycopy per row.
+ */
+public class TileCompositor {
+    private final int tileSize;
+    private final Function<String, BufferedImage> tiles;
+    private final ExecutorService pool;
+
+    /**
+     * Create a compositor.
+     * @param tileSize The width and height of every tile, in pixels.
+     * @param tiles Returns the tile of a name, or null if it is missing.
+     * @param pool The workers that fetch and copy tiles.
+     */
+    public TileCompositor(int tileSize, Function<String, BufferedImage> tiles,
+                          ExecutorService pool) {
+        this.tileSize = tileSize;
+        this.tiles = tiles;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the image of the given grid of tile names. A missing tile is left black.
+     * @param grid The tile names, by row and then column.
+     * @return A TYPE_INT_RGB image grid[0].length tiles wide and grid.length tiles high.
+     */
+    BufferedImage composite(String[][] grid) {
+        int rows = grid.length;
+        int cols = grid[0].length;
+        int width = cols * tileSize;
+        BufferedImage img = new BufferedImage(width, rows * tileSize,
+                BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        List<Future<?>> tasks = new ArrayList<>(rows * cols);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                String name = grid[r][c];
+                int offset = r * tileSize * width + c * tileSize;
+                tasks.add(pool.submit(() -> copy(tiles.apply(name), pixels, offset, width)));
+            }
+        }
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return img;
+    }
+
+    /** Copies tile into pixels, an image width wide, with its corner at offset. */
+    private void copy(BufferedImage tile, int[] pixels, int offset, int width) {
+        if (tile == null) {
+            return;
+        }
+        int w = Math.min(tileSize, tile.getWidth());
+        int h = Math.min(tileSize, tile.getHeight());
+        if (tile.getType() != BufferedImage.TYPE_INT_RGB || tile.getRaster().getParent() != null) {
+            for (int y = 0; y < h; y++) {
+                tile.getRGB(0, y, w, 1, pixels, offset + y * width, w);
+            }
+            return;
+        }
+        int[] src = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+        int stride = tile.getWidth();
+        for (int y = 0; y < h; y++) {
+            System.arraycopy(src, y * stride, pixels, offset + y * width, w);
+        }
+    }
+
+    /**
+     * Returns img as a TYPE_INT_RGB image, converting it if it is of another type.
+     * @param img An image, or null.
+     * @return The converted image, or null if img is null.
+     */
+    static BufferedImage toIntRgb(BufferedImage img) {
+        if (img == null || img.getType() == BufferedImage.TYPE_INT_RGB) {
+            return img;
+        }
+        int w = img.getWidth();
+        int h = img.getHeight();
+        BufferedImage res = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) res.getRaster().getDataBuffer()).getData();
+        img.getRGB(0, 0, w, h, pixels, 0, w);
+        return res;
+    }
+}
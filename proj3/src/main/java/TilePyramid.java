@@ -0,0 +1,208 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import javax.imageio.ImageIO;
+
+/**
+ * Command line tool that builds the TileArchive the server reads its tiles from.
+ * Like GraphDBBenchmark, this is not used by the server; run it by hand.
+ * Usage:
+ * java TilePyramid build base-image archive [max depth] [deflate level] cuts the
+ * full quadtree of tiles out of one image of the whole map;
+ * java TilePyramid pack tile-directory archive [max depth] packs existing tile
+ * files, named as Rasterer names them, into an archive.
+ *
+ * The build cuts the deepest tiles out of the base image and makes every other
+ * tile by halving its four children with a 2x2 box filter, so each pixel of the
+ * base image is scaled once. Subtrees are built in parallel on a ForkJoinPool,
+ * and only the tiles of the subtrees in progress are held in memory.
+ */
+public class TilePyramid {
+    private static final int TILE_SIZE = MapServer.TILE_SIZE;
+    private static final int DEFAULT_LEVEL = 9;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || !(args[0].equals("build") || args[0].equals("pack"))) {
+            System.out.println("Usage: java TilePyramid build base-image archive [max depth] "
+                    + "[deflate level]");
+            System.out.println("       java TilePyramid pack tile-directory archive [max depth]");
+            return;
+        }
+        int maxDepth = args.length > 3 ? Integer.parseInt(args[3]) : Rasterer.MAX_DEPTH;
+        File archive = new File(args[2]);
+        long start = System.nanoTime();
+        int tiles;
+        if (args[0].equals("build")) {
+            BufferedImage base = ImageIO.read(new File(args[1]));
+            if (base == null) {
+                throw new IOException("Not an image: " + args[1]);
+            }
+            int level = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_LEVEL;
+            tiles = build(base, archive, maxDepth, level);
+        } else {
+            tiles = pack(new File(args[1]), archive, maxDepth);
+        }
+        System.out.printf("%d tiles, %d bytes, in %.1f s%n", tiles, archive.length(),
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Builds the tile pyramid of an image of the whole map into an archive.
+     * @param base The image, which should be at least 2^maxDepth tiles wide for
+     *             the deepest tiles not to be blurred.
+     * @param archive The file to write.
+     * @param maxDepth The deepest depth.
+     * @param level The deflate level of the tiles.
+     * @return The number of tiles written.
+     * @throws IOException If the archive cannot be written.
+     */
+    static int build(BufferedImage base, File archive, int maxDepth, int level)
+            throws IOException {
+        ForkJoinPool pool = new ForkJoinPool();
+        /* The encoder gets its own workers, since the tile tasks block on them. */
+        ExecutorService encoders = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        try (TileArchive.Writer writer = new TileArchive.Writer(archive, maxDepth)) {
+            PngEncoder encoder = new PngEncoder(level, PngEncoder.Filter.ADAPTIVE, encoders);
+            pool.invoke(new Tile(base, writer, encoder, maxDepth, 0, 0, 0));
+            writer.commit();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+            encoders.shutdown();
+        }
+        return TileArchive.tileCount(maxDepth);
+    }
+
+    /**
+     * Packs the tile files of a directory into an archive. Missing tiles are left
+     * out of the archive.
+     * @return The number of tiles written.
+     * @throws IOException If a tile cannot be read or the archive cannot be written.
+     */
+    static int pack(File dir, File archive, int maxDepth) throws IOException {
+        int tiles = 0;
+        try (TileArchive.Writer writer = new TileArchive.Writer(archive, maxDepth)) {
+            for (int depth = 0; depth <= maxDepth; depth++) {
+                for (int y = 0; y < 1 << depth; y++) {
+                    for (int x = 0; x < 1 << depth; x++) {
+                        File file = new File(dir, Rasterer.tileName(depth, x, y));
+                        if (file.isFile()) {
+                            writer.add(TileArchive.index(depth, x, y),
+                                    Files.readAllBytes(file.toPath()));
+                            tiles += 1;
+                        }
+                    }
+                }
+            }
+            writer.commit();
+        }
+        return tiles;
+    }
+
+    /** Builds the subtree of one tile, writes it and returns the tile's pixels. */
+    private static class Tile extends RecursiveTask<BufferedImage> {
+        private static final long serialVersionUID = 1L;
+
+        private final BufferedImage base;
+        private final TileArchive.Writer writer;
+        private final PngEncoder encoder;
+        private final int maxDepth;
+        private final int depth;
+        private final int x;
+        private final int y;
+
+        Tile(BufferedImage base, TileArchive.Writer writer, PngEncoder encoder, int maxDepth,
+             int depth, int x, int y) {
+            this.base = base;
+            this.writer = writer;
+            this.encoder = encoder;
+            this.maxDepth = maxDepth;
+            this.depth = depth;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        protected BufferedImage compute() {
+            BufferedImage tile = depth == maxDepth ? cut() : merge();
+            try {
+                ByteArrayOutputStream png = new ByteArrayOutputStream();
+                encoder.write(tile, png);
+                writer.add(TileArchive.index(depth, x, y), png.toByteArray());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return tile;
+        }
+
+        /** Scales this tile's part of the base image to a tile. */
+        private BufferedImage cut() {
+            double tilesPerLine = 1 << depth;
+            int x0 = (int) Math.round(x * base.getWidth() / tilesPerLine);
+            int x1 = (int) Math.round((x + 1) * base.getWidth() / tilesPerLine);
+            int y0 = (int) Math.round(y * base.getHeight() / tilesPerLine);
+            int y1 = (int) Math.round((y + 1) * base.getHeight() / tilesPerLine);
+            BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                    BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = tile.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(base, 0, 0, TILE_SIZE, TILE_SIZE, x0, y0, x1, y1, null);
+            g.dispose();
+            return tile;
+        }
+
+        /** Builds the four children and halves each into its quadrant of this tile. */
+        private BufferedImage merge() {
+            Tile[] children = new Tile[4];
+            for (int i = 0; i < 4; i++) {
+                children[i] = new Tile(base, writer, encoder, maxDepth, depth + 1,
+                        2 * x + (i & 1), 2 * y + (i >> 1));
+            }
+            for (int i = 1; i < 4; i++) {
+                children[i].fork();
+            }
+            BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                    BufferedImage.TYPE_INT_RGB);
+            int[] dst = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+            halve(children[0].compute(), dst, 0);
+            for (int i = 1; i < 4; i++) {
+                int offset = (i >> 1) * (TILE_SIZE / 2) * TILE_SIZE + (i & 1) * (TILE_SIZE / 2);
+                halve(children[i].join(), dst, offset);
+            }
+            return tile;
+        }
+
+        /** Writes child at half size into dst, a tile, with its corner at offset. */
+        private static void halve(BufferedImage child, int[] dst, int offset) {
+            int[] src = ((DataBufferInt) child.getRaster().getDataBuffer()).getData();
+            for (int row = 0; row < TILE_SIZE / 2; row++) {
+                for (int col = 0; col < TILE_SIZE / 2; col++) {
+                    int p = 2 * row * TILE_SIZE + 2 * col;
+                    int a = src[p];
+                    int b = src[p + 1];
+                    int c = src[p + TILE_SIZE];
+                    int d = src[p + TILE_SIZE + 1];
+                    int r = ((a >> 16 & 0xFF) + (b >> 16 & 0xFF) + (c >> 16 & 0xFF)
+                            + (d >> 16 & 0xFF) + 2) >> 2;
+                    int g = ((a >> 8 & 0xFF) + (b >> 8 & 0xFF) + (c >> 8 & 0xFF)
+                            + (d >> 8 & 0xFF) + 2) >> 2;
+                    int bl = ((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2;
+                    dst[offset + row * TILE_SIZE + col] = (r << 16) | (g << 8) | bl;
+                }
+            }
+        }
+    }
+}
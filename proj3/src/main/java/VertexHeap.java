@@ -0,0 +1,82 @@
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of (key, vertex) pairs stored in primitive arrays.
+ * The same vertex may be pushed several times; searches use lazy deletion and
+ * skip the copies of a vertex that come out after it has already been settled.
+ */
+public class VertexHeap {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] vertices = new int[INITIAL_CAPACITY];
+    private double[] keys = new double[INITIAL_CAPACITY];
+    private int size;
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /** Returns the smallest key in the heap. The heap must not be empty. */
+    double minKey() {
+        return keys[0];
+    }
+
+    /**
+     * Adds vertex v with priority key.
+     * @param v The vertex.
+     * @param key Its priority; smaller keys come out first.
+     */
+    void push(int v, double key) {
+        if (size == vertices.length) {
+            vertices = Arrays.copyOf(vertices, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            vertices[i] = vertices[parent];
+            keys[i] = keys[parent];
+            i = parent;
+        }
+        vertices[i] = v;
+        keys[i] = key;
+    }
+
+    /** Removes and returns the vertex with the smallest key. The heap must not be empty. */
+    int pop() {
+        int top = vertices[0];
+        size -= 1;
+        int v = vertices[size];
+        double key = keys[size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child += 1;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            vertices[i] = vertices[child];
+            keys[i] = keys[child];
+            i = child;
+        }
+        vertices[i] = v;
+        keys[i] = key;
+        return top;
+    }
+}
@@ -54,7 +54,7 @@ $(function() {
     } else {
         host = 'http://localhost:4567';
     }
-    const raster_server = host + '/raster';
+    const raster_server = host + '/raster_info';
     const route_server = host + '/route';
     const clear_route = host + '/clear_route';
     const search = host + '/search';
@@ -116,9 +116,8 @@ $(function() {
                 console.log(data);
                 if (data.query_success) {
                     $loadingStatus.hide();
-                    map.src = 'data:image/png;base64,' + data.b64_encoded_image_data;
-                    console.log('Updating map with image length: ' +
-                                data.b64_encoded_image_data.length);
+                    map.src = host + data.image_url;
+                    console.log('Updating map with image: ' + data.image_url);
                     ullon_bound = data.raster_ul_lon;
                     ullat_bound = data.raster_ul_lat;
                     lrlon_bound = data.raster_lr_lon;
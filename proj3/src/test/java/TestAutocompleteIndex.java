@@ -0,0 +1,86 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares prefix ranges and top-k suggestions of AutocompleteIndex against
+ * brute-force filtering and sorting of random names.
+ */
+public class TestAutocompleteIndex {
+    private static final int NUM_NAMES = 2000;
+    private static final String ALPHABET = "abc d";
+
+    private static String randomName(Random random, int maxLength) {
+        StringBuilder sb = new StringBuilder();
+        int length = 1 + random.nextInt(maxLength);
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testAgainstBruteForce() {
+        Random random = new Random(1);
+        Set<String> distinct = new LinkedHashSet<>();
+        while (distinct.size() < NUM_NAMES) {
+            distinct.add(randomName(random, 8));
+        }
+        String[] cleaned = distinct.toArray(new String[0]);
+        String[] names = new String[cleaned.length];
+        double[] scores = new double[cleaned.length];
+        for (int i = 0; i < cleaned.length; i++) {
+            names[i] = cleaned[i].toUpperCase();
+            scores[i] = random.nextInt(20);
+        }
+        AutocompleteIndex index = new AutocompleteIndex(cleaned, names, scores);
+        assertEquals(cleaned.length, index.size());
+
+        Integer[] bySortedName = new Integer[cleaned.length];
+        for (int i = 0; i < cleaned.length; i++) {
+            bySortedName[i] = i;
+        }
+        Arrays.sort(bySortedName, Comparator.comparing(i -> cleaned[i]));
+
+        for (int q = 0; q < 300; q++) {
+            String prefix = q == 0 ? "" : randomName(random, 4);
+            List<Integer> matches = new ArrayList<>();
+            for (int i : bySortedName) {
+                if (cleaned[i].startsWith(prefix)) {
+                    matches.add(i);
+                }
+            }
+            List<String> expectedAll = new ArrayList<>();
+            for (int i : matches) {
+                expectedAll.add(names[i]);
+            }
+            assertEquals(expectedAll, index.all(prefix));
+
+            /* Stable sort keeps name order among equal scores. */
+            matches.sort((a, b) -> Double.compare(scores[b], scores[a]));
+            int k = 1 + random.nextInt(12);
+            List<String> expectedTop = new ArrayList<>();
+            for (int i = 0; i < Math.min(k, matches.size()); i++) {
+                expectedTop.add(names[matches.get(i)]);
+            }
+            assertEquals(expectedTop, index.top(prefix, k));
+            assertEquals(matches.size(), index.top(prefix, Integer.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        AutocompleteIndex index = new AutocompleteIndex(new String[0], new String[0],
+                new double[0]);
+        assertEquals(0, index.all("a").size());
+        assertEquals(0, index.top("", 5).size());
+    }
+}
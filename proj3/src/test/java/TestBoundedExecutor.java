@@ -0,0 +1,85 @@
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Checks that BoundedExecutor turns work away once its threads and queue are full. */
+public class TestBoundedExecutor {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testRunsTasksAndRethrowsTheirExceptions() {
+        BoundedExecutor executor = new BoundedExecutor("test", 1, 1, SECOND);
+        assertEquals(Integer.valueOf(42), executor.call(() -> 42));
+        try {
+            executor.call(() -> {
+                throw new IllegalStateException("boom");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("boom", e.getMessage());
+        }
+        assertEquals(2, executor.completed());
+    }
+
+    @Test
+    public void testFullQueueFailsFast() throws InterruptedException {
+        BoundedExecutor executor = new BoundedExecutor("test", 1, 1, 10 * SECOND);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread running = new Thread(() -> executor.call(() -> {
+            started.countDown();
+            return release.await(10, TimeUnit.SECONDS);
+        }));
+        running.start();
+        started.await();
+        Thread waiting = new Thread(() -> executor.call(() -> true));
+        waiting.start();
+        while (executor.queued() < 1) {
+            Thread.sleep(1);
+        }
+
+        long start = System.nanoTime();
+        try {
+            executor.call(() -> true);
+            fail();
+        } catch (BoundedExecutor.Overloaded e) {
+            assertTrue(System.nanoTime() - start < SECOND);
+        }
+        assertEquals(1, executor.rejected());
+
+        release.countDown();
+        running.join();
+        waiting.join();
+        assertEquals(2, executor.completed());
+    }
+
+    @Test
+    public void testSlowTaskTimesOut() throws InterruptedException {
+        BoundedExecutor executor = new BoundedExecutor("test", 1, 1, SECOND / 20);
+        AtomicReference<Boolean> interrupted = new AtomicReference<>();
+        CountDownLatch finished = new CountDownLatch(1);
+        try {
+            executor.call(() -> {
+                try {
+                    Thread.sleep(10_000);
+                    interrupted.set(false);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+                finished.countDown();
+                return true;
+            });
+            fail();
+        } catch (BoundedExecutor.Overloaded e) {
+            assertEquals(1, executor.timedOut());
+        }
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertTrue(interrupted.get());
+    }
+}
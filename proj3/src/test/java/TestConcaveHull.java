@@ -0,0 +1,95 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Checks the convex and concave hulls of ConcaveHull. */
+public class TestConcaveHull {
+    @Test
+    public void testConvexHullDropsInnerAndCollinearPoints() {
+        double[] xs = {0, 1, 2, 2, 2, 1, 0, 0, 1};
+        double[] ys = {0, 0, 0, 1, 2, 2, 2, 1, 1};
+        assertArrayEquals(new int[] {0, 2, 4, 6}, ConcaveHull.convexHull(xs, ys));
+        assertEquals(2, ConcaveHull.convexHull(new double[] {0, 1, 2},
+                new double[] {0, 1, 2}).length);
+    }
+
+    @Test
+    public void testFilledSquareStaysConvex() {
+        int side = 11;
+        double[] xs = new double[side * side];
+        double[] ys = new double[side * side];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = i % side;
+            ys[i] = i / side;
+        }
+        int[] hull = ConcaveHull.of(xs, ys, 2, 0);
+        double area = area(xs, ys, hull);
+        assertEquals((side - 1) * (side - 1), area, 1e-9);
+    }
+
+    @Test
+    public void testLShapeExcludesNotch() {
+        /* A 20 by 20 grid without its upper right 10 by 10 quarter. */
+        Random random = new Random(3);
+        int n = 0;
+        double[] xs = new double[400];
+        double[] ys = new double[400];
+        for (int x = 0; x < 20; x++) {
+            for (int y = 0; y < 20; y++) {
+                if (x < 10 || y < 10) {
+                    xs[n] = x + random.nextDouble() * 0.1;
+                    ys[n] = y + random.nextDouble() * 0.1;
+                    n += 1;
+                }
+            }
+        }
+        xs = Arrays.copyOf(xs, n);
+        ys = Arrays.copyOf(ys, n);
+        int[] hull = ConcaveHull.of(xs, ys, 2, 0);
+        assertTrue(ConcaveHull.convexHull(xs, ys).length < hull.length);
+        Set<Integer> distinct = new HashSet<>();
+        for (int v : hull) {
+            assertTrue(distinct.add(v));
+        }
+        /* Nearly the L's area of 261, well short of the convex hull's 311. */
+        double area = area(xs, ys, hull);
+        assertTrue(area > 255 && area < 270);
+        assertFalse(contains(xs, ys, hull, 15, 15));
+        assertTrue(contains(xs, ys, hull, 5, 15));
+        assertTrue(contains(xs, ys, hull, 15, 5));
+    }
+
+    /** Returns the signed area of a polygon, positive if counterclockwise. */
+    private static double area(double[] xs, double[] ys, int[] polygon) {
+        double twice = 0;
+        for (int i = 0; i < polygon.length; i++) {
+            int a = polygon[i];
+            int b = polygon[(i + 1) % polygon.length];
+            twice += xs[a] * ys[b] - xs[b] * ys[a];
+        }
+        return twice / 2;
+    }
+
+    /** Returns whether a polygon contains a point, by counting the edges a ray crosses. */
+    private static boolean contains(double[] xs, double[] ys, int[] polygon, double x,
+                                    double y) {
+        boolean inside = false;
+        for (int i = 0, j = polygon.length - 1; i < polygon.length; j = i++) {
+            int a = polygon[i];
+            int b = polygon[j];
+            if ((ys[a] > y) != (ys[b] > y)
+                    && x < (xs[b] - xs[a]) * (y - ys[a]) / (ys[b] - ys[a]) + xs[a]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
@@ -0,0 +1,131 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that contraction hierarchy queries agree with plain A* on the tiny graph,
+ * and that a saved hierarchy loads back with the same answers.
+ */
+public class TestContractionHierarchy {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static GraphDB graphTiny;
+    private static ContractionHierarchy hierarchy;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        hierarchy = ContractionHierarchy.build(graphTiny);
+        initialized = true;
+    }
+
+    private static List<Long> aStarPath(int source, int target) {
+        AStarSearch search = Router.searchFor(graphTiny);
+        return search.search(source, target) ? search.path(target) : new ArrayList<>();
+    }
+
+    @Test
+    public void testAllPairs() {
+        for (int s = 0; s < graphTiny.size(); s++) {
+            for (int t = 0; t < graphTiny.size(); t++) {
+                assertEquals(aStarPath(s, t), hierarchy.shortestPath(s, t));
+            }
+        }
+    }
+
+    @Test
+    public void test41to46() {
+        List<Long> expected = new ArrayList<>();
+        expected.add(41L);
+        expected.add(63L);
+        expected.add(66L);
+        expected.add(46L);
+        assertEquals(expected, hierarchy.shortestPath(graphTiny.index(41), graphTiny.index(46)));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File file = File.createTempFile("tiny", ".ch");
+        file.deleteOnExit();
+        hierarchy.save(file);
+        ContractionHierarchy loaded = ContractionHierarchy.load(graphTiny, file);
+        assertNotNull(loaded);
+        for (int s = 0; s < graphTiny.size(); s++) {
+            for (int t = 0; t < graphTiny.size(); t++) {
+                assertEquals(hierarchy.shortestPath(s, t), loaded.shortestPath(s, t));
+            }
+        }
+    }
+
+    /** A hierarchy saved for a graph must not load for one whose vertices moved. */
+    @Test
+    public void testMovedGraphRejectsHierarchy() throws Exception {
+        File file = File.createTempFile("tiny", ".ch");
+        file.deleteOnExit();
+        hierarchy.save(file);
+        int n = graphTiny.size();
+        int m = graphTiny.edgeEnd(n - 1);
+        long[] ids = new long[n];
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            ids[i] = graphTiny.id(i);
+            lons[i] = graphTiny.lonAt(i);
+            lats[i] = graphTiny.latAt(i);
+            offsets[i + 1] = graphTiny.edgeEnd(i);
+        }
+        lats[0] += 0.5;
+        int[] targets = new int[m];
+        int[] edgeWays = new int[m];
+        byte[] edgeClasses = new byte[m];
+        short[] edgeMaxSpeeds = new short[m];
+        byte[] edgeFlags = new byte[m];
+        for (int e = 0; e < m; e++) {
+            targets[e] = graphTiny.edgeTarget(e);
+            edgeWays[e] = graphTiny.edgeWayIndex(e);
+        }
+        String[] wayNames = new String[graphTiny.wayNameCount()];
+        for (int k = 0; k < wayNames.length; k++) {
+            wayNames[k] = graphTiny.wayName(k);
+        }
+        GraphDB moved = new GraphDB(ids, lons, lats, offsets, targets, edgeWays, wayNames,
+                edgeClasses, edgeMaxSpeeds, edgeFlags);
+        assertNull(ContractionHierarchy.load(moved, file));
+    }
+
+    /** Corrupt counts, offsets and targets must make load give up, not throw. */
+    @Test
+    public void testCorruptHierarchy() throws Exception {
+        File file = File.createTempFile("tiny", ".ch");
+        file.deleteOnExit();
+        int n = graphTiny.size();
+        /* Magic, version and graph fingerprint come before n and m. */
+        long countsAt = 4 + 4 + 8;
+        long[] corruptAt = {countsAt + 4, countsAt + 8 + 4L * n + 4L * n,
+            countsAt + 8 + 4L * n + 4L * (n + 1)};
+        for (long at : corruptAt) {
+            hierarchy.save(file);
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.seek(at);
+                out.writeInt(-1);
+            }
+            assertNull(ContractionHierarchy.load(graphTiny, file));
+        }
+        ContractionHierarchy rebuilt = ContractionHierarchy.loadOrBuild(graphTiny,
+                file.getPath());
+        assertEquals(hierarchy.upwardEdgeCount(), rebuilt.upwardEdgeCount());
+        assertNotNull(ContractionHierarchy.load(graphTiny, file));
+    }
+}
@@ -0,0 +1,100 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks the directions Router.directions makes on a graph small enough to know
+ * them by hand, and that it makes each one as soon as the route shows where it ends.
+ */
+public class TestDirectionIterator {
+    /**
+     * East Street runs east from 1 to 3, North Street north from 3 to 5, and West
+     * Street west from 5 to 6, so the route 1 to 6 turns left twice.
+     */
+    private static final String OSM_XML = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<osm version=\"0.6\">\n"
+            + " <node id=\"1\" lat=\"38.0\" lon=\"0.0\"/>\n"
+            + " <node id=\"2\" lat=\"38.0\" lon=\"0.1\"/>\n"
+            + " <node id=\"3\" lat=\"38.0\" lon=\"0.2\"/>\n"
+            + " <node id=\"4\" lat=\"38.1\" lon=\"0.2\"/>\n"
+            + " <node id=\"5\" lat=\"38.2\" lon=\"0.2\"/>\n"
+            + " <node id=\"6\" lat=\"38.2\" lon=\"0.1\"/>\n"
+            + " <way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"East Street\"/></way>\n"
+            + " <way id=\"11\"><nd ref=\"3\"/><nd ref=\"4\"/><nd ref=\"5\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"North Street\"/></way>\n"
+            + " <way id=\"12\"><nd ref=\"5\"/><nd ref=\"6\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"West Street\"/></way>\n"
+            + "</osm>\n";
+    private static GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        if (graph == null) {
+            File osmFile = File.createTempFile("directions", ".osm.xml");
+            osmFile.deleteOnExit();
+            Files.write(osmFile.toPath(), OSM_XML.getBytes(StandardCharsets.UTF_8));
+            graph = new GraphDB(osmFile.getPath());
+        }
+    }
+
+    private static String direction(String turn, String way, double miles) {
+        return String.format("%s on %s and continue for %.3f miles.", turn, way, miles);
+    }
+
+    @Test
+    public void testDirectionsAreMadeLazily() {
+        List<Long> route = Router.shortestPath(graph, 0.0, 38.0, 0.1, 38.2);
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L), route);
+        String[] expected = {
+            direction("Start", "East Street", graph.distance(1, 2) + graph.distance(2, 3)),
+            direction("Turn left", "North Street", graph.distance(3, 4) + graph.distance(4, 5)),
+            direction("Turn left", "West Street", graph.distance(5, 6)),
+        };
+        /* Each direction comes as soon as the first edge past it is taken. */
+        int[] expectedTaken = {4, 6, 6};
+
+        int[] taken = new int[1];
+        Iterator<Long> counted = new Iterator<Long>() {
+            private final Iterator<Long> vertices = route.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return vertices.hasNext();
+            }
+
+            @Override
+            public Long next() {
+                taken[0] += 1;
+                return vertices.next();
+            }
+        };
+        Iterator<Router.NavigationDirection> directions = Router.directions(graph, counted);
+        for (int k = 0; k < expected.length; k++) {
+            assertEquals(expected[k], directions.next().toString());
+            assertEquals(expectedTaken[k], taken[0]);
+        }
+        assertFalse(directions.hasNext());
+        assertFalse(Router.directions(graph, route.subList(0, 1).iterator()).hasNext());
+    }
+
+    @Test
+    public void testRouteDirections() {
+        List<Router.NavigationDirection> directions = Router.routeDirections(graph,
+                Arrays.asList(6L, 5L, 4L, 3L));
+        assertEquals(2, directions.size());
+        assertEquals(direction("Start", "West Street", graph.distance(6, 5)),
+                directions.get(0).toString());
+        assertEquals(direction("Turn right", "North Street",
+                graph.distance(5, 4) + graph.distance(4, 3)), directions.get(1).toString());
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.Test;
 import java.util.HashSet;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * created by hug 4/9/2018
@@ -72,6 +73,32 @@ public class TestGraphBuildingTiny {
         assertEquals(29.715164376934, graphTiny.distance(v, w), 0.00001);
     }
 
+    @Test
+    public void testEdgeLengths() {
+        for (int i = 0; i < graphTiny.size(); i++) {
+            for (int e = graphTiny.edgeStart(i); e < graphTiny.edgeEnd(i); e++) {
+                assertEquals(graphTiny.distanceAt(i, graphTiny.edgeTarget(e)),
+                        graphTiny.edgeLength(e), 0.0);
+            }
+        }
+    }
+
+    /** The plane distance must stay within its error bound below the great circle. */
+    @Test
+    public void testPlaneDistance() {
+        double error = graphTiny.planeDistanceError();
+        assertTrue(error > 0 && error < 0.01);
+        for (int i = 0; i < graphTiny.size(); i++) {
+            for (int j = 0; j < graphTiny.size(); j++) {
+                double greatCircle = graphTiny.distanceAt(i, j);
+                double plane = graphTiny.planeDistanceAt(i, j);
+                /* Equal up to rounding for vertices on the same meridian. */
+                assertTrue(plane <= greatCircle * (1 + 1e-12));
+                assertTrue(plane >= (1 - error) * greatCircle);
+            }
+        }
+    }
+
     @Test
     public void testClosest() {
         double lon = 0.4;
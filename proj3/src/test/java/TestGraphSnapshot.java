@@ -0,0 +1,97 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a graph read back from a binary snapshot matches the parsed graph,
+ * and that snapshots of a changed XML file are rejected.
+ */
+public class TestGraphSnapshot {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+
+    private static File copyOfTiny() throws Exception {
+        File source = File.createTempFile("tiny", ".osm.xml");
+        source.deleteOnExit();
+        Files.copy(Paths.get(OSM_DB_PATH_TINY), source.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        return source;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File source = copyOfTiny();
+        File file = File.createTempFile("tiny", ".snapshot");
+        file.deleteOnExit();
+        GraphDB parsed = new GraphDB(source.getPath());
+        GraphSnapshot.save(parsed, file, source);
+        GraphDB loaded = GraphSnapshot.load(file, source);
+        assertNotNull(loaded);
+
+        assertEquals(parsed.size(), loaded.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            assertEquals(parsed.id(i), loaded.id(i));
+            assertEquals(parsed.lonAt(i), loaded.lonAt(i), 0.0);
+            assertEquals(parsed.latAt(i), loaded.latAt(i), 0.0);
+            assertEquals(parsed.edgeStart(i), loaded.edgeStart(i));
+            assertEquals(parsed.edgeEnd(i), loaded.edgeEnd(i));
+            for (int e = parsed.edgeStart(i); e < parsed.edgeEnd(i); e++) {
+                assertEquals(parsed.edgeTarget(e), loaded.edgeTarget(e));
+                assertEquals(parsed.edgeWay(e), loaded.edgeWay(e));
+            }
+            assertEquals(parsed.index(parsed.id(i)), loaded.index(loaded.id(i)));
+        }
+        assertEquals(parsed.closest(0.4, 38.4), loaded.closest(0.4, 38.4));
+        assertEquals(Router.shortestPath(parsed, 0.4, 38.1, 0.4, 38.6),
+                Router.shortestPath(loaded, 0.4, 38.1, 0.4, 38.6));
+    }
+
+    @Test
+    public void testStaleSnapshot() throws Exception {
+        File source = copyOfTiny();
+        File file = File.createTempFile("tiny", ".snapshot");
+        file.deleteOnExit();
+        GraphSnapshot.save(new GraphDB(source.getPath()), file, source);
+        assertTrue(source.setLastModified(source.lastModified() - 60000));
+        assertNull(GraphSnapshot.load(file, source));
+
+        GraphDB reparsed = GraphSnapshot.loadOrParse(source.getPath(), file.getPath());
+        assertEquals(new GraphDB(source.getPath()).size(), reparsed.size());
+        assertNotNull(GraphSnapshot.load(file, source));
+    }
+
+    /** Corrupt counts and edge targets must make load give up, not throw. */
+    @Test
+    public void testCorruptSnapshot() throws Exception {
+        File source = copyOfTiny();
+        File file = File.createTempFile("tiny", ".snapshot");
+        file.deleteOnExit();
+        GraphDB parsed = new GraphDB(source.getPath());
+        GraphSnapshot.save(parsed, file, source);
+        /* Magic, version, source length and modification time come before n. */
+        long countsAt = 4 + 4 + 8 + 8;
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(countsAt);
+            out.writeInt(-1);
+        }
+        assertNull(GraphSnapshot.load(file, source));
+
+        GraphSnapshot.save(parsed, file, source);
+        int n = parsed.size();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(countsAt + 8 + 3 * 8L * n + 4L * (n + 1));
+            out.writeInt(Integer.MAX_VALUE);
+        }
+        assertNull(GraphSnapshot.load(file, source));
+        GraphDB reparsed = GraphSnapshot.loadOrParse(source.getPath(), file.getPath());
+        assertEquals(n, reparsed.size());
+    }
+}
@@ -0,0 +1,108 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks KdTree queries against a linear scan using the great-circle distance.
+ * Uses random points around Berkeley so it does not depend on any OSM file.
+ */
+public class TestKdTree {
+    private static final int NUM_POINTS = 5000;
+    private static final int NUM_QUERIES = 500;
+    private double[] lons;
+    private double[] lats;
+    private KdTree tree;
+    private Random random;
+
+    @Before
+    public void setUp() {
+        random = new Random(61);
+        lons = new double[NUM_POINTS];
+        lats = new double[NUM_POINTS];
+        for (int i = 0; i < NUM_POINTS; i++) {
+            lons[i] = randomLon();
+            lats[i] = randomLat();
+        }
+        tree = new KdTree(lons, lats);
+    }
+
+    private double randomLon() {
+        return MapServer.ROOT_ULLON + random.nextDouble() * (MapServer.ROOT_LRLON
+                - MapServer.ROOT_ULLON);
+    }
+
+    private double randomLat() {
+        return MapServer.ROOT_LRLAT + random.nextDouble() * (MapServer.ROOT_ULLAT
+                - MapServer.ROOT_LRLAT);
+    }
+
+    private int[] bruteForce(double lon, double lat, int k, double radius) {
+        double[] dists = new double[NUM_POINTS];
+        List<Integer> points = new ArrayList<>();
+        for (int i = 0; i < NUM_POINTS; i++) {
+            dists[i] = GraphDB.distance(lons[i], lats[i], lon, lat);
+            if (dists[i] <= radius) {
+                points.add(i);
+            }
+        }
+        points.sort((a, b) -> Double.compare(dists[a], dists[b]));
+        int[] res = new int[Math.min(k, points.size())];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = points.get(i);
+        }
+        return res;
+    }
+
+    @Test
+    public void testNearest() {
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            double lon = randomLon();
+            double lat = randomLat();
+            assertEquals(bruteForce(lon, lat, 1, Double.POSITIVE_INFINITY)[0],
+                    tree.nearest(lon, lat));
+        }
+    }
+
+    @Test
+    public void testNearestExactPoint() {
+        for (int i = 0; i < NUM_POINTS; i += 97) {
+            assertEquals(i, tree.nearest(lons[i], lats[i]));
+        }
+    }
+
+    @Test
+    public void testKNearest() {
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            double lon = randomLon();
+            double lat = randomLat();
+            int k = 1 + random.nextInt(20);
+            assertArrayEquals(bruteForce(lon, lat, k, Double.POSITIVE_INFINITY),
+                    tree.nearest(lon, lat, k));
+        }
+    }
+
+    @Test
+    public void testWithinRadius() {
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            double lon = randomLon();
+            double lat = randomLat();
+            double radius = random.nextDouble() * 0.5;
+            assertArrayEquals(bruteForce(lon, lat, NUM_POINTS, radius),
+                    tree.withinRadius(lon, lat, radius));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        KdTree empty = new KdTree(new double[0], new double[0]);
+        assertEquals(-1, empty.nearest(0, 0));
+        assertEquals(0, empty.nearest(0, 0, 3).length);
+        assertEquals(0, empty.withinRadius(0, 0, 1).length);
+    }
+}
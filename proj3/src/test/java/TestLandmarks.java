@@ -0,0 +1,64 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that ALT bounds never overestimate on the tiny graph, and that routing with
+ * them agrees with great-circle A*.
+ */
+public class TestLandmarks {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static final double EPSILON = 1e-9;
+    private static GraphDB graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testLowerBound() {
+        for (Landmarks.Selection selection : Landmarks.Selection.values()) {
+            Landmarks landmarks = Landmarks.select(graphTiny, 3, selection);
+            AStarSearch search = new AStarSearch(graphTiny);
+            for (int s = 0; s < graphTiny.size(); s++) {
+                for (int t = 0; t < graphTiny.size(); t++) {
+                    if (search.search(s, t)) {
+                        assertTrue(landmarks.estimate(s, t) <= search.distance(t) + EPSILON);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSamePaths() {
+        graphTiny.setLandmarks(Landmarks.select(graphTiny, 3, Landmarks.Selection.AVOID));
+        try {
+            for (int s = 0; s < graphTiny.size(); s++) {
+                for (int t = 0; t < graphTiny.size(); t++) {
+                    List<Long> expected = Router.shortestPath(graphTiny,
+                            graphTiny.lonAt(s), graphTiny.latAt(s),
+                            graphTiny.lonAt(t), graphTiny.latAt(t),
+                            Router.HeuristicType.GREAT_CIRCLE);
+                    List<Long> actual = Router.shortestPath(graphTiny,
+                            graphTiny.lonAt(s), graphTiny.latAt(s),
+                            graphTiny.lonAt(t), graphTiny.latAt(t),
+                            Router.HeuristicType.LANDMARKS);
+                    assertEquals(expected, actual);
+                }
+            }
+        } finally {
+            graphTiny.setLandmarks(null);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/** Checks the eviction order, weights, loading and counters of LruCache. */
+public class TestLruCache {
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        LruCache<Integer, String> cache = new LruCache<>(2);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        assertEquals("one", cache.get(1));
+        cache.put(3, "three");
+        assertNull(cache.get(2));
+        assertEquals("one", cache.get(1));
+        assertEquals("three", cache.get(3));
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    public void testClear() {
+        LruCache<Integer, String> cache = new LruCache<>(4);
+        cache.put(1, "one");
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(1));
+        assertEquals(0, cache.evictions());
+    }
+
+    @Test
+    public void testEvictsByWeight() {
+        LruCache<Integer, String> cache = new LruCache<>(10L, String::length);
+        cache.put(1, "aaaa");
+        cache.put(2, "bbbb");
+        assertEquals(8, cache.weight());
+        cache.put(3, "cccc");
+        assertNull(cache.get(1));
+        assertEquals(8, cache.weight());
+        cache.put(4, "dddddddddddd");
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+        assertEquals(4, cache.evictions());
+    }
+
+    @Test
+    public void testConcurrentMissesLoadOnce() throws InterruptedException {
+        LruCache<Integer, String> cache = new LruCache<>(4);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                String value = cache.get(1, k -> {
+                    loads.incrementAndGet();
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "one";
+                });
+                synchronized (values) {
+                    values.add(value);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(8, values.size());
+        for (String value : values) {
+            assertEquals("one", value);
+        }
+        assertEquals("one", cache.get(1, k -> "other"));
+        assertEquals(1, loads.get());
+    }
+}
@@ -0,0 +1,66 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Checks the precision of Histogram and the text Metrics writes. */
+public class TestMetrics {
+    @Test
+    public void testBucketsCoverEveryValue() {
+        int previous = -1;
+        for (long v = 0; v < 1 << 16; v++) {
+            int bucket = Histogram.bucket(v);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            assertTrue(Histogram.lowest(bucket) <= v);
+            assertTrue(v < Histogram.lowest(bucket) + Histogram.width(bucket));
+            previous = bucket;
+        }
+        int last = Histogram.bucket(Long.MAX_VALUE);
+        assertTrue(Histogram.lowest(last) > 0);
+        assertEquals(Long.MAX_VALUE, Histogram.lowest(last) + Histogram.width(last) - 1);
+    }
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        Histogram h = new Histogram();
+        Random random = new Random(7);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            /* Log-uniform from 1 microsecond to 10 seconds. */
+            values[i] = (long) Math.pow(10, 3 + random.nextDouble() * 7);
+            h.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double q : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            long exact = values[(int) Math.ceil(q * values.length) - 1];
+            assertEquals(exact, h.valueAt(q), exact * 0.04);
+        }
+        assertEquals(values[values.length - 1], h.max());
+        assertEquals(values.length, h.count());
+        h.record(-5);
+        assertEquals(0, h.valueAt(0));
+    }
+
+    @Test
+    public void testScrapeFormat() {
+        Metrics metrics = new Metrics();
+        Histogram h = metrics.histogram("test_seconds", "stage=\"a\"", 0.1, "Stage time.");
+        h.record(20);
+        LongAdder requests = metrics.counter("test_requests_total", "", "Requests.");
+        requests.add(3);
+        metrics.gauge("test_size", "cache=\"b\"", "Size.", () -> 1.5);
+        String text = metrics.scrape();
+        assertTrue(text.contains("# TYPE test_seconds summary\n"));
+        assertTrue(text.contains("test_seconds{stage=\"a\",quantile=\"0.99\"} 2\n"));
+        assertTrue(text.contains("test_seconds_count{stage=\"a\"} 1\n"));
+        assertTrue(text.contains("# TYPE test_seconds_max gauge\n"));
+        assertTrue(text.contains("test_seconds_max{stage=\"a\"} 2\n"));
+        assertTrue(text.contains("# TYPE test_requests_total counter\ntest_requests_total 3\n"));
+        assertTrue(text.contains("test_size{cache=\"b\"} 1.50000\n"));
+        assertEquals(requests, metrics.counter("test_requests_total", "", "Requests."));
+    }
+}
@@ -0,0 +1,85 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that TileCompositor places every tile, and that PngEncoder output
+ * decodes to the encoded pixels under every filter.
+ */
+public class TestRasterPipeline {
+    @Test
+    public void testRoundTrip() throws IOException {
+        BufferedImage img = gradient(300, 200, 7);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+                for (int level : new int[] {0, 1, 4, 9}) {
+                    ByteArrayOutputStream os = new ByteArrayOutputStream();
+                    new PngEncoder(level, filter, pool).write(img, os);
+                    BufferedImage decoded = ImageIO.read(
+                            new ByteArrayInputStream(os.toByteArray()));
+                    assertSamePixels(filter + " at level " + level, img, decoded);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompositeMatchesTiles() {
+        BufferedImage[] tiles = {gradient(16, 16, 1), gradient(16, 16, 2), gradient(16, 16, 3)};
+        String[][] grid = {{"0", "1"}, {"2", "missing"}};
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            TileCompositor compositor = new TileCompositor(16,
+                name -> name.equals("missing") ? null : tiles[Integer.parseInt(name)], pool);
+            BufferedImage img = compositor.composite(grid);
+            assertEquals(32, img.getWidth());
+            assertEquals(32, img.getHeight());
+            for (int y = 0; y < 32; y++) {
+                for (int x = 0; x < 32; x++) {
+                    int tile = (y / 16) * 2 + x / 16;
+                    int expected = tile < 3 ? tiles[tile].getRGB(x % 16, y % 16) : 0xFF000000;
+                    assertEquals(expected, img.getRGB(x, y));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Returns a smooth image with some noise, so every filter has work to do. */
+    private static BufferedImage gradient(int width, int height, long seed) {
+        Random random = new Random(seed);
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x + random.nextInt(8)) & 0xFF;
+                int g = (y * 2) & 0xFF;
+                int b = (x * y + random.nextInt(4)) & 0xFF;
+                img.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return img;
+    }
+
+    private static void assertSamePixels(String message, BufferedImage a, BufferedImage b) {
+        assertEquals(message, a.getWidth(), b.getWidth());
+        assertEquals(message, a.getHeight(), b.getHeight());
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                assertEquals(message, a.getRGB(x, y), b.getRGB(x, y));
+            }
+        }
+    }
+}
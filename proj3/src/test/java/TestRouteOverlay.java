@@ -0,0 +1,91 @@
+import org.junit.Test;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Checks the simplification and clipping of RouteOverlay. */
+public class TestRouteOverlay {
+    private static final double LON_SPAN = MapServer.ROOT_LRLON - MapServer.ROOT_ULLON;
+    private static final double LAT_SPAN = MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT;
+
+    /** Returns the longitude a fraction of the way across the map. */
+    private static double lon(double fraction) {
+        return MapServer.ROOT_ULLON + fraction * LON_SPAN;
+    }
+
+    /** Returns the latitude a fraction of the way down the map. */
+    private static double lat(double fraction) {
+        return MapServer.ROOT_ULLAT - fraction * LAT_SPAN;
+    }
+
+    @Test
+    public void testStraightLineKeepsEndpoints() {
+        double[] lons = new double[100];
+        double[] lats = new double[100];
+        for (int i = 0; i < 100; i++) {
+            lons[i] = lon(i / 99.0);
+            lats[i] = lat(i / 99.0);
+        }
+        RouteOverlay overlay = new RouteOverlay(lons, lats);
+        for (int depth = 0; depth <= Rasterer.MAX_DEPTH; depth++) {
+            assertArrayEquals(new int[] {0, 99}, overlay.simplified(depth));
+        }
+    }
+
+    @Test
+    public void testDeeperDepthsKeepMore() {
+        /* A zigzag one depth 7 pixel high: invisible at depth 0, every vertex at depth 7. */
+        int n = 41;
+        double amplitude = 1.0 / MapServer.TILE_SIZE / (1 << Rasterer.MAX_DEPTH);
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            lons[i] = lon(i / (n - 1.0));
+            lats[i] = lat(0.5 + (i % 2) * amplitude);
+        }
+        RouteOverlay overlay = new RouteOverlay(lons, lats);
+        assertEquals(2, overlay.simplified(0).length);
+        assertEquals(n, overlay.simplified(Rasterer.MAX_DEPTH).length);
+        for (int depth = 1; depth <= Rasterer.MAX_DEPTH; depth++) {
+            assertTrue(overlay.simplified(depth).length
+                    >= overlay.simplified(depth - 1).length);
+        }
+    }
+
+    @Test
+    public void testDrawsOnlyTheVisiblePart() {
+        /* A route along the middle row of the map, drawn on its left and right quarters. */
+        RouteOverlay overlay = new RouteOverlay(new double[] {lon(0.1), lon(0.4)},
+                new double[] {lat(0.5), lat(0.5)});
+        BufferedImage left = draw(overlay, 0, 0.25);
+        BufferedImage right = draw(overlay, 0.75, 1);
+        assertEquals(Color.WHITE.getRGB(), left.getRGB(0, 128));
+        assertEquals(Color.BLACK.getRGB(), left.getRGB(128, 128));
+        assertEquals(Color.BLACK.getRGB(), left.getRGB(255, 128));
+        assertEquals(Color.WHITE.getRGB(), left.getRGB(128, 0));
+        for (int x = 0; x < 256; x++) {
+            for (int y = 0; y < 256; y++) {
+                assertEquals(Color.WHITE.getRGB(), right.getRGB(x, y));
+            }
+        }
+    }
+
+    /** Draws overlay on a white 256 pixel raster spanning the given fractions of the map. */
+    private static BufferedImage draw(RouteOverlay overlay, double from, double to) {
+        BufferedImage img = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 256, 256);
+        g.setColor(Color.BLACK);
+        g.setStroke(new BasicStroke(3));
+        overlay.draw(g, lon(from), lat(0.25), lon(to), lat(0.75), 256, 256, 2, 3);
+        g.dispose();
+        return img;
+    }
+}
@@ -44,6 +44,22 @@ public class TestRouter {
         }
     }
 
+    @Test
+    public void testShortestPathBidirectional() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+
+        for (int i = 0; i < NUM_TESTS; i++) {
+            Map<String, Double> params = testParams.get(i);
+            List<Long> actual = Router.shortestPath(graph,
+                    params.get("start_lon"), params.get("start_lat"),
+                    params.get("end_lon"), params.get("end_lat"), true);
+            List<Long> expected = expectedResults.get(i);
+            assertEquals("Bidirectional results did not match the expected results",
+                    expected, actual);
+        }
+    }
+
     private List<Map<String, Double>> paramsFromFile() throws Exception {
         List<String> lines = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
         List<Map<String, Double>> testParams = new ArrayList<>();
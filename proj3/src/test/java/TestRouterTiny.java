@@ -1,8 +1,12 @@
+import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.assertEquals;
 
@@ -14,6 +18,8 @@ public class TestRouterTiny {
     private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
     private static GraphDB graphTiny;
     private static boolean initialized = false;
+    /** Pool the distance tables are computed in, shut down after the last test. */
+    private static final ForkJoinPool POOL = new ForkJoinPool(2);
 
     @Before
     public void setUp() throws Exception {
@@ -24,6 +30,11 @@ public class TestRouterTiny {
         initialized = true;
     }
 
+    @AfterClass
+    public static void tearDown() {
+        POOL.shutdown();
+    }
+
     @Test
     public void test22to66() {
         List<Long> actual = Router.shortestPath(graphTiny, 0.2, 38.2, 0.6, 38.6);
@@ -63,4 +74,67 @@ public class TestRouterTiny {
         expected.add(55L);
         assertEquals(expected, actual);
     }
+
+    @Test
+    public void testBidirectionalMatchesForward() {
+        for (int s = 0; s < graphTiny.size(); s++) {
+            for (int t = 0; t < graphTiny.size(); t++) {
+                double stlon = graphTiny.lonAt(s);
+                double stlat = graphTiny.latAt(s);
+                double destlon = graphTiny.lonAt(t);
+                double destlat = graphTiny.latAt(t);
+                assertEquals(Router.shortestPath(graphTiny, stlon, stlat, destlon, destlat),
+                        Router.shortestPath(graphTiny, stlon, stlat, destlon, destlat, true));
+            }
+        }
+    }
+
+    @Test
+    public void testDistanceTableMatchesShortestPaths() {
+        int n = graphTiny.size();
+        double[][] points = new double[n + 1][];
+        for (int v = 0; v < n; v++) {
+            points[v] = new double[] {graphTiny.lonAt(v), graphTiny.latAt(v)};
+        }
+        /* A point off the map, which snaps to nothing only if the graph is empty. */
+        points[n] = new double[] {0.45, 38.45};
+        double[][] table = Router.distanceTable(graphTiny, points, points, POOL);
+        for (int s = 0; s <= n; s++) {
+            for (int t = 0; t <= n; t++) {
+                List<Long> path = Router.shortestPath(graphTiny, points[s][0], points[s][1],
+                        points[t][0], points[t][1]);
+                double length = 0;
+                for (int i = 1; i < path.size(); i++) {
+                    length += graphTiny.distance(path.get(i - 1), path.get(i));
+                }
+                double expected = path.isEmpty() ? Double.POSITIVE_INFINITY : length;
+                assertEquals(expected, table[s][t], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testIsochroneReachesWithinBudget() {
+        int n = graphTiny.size();
+        double[][] points = new double[n][];
+        for (int v = 0; v < n; v++) {
+            points[v] = new double[] {graphTiny.lonAt(v), graphTiny.latAt(v)};
+        }
+        double[][] table = Router.distanceTable(graphTiny, points, points, POOL);
+        for (int s = 0; s < n; s++) {
+            /* Every distance from s as a budget, so each vertex is tried on the boundary. */
+            for (double miles : table[s]) {
+                Isochrone iso = Router.isochrone(graphTiny, points[s][0], points[s][1], miles);
+                Set<Long> reached = new HashSet<>();
+                for (int i = 0; i < iso.size(); i++) {
+                    reached.add(iso.id(i));
+                    assertEquals(table[s][graphTiny.index(iso.id(i))], iso.distance(i), 1e-9);
+                }
+                assertEquals(graphTiny.id(s), iso.id(0));
+                for (int t = 0; t < n; t++) {
+                    assertEquals(table[s][t] <= miles, reached.contains(graphTiny.id(t)));
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,129 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that edge attributes are read from way tags by every way of building a
+ * graph, and that each routing profile weighs them as it should.
+ */
+public class TestRoutingProfiles {
+    /**
+     * Two small networks. Above, One runs from 1 to 2 one way, and Loop goes back by
+     * 3. Below, Direct is a slow street from 4 to 5, and Freeway a fast detour by 7.
+     */
+    private static final String OSM_XML = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<osm version=\"0.6\">\n"
+            + " <node id=\"1\" lat=\"38.0\" lon=\"0.0\"/>\n"
+            + " <node id=\"2\" lat=\"38.0\" lon=\"0.1\"/>\n"
+            + " <node id=\"3\" lat=\"38.05\" lon=\"0.05\"/>\n"
+            + " <node id=\"4\" lat=\"37.9\" lon=\"0.0\"/>\n"
+            + " <node id=\"5\" lat=\"37.9\" lon=\"0.1\"/>\n"
+            + " <node id=\"7\" lat=\"37.85\" lon=\"0.05\"/>\n"
+            + " <way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><tag k=\"highway\" v=\"residential\"/>"
+            + "<tag k=\"name\" v=\"One\"/><tag k=\"oneway\" v=\"yes\"/></way>\n"
+            + " <way id=\"11\"><nd ref=\"2\"/><nd ref=\"3\"/><nd ref=\"1\"/>"
+            + "<tag k=\"highway\" v=\"tertiary\"/><tag k=\"name\" v=\"Loop\"/></way>\n"
+            + " <way id=\"12\"><nd ref=\"4\"/><nd ref=\"5\"/><tag k=\"highway\" v=\"residential\"/>"
+            + "<tag k=\"name\" v=\"Direct\"/><tag k=\"maxspeed\" v=\"25 mph\"/></way>\n"
+            + " <way id=\"13\"><nd ref=\"4\"/><nd ref=\"7\"/><nd ref=\"5\"/>"
+            + "<tag k=\"highway\" v=\"motorway\"/><tag k=\"name\" v=\"Freeway\"/>"
+            + "<tag k=\"maxspeed\" v=\"105\"/></way>\n"
+            + "</osm>\n";
+    private static File osmFile;
+    private static GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        if (osmFile == null) {
+            osmFile = File.createTempFile("profiles", ".osm.xml");
+            osmFile.deleteOnExit();
+            Files.write(osmFile.toPath(), OSM_XML.getBytes(StandardCharsets.UTF_8));
+            graph = new GraphDB(osmFile.getPath());
+        }
+    }
+
+    /** Returns the slot of the edge between the vertices with ids v and w. */
+    private static int slot(GraphDB g, long v, long w) {
+        return g.edgeSlot(g.index(v), g.index(w));
+    }
+
+    @Test
+    public void testParseTags() {
+        assertEquals(25, GraphBuildingHandler.parseMaxSpeed("40"));
+        assertEquals(30, GraphBuildingHandler.parseMaxSpeed("30 mph"));
+        assertEquals(31, GraphBuildingHandler.parseMaxSpeed("50 km/h"));
+        assertEquals(0, GraphBuildingHandler.parseMaxSpeed("signals"));
+        assertEquals(1, GraphBuildingHandler.parseOneway("yes", false));
+        assertEquals(-1, GraphBuildingHandler.parseOneway("-1", false));
+        assertEquals(0, GraphBuildingHandler.parseOneway("no", true));
+        assertEquals(1, GraphBuildingHandler.parseOneway(null, true));
+        assertEquals(0, GraphBuildingHandler.parseOneway(null, false));
+    }
+
+    @Test
+    public void testAttributesOfEveryBuild() throws Exception {
+        File snapshot = File.createTempFile("profiles", ".snapshot");
+        snapshot.deleteOnExit();
+        GraphSnapshot.save(graph, snapshot, osmFile);
+        GraphDB loaded = GraphSnapshot.load(snapshot, osmFile);
+        assertNotNull(loaded);
+        for (GraphDB g : Arrays.asList(graph, StreamingGraphBuilder.build(osmFile.getPath(), 2),
+                loaded)) {
+            int residential = GraphBuildingHandler.highwayClass("residential");
+            assertEquals(residential, g.highwayClass(slot(g, 1, 2)));
+            assertTrue(!g.againstOneway(slot(g, 1, 2)));
+            assertTrue(g.againstOneway(slot(g, 2, 1)));
+            assertTrue(!g.againstOneway(slot(g, 3, 1)));
+            assertEquals(25, g.maxSpeed(slot(g, 5, 4)));
+            assertEquals(65, g.maxSpeed(slot(g, 7, 5)));
+            assertEquals(0, g.maxSpeed(slot(g, 2, 3)));
+            assertEquals(GraphBuildingHandler.highwayClass("motorway"),
+                    g.highwayClass(slot(g, 4, 7)));
+            for (int e = 0; e < g.edgeEnd(g.size() - 1); e++) {
+                assertEquals(graph.edgeWeights(RoutingProfile.FASTEST)[e],
+                        g.edgeWeights(RoutingProfile.FASTEST)[e], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testOneway() {
+        assertEquals(Arrays.asList(2L, 1L),
+                Router.shortestPath(graph, 0.1, 38.0, 0.0, 38.0, RoutingProfile.SHORTEST));
+        assertEquals(Arrays.asList(2L, 3L, 1L),
+                Router.shortestPath(graph, 0.1, 38.0, 0.0, 38.0, RoutingProfile.FASTEST));
+        assertEquals(Arrays.asList(2L, 3L, 1L), Router.shortestPath(graph, 0.1, 38.0, 0.0, 38.0,
+                RoutingProfile.AVOID_MOTORWAYS));
+        assertEquals(Arrays.asList(1L, 2L),
+                Router.shortestPath(graph, 0.0, 38.0, 0.1, 38.0, RoutingProfile.FASTEST));
+    }
+
+    @Test
+    public void testSpeedsAndMotorways() {
+        assertEquals(Arrays.asList(4L, 5L),
+                Router.shortestPath(graph, 0.0, 37.9, 0.1, 37.9, RoutingProfile.SHORTEST));
+        assertEquals(Arrays.asList(4L, 7L, 5L),
+                Router.shortestPath(graph, 0.0, 37.9, 0.1, 37.9, RoutingProfile.FASTEST));
+        assertEquals(Arrays.asList(4L, 5L), Router.shortestPath(graph, 0.0, 37.9, 0.1, 37.9,
+                RoutingProfile.AVOID_MOTORWAYS));
+
+        int direct = slot(graph, 4, 5);
+        double miles = graph.edgeWeights(RoutingProfile.SHORTEST)[direct];
+        assertEquals(graph.distanceAt(graph.index(4), graph.index(5)), miles, 0.0);
+        assertEquals(miles / 25, graph.edgeWeights(RoutingProfile.FASTEST)[direct], 1e-12);
+        int freeway = slot(graph, 4, 7);
+        assertEquals(RoutingProfile.MOTORWAY_PENALTY
+                        * graph.edgeWeights(RoutingProfile.SHORTEST)[freeway],
+                graph.edgeWeights(RoutingProfile.AVOID_MOTORWAYS)[freeway], 1e-12);
+        assertEquals(1.0 / 65, graph.weightPerMile(RoutingProfile.FASTEST), 1e-12);
+        assertEquals(1.0, graph.weightPerMile(RoutingProfile.SHORTEST), 0.0);
+    }
+}
@@ -0,0 +1,142 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Checks the eviction rules of SessionStore and that sessions never see each other's state. */
+public class TestSessionStore {
+    private static final long IDLE = TimeUnit.MINUTES.toNanos(30);
+
+    @Test
+    public void testIdleSessionsExpire() {
+        AtomicLong now = new AtomicLong();
+        SessionStore<String> store = new SessionStore<>(10, IDLE, now::get);
+        String a = store.create("a");
+        String b = store.create("b");
+        assertNotEquals(a, b);
+        now.addAndGet(IDLE / 2);
+        assertEquals("a", store.get(a));
+        now.addAndGet(IDLE / 2 + 1);
+        assertEquals("a", store.get(a));
+        assertNull(store.get(b));
+        assertFalse(store.update(b, "b2"));
+        assertTrue(store.update(a, "a2"));
+        assertEquals("a2", store.get(a));
+        assertEquals(1, store.evictions());
+        assertNull(store.get(null));
+        assertNull(store.get("no such session"));
+    }
+
+    @Test
+    public void testFullStoreDropsLeastRecentlyUsed() {
+        AtomicLong now = new AtomicLong();
+        SessionStore<String> store = new SessionStore<>(2, IDLE, now::get);
+        String a = store.create("a");
+        now.incrementAndGet();
+        String b = store.create("b");
+        now.incrementAndGet();
+        store.get(a);
+        now.incrementAndGet();
+        String c = store.create("c");
+        assertEquals(2, store.size());
+        assertEquals("a", store.get(a));
+        assertNull(store.get(b));
+        assertEquals("c", store.get(c));
+        assertEquals(1, store.evictions());
+    }
+
+    /** A full store evicts in a batch, down to nine tenths of its capacity. */
+    @Test
+    public void testFullStoreEvictsInBatches() {
+        AtomicLong now = new AtomicLong();
+        SessionStore<Integer> store = new SessionStore<>(100, IDLE, now::get);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i <= 100; i++) {
+            now.incrementAndGet();
+            ids.add(store.create(i));
+        }
+        assertEquals(90, store.size());
+        assertEquals(11, store.evictions());
+        for (int i = 0; i <= 100; i++) {
+            assertEquals(i < 11 ? null : Integer.valueOf(i), store.get(ids.get(i)));
+        }
+        for (int i = 0; i < 10; i++) {
+            store.create(-1);
+        }
+        assertEquals(100, store.size());
+        assertEquals(11, store.evictions());
+    }
+
+    /** A state that names the thread that stored it, and how many it stored before. */
+    private static class State {
+        final int owner;
+        final int count;
+
+        State(int owner, int count) {
+            this.owner = owner;
+            this.count = count;
+        }
+    }
+
+    @Test
+    public void testConcurrentSessionsAreIsolated() throws InterruptedException {
+        SessionStore<State> store = new SessionStore<>(1000, IDLE);
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int owner = t;
+            Thread thread = new Thread(() -> {
+                String id = store.create(new State(owner, 0));
+                for (int i = 1; i <= 20000; i++) {
+                    State seen = store.get(id);
+                    if (seen.owner != owner || seen.count != i - 1) {
+                        failures.incrementAndGet();
+                    }
+                    store.update(id, new State(owner, i));
+                    /* Churn other sessions, so sweeps run alongside the updates. */
+                    if (i % 100 == 0) {
+                        store.create(new State(-1, 0));
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertTrue(store.size() <= 1000);
+    }
+
+    /** Changes made to one session at once by many threads are never lost. */
+    @Test
+    public void testConcurrentChangesToOneSession() throws InterruptedException {
+        SessionStore<Integer> store = new SessionStore<>(10, IDLE);
+        String id = store.create(0);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    store.update(id, count -> count + 1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Integer.valueOf(8 * 20000), store.get(id));
+        assertFalse(store.update("no such session", count -> count + 1));
+    }
+}
@@ -0,0 +1,48 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the two-pass streaming builder produces the same graph as parsing
+ * into the node map, from plain and gzipped XML.
+ */
+public class TestStreamingGraphBuilder {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+
+    private static void assertSameGraph(GraphDB expected, GraphDB actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.fingerprint(), actual.fingerprint());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.lonAt(i), actual.lonAt(i), 0.0);
+            assertEquals(expected.latAt(i), actual.latAt(i), 0.0);
+            for (int e = expected.edgeStart(i); e < expected.edgeEnd(i); e++) {
+                assertEquals(expected.edgeWay(e), actual.edgeWay(e));
+            }
+        }
+    }
+
+    @Test
+    public void testSameGraph() {
+        assertSameGraph(new GraphDB(OSM_DB_PATH_TINY),
+                StreamingGraphBuilder.build(OSM_DB_PATH_TINY, 2));
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        File gzipped = File.createTempFile("tiny", ".osm.xml.gz");
+        gzipped.deleteOnExit();
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipped))) {
+            out.write(Files.readAllBytes(Paths.get(OSM_DB_PATH_TINY)));
+        }
+        GraphDB expected = new GraphDB(OSM_DB_PATH_TINY);
+        assertSameGraph(expected, new GraphDB(gzipped.getPath()));
+        assertSameGraph(expected, StreamingGraphBuilder.build(gzipped.getPath(), 2));
+    }
+}
@@ -0,0 +1,100 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/** Checks TilePyramid builds and packs archives that TileArchive reads back. */
+public class TestTileArchive {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBuildPyramid() throws IOException {
+        /* A base image two tiles wide, with one color per quadrant. */
+        Color[] colors = {Color.RED, Color.GREEN, Color.BLUE, Color.WHITE};
+        BufferedImage base = new BufferedImage(512, 512, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = base.createGraphics();
+        for (int i = 0; i < 4; i++) {
+            g.setColor(colors[i]);
+            g.fillRect((i & 1) * 256, (i >> 1) * 256, 256, 256);
+        }
+        g.dispose();
+        File file = folder.newFile("pyramid.bin");
+        assertEquals(21, TilePyramid.build(base, file, 2, 1));
+
+        TileArchive archive = TileArchive.open(file);
+        assertEquals(2, archive.maxDepth());
+        BufferedImage root = decode(archive.tile(TileArchive.index(0, 0, 0)));
+        assertEquals(256, root.getWidth());
+        for (int i = 0; i < 4; i++) {
+            int rgb = colors[i].getRGB();
+            assertEquals(rgb, root.getRGB((i & 1) * 128 + 64, (i >> 1) * 128 + 64));
+            BufferedImage quadrant = decode(archive.tile(TileArchive.index(1, i & 1, i >> 1)));
+            assertEquals(rgb, quadrant.getRGB(128, 128));
+            BufferedImage leaf = decode(archive.tile(TileArchive.index(2, 3 * (i & 1),
+                    3 * (i >> 1))));
+            assertEquals(rgb, leaf.getRGB(0, 255));
+        }
+        assertNull(archive.tile(TileArchive.tileCount(2)));
+    }
+
+    @Test
+    public void testPackTiles() throws IOException {
+        File dir = folder.newFolder("tiles");
+        byte[] first = {1, 2, 3};
+        byte[] second = {4, 5};
+        Files.write(new File(dir, "d1_x1_y0.png").toPath(), first);
+        Files.write(new File(dir, "d2_x3_y2.png").toPath(), second);
+        File file = folder.newFile("packed.bin");
+        assertEquals(2, TilePyramid.pack(dir, file, 2));
+
+        TileArchive archive = TileArchive.open(file);
+        Rasterer rasterer = new Rasterer();
+        assertArrayEquals(first, bytes(archive.tile(rasterer.tileIndex("d1_x1_y0.png"))));
+        assertArrayEquals(second, bytes(archive.tile(rasterer.tileIndex("d2_x3_y2.png"))));
+        assertNull(archive.tile(rasterer.tileIndex("d1_x0_y0.png")));
+        assertEquals(-1, rasterer.tileIndex("d1_x2_y0.png"));
+    }
+
+    /** A writer closed without a commit must leave the archive it would replace alone. */
+    @Test
+    public void testUncommittedWriterKeepsArchive() throws IOException {
+        File dir = folder.newFolder("tiles");
+        byte[] first = {1, 2, 3};
+        Files.write(new File(dir, "d0_x0_y0.png").toPath(), first);
+        File file = folder.newFile("packed.bin");
+        TilePyramid.pack(dir, file, 1);
+        byte[] packed = Files.readAllBytes(file.toPath());
+
+        try (TileArchive.Writer writer = new TileArchive.Writer(file, 1)) {
+            writer.add(TileArchive.index(0, 0, 0), new byte[] {4, 5});
+        }
+        assertArrayEquals(packed, Files.readAllBytes(file.toPath()));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertArrayEquals(first, bytes(TileArchive.open(file).tile(TileArchive.index(0, 0, 0))));
+    }
+
+    private static byte[] bytes(ByteBuffer tile) {
+        byte[] res = new byte[tile.remaining()];
+        tile.get(res);
+        return res;
+    }
+
+    private static BufferedImage decode(ByteBuffer tile) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(bytes(tile)));
+    }
+}